@@ -0,0 +1,80 @@
+package com.permanentpaste.benchmarks;
+
+import com.permanentpaste.core.AppSettings;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * Shared fixtures: clipboard-like text of a given size and settings that keep all files
+ * in a scratch directory instead of the user's home.
+ */
+final class BenchmarkData {
+
+    private static final int VOCABULARY_SIZE = 4096;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Returns count distinct texts of the given length, the same for every run. The text is made
+     * of words from a fixed vocabulary, so it has the character statistics of prose or code
+     * rather than of random bytes (which would be the worst case for the search index).
+     */
+    static String[] texts(int count, int chars) {
+        SplittableRandom random = new SplittableRandom(42);
+        String[] vocabulary = new String[VOCABULARY_SIZE];
+        for (int w = 0; w < vocabulary.length; w++) {
+            char[] word = new char[2 + random.nextInt(9)];
+            for (int c = 0; c < word.length; c++) {
+                word[c] = (char) ('a' + random.nextInt(26));
+            }
+            vocabulary[w] = new String(word);
+        }
+
+        String[] texts = new String[count];
+        StringBuilder text = new StringBuilder(chars + 16);
+        for (int i = 0; i < count; i++) {
+            text.setLength(0);
+            //the index makes short texts distinct too
+            text.append(i).append(' ');
+            while (text.length() < chars) {
+                text.append(vocabulary[random.nextInt(vocabulary.length)]);
+                text.append(random.nextInt(12) == 0 ? '\n' : ' ');
+            }
+            text.setLength(chars);
+            texts[i] = text.toString();
+        }
+        return texts;
+    }
+
+    static AppSettings settings(Path dataDirectory, int historySize) {
+        AppSettings settings = new AppSettings() {
+            @Override
+            public Path getDataDirectory() {
+                return dataDirectory;
+            }
+        };
+        settings.setHistorySize(historySize);
+        return settings;
+    }
+
+    static Path scratchDirectory() throws IOException {
+        return Files.createTempDirectory("permanentpaste-bench");
+    }
+
+    static void delete(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.permanentpaste.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs JMH, writing the results as JSON unless another result format is asked for,
+ * so runs of different builds can be compared by tools.
+ *
+ * All regular JMH options work, e.g. {@code java -jar benchmarks.jar HistoryBenchmark -p historySize=100}.
+ */
+public final class BenchmarkMain {
+
+    private static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+    private BenchmarkMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> arguments = new ArrayList<>(List.of(args));
+        if (!arguments.contains("-rf")) {
+            arguments.addAll(List.of("-rf", "json"));
+            if (!arguments.contains("-rff")) {
+                arguments.addAll(List.of("-rff", DEFAULT_RESULT_FILE));
+            }
+        }
+        org.openjdk.jmh.Main.main(arguments.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,84 @@
+package com.permanentpaste.benchmarks;
+
+import com.permanentpaste.core.ContentClassifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Classification cost per captured item: the single-pass classifier the capture path runs,
+ * against a chain of one regex per tag, each scanning the whole text. Prose matches none of the
+ * tags, the worst case for both, since nothing ends a scan early.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Thread)
+public class ContentClassifierBenchmark {
+
+    private static final Pattern[] TAG_PATTERNS = {
+            Pattern.compile("(?i)\\b(?:https?|ftp|file)://|\\bwww\\."),
+            Pattern.compile("[\\w.%+-]+@[\\w-]+(?:\\.[\\w-]+)*\\.[A-Za-z]{2,}"),
+            Pattern.compile("\\A\\s*[\\[{][\\s\\S]*\":[\\s\\S]*[\\]}]\\s*\\z"),
+            Pattern.compile("\\b(?:function|def|class|import|return|public|private|static|const)\\s[\\s\\S]*(?:[;{}]|=>)"),
+            Pattern.compile("\\A\\s*(?:/[^/\\s*]|~/|\\.\\.?/|[A-Za-z]:[\\\\/]|\\\\\\\\)[^\\n]*\\z"),
+            Pattern.compile("(?i)(?:password|passwd|secret|token)\\s*[:=]|-----BEGIN |api[_-]?key|ghp_|xox[bp]-")
+    };
+
+    @Param({"80", "4096", "65536", "1048576"})
+    int payloadChars;
+
+    String prose;
+    //a snippet of code with a link and a password in it
+    String mixed;
+
+    @Setup
+    public void setUp() {
+        prose = BenchmarkData.texts(1, payloadChars)[0];
+        String snippet = "const url = \"https://example.com\";\nfunction login() { return password=\"hunter2\"; }\n";
+        mixed = (snippet + prose).substring(0, Math.max(payloadChars, snippet.length()));
+    }
+
+    @Benchmark
+    public int classifyProse() {
+        return ContentClassifier.classify(prose);
+    }
+
+    @Benchmark
+    public int classifyMixed() {
+        return ContentClassifier.classify(mixed);
+    }
+
+    @Benchmark
+    public int regexChainProse() {
+        return regexChain(prose);
+    }
+
+    @Benchmark
+    public int regexChainMixed() {
+        return regexChain(mixed);
+    }
+
+    private static int regexChain(String text) {
+        int tags = 0;
+        for (int i = 0; i < TAG_PATTERNS.length; i++) {
+            if (TAG_PATTERNS[i].matcher(text).find()) {
+                tags |= 1 << i;
+            }
+        }
+        return tags;
+    }
+}
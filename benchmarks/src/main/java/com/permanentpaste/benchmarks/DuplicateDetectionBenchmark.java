@@ -0,0 +1,52 @@
+package com.permanentpaste.benchmarks;
+
+import com.permanentpaste.core.ContentHash;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Duplicate detection cost per captured item, from a few bytes to tens of MB: the content hash
+ * the app computes once per capture, against comparing the full text with the last item.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Thread)
+public class DuplicateDetectionBenchmark {
+
+    @Param({"16", "4096", "1048576", "16777216"})
+    int payloadChars;
+
+    String text;
+    //equal content in a separate String, as a second read of the clipboard would return
+    String copy;
+
+    @Setup
+    public void setUp() {
+        text = BenchmarkData.texts(1, payloadChars)[0];
+        copy = new String(text.toCharArray());
+    }
+
+    @Benchmark
+    public long contentHash() {
+        return ContentHash.of(text);
+    }
+
+    @Benchmark
+    public boolean fullTextEquals() {
+        return text.equals(copy);
+    }
+}
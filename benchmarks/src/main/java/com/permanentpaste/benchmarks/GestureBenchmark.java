@@ -0,0 +1,61 @@
+package com.permanentpaste.benchmarks;
+
+import com.permanentpaste.GestureEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time the native hook thread spends in the hotkey state machine per key event: ordinary
+ * typing, and tapping the hotkey itself. Run with {@code -prof gc} to check that neither allocates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GestureBenchmark {
+
+    //jnativehook key codes
+    private static final Map<String, Integer> KEYS = Map.of("SHIFT", 0x002A, "CTRL", 0x001D, "V", 0x002F, "A", 0x001E);
+    private static final int SHIFT = KEYS.get("SHIFT");
+    private static final int A = KEYS.get("A");
+
+    GestureEngine engine;
+
+    @Setup
+    public void setUp() {
+        engine = new GestureEngine(GestureEngine.parseAll("2x Shift, Ctrl+Shift+V",
+                name -> KEYS.getOrDefault(name.toUpperCase(), -1)), (gesture, pressedAtNanos) -> {
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Benchmark
+    public void typeOtherKey() {
+        engine.keyPressed(A);
+        engine.keyReleased(A);
+    }
+
+    @Benchmark
+    public void tapHotkey() {
+        engine.keyPressed(SHIFT);
+        engine.keyReleased(SHIFT);
+    }
+}
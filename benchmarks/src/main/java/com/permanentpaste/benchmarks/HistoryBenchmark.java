@@ -0,0 +1,188 @@
+package com.permanentpaste.benchmarks;
+
+import com.permanentpaste.core.AppSettings;
+import com.permanentpaste.core.ClipboardManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Capture path of {@link ClipboardManager}: inserting new items into a full history (so every
+ * insert also evicts), re-capturing an item that is already in history, and shrinking the
+ * history when the size setting changes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "-Djava.awt.headless=true"})
+public class HistoryBenchmark {
+
+    /**
+     * Every capture is a new item: the text is the same apart from a counter stamped at its start.
+     * Creating the String is part of the measurement, as it is when the text comes from the clipboard.
+     */
+    public abstract static class NewItems {
+        Path directory;
+        ClipboardManager manager;
+        char[] buffer;
+        long counter;
+
+        void setUp(int historySize, int payloadChars) throws IOException {
+            directory = BenchmarkData.scratchDirectory();
+            manager = new ClipboardManager(BenchmarkData.settings(directory, historySize));
+            buffer = BenchmarkData.texts(1, payloadChars)[0].toCharArray();
+            //start full, so every insert also evicts
+            for (int i = 0; i < historySize; i++) {
+                manager.capture(nextText());
+            }
+        }
+
+        String nextText() {
+            long value = ++counter;
+            for (int i = Math.min(buffer.length, 16) - 1; i >= 0; i--) {
+                buffer[i] = (char) ('0' + value % 10);
+                value /= 10;
+            }
+            return new String(buffer);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            manager.close();
+            BenchmarkData.delete(directory);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Capture extends NewItems {
+        @Param({"5", "100", "5000"})
+        int historySize;
+
+        @Param({"16", "1024", "16384"})
+        int payloadChars;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            setUp(historySize, payloadChars);
+        }
+    }
+
+    /**
+     * Items above the spill threshold (256 KB by default), which are compressed to disk.
+     */
+    @State(Scope.Thread)
+    public static class Spill extends NewItems {
+        @Param({"262144", "4194304", "16777216"})
+        int payloadChars;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            setUp(5, payloadChars);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Duplicates {
+        @Param({"5", "100", "5000"})
+        int historySize;
+
+        @Param({"16", "1024", "16384", "262144"})
+        int payloadChars;
+
+        Path directory;
+        ClipboardManager manager;
+        String first;
+        String second;
+        boolean flip;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = BenchmarkData.scratchDirectory();
+            manager = new ClipboardManager(BenchmarkData.settings(directory, historySize));
+            String[] texts = BenchmarkData.texts(Math.min(historySize, 64), payloadChars);
+            for (String text : texts) {
+                manager.capture(text);
+            }
+            //two items already in history, copied back and forth
+            first = texts[0];
+            second = texts[texts.length - 1];
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            manager.close();
+            BenchmarkData.delete(directory);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Trim {
+        @Param({"100", "5000"})
+        int historySize;
+
+        Path directory;
+        AppSettings settings;
+        ClipboardManager manager;
+        String[] texts;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = BenchmarkData.scratchDirectory();
+            settings = BenchmarkData.settings(directory, historySize);
+            manager = new ClipboardManager(settings);
+            texts = BenchmarkData.texts(historySize, 64);
+        }
+
+        @Setup(Level.Invocation)
+        public void fill() {
+            settings.setHistorySize(historySize);
+            for (String text : texts) {
+                manager.capture(text);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            manager.close();
+            BenchmarkData.delete(directory);
+        }
+    }
+
+    @Benchmark
+    public boolean captureNewItem(Capture state) {
+        return state.manager.capture(state.nextText());
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public boolean captureSpilledItem(Spill state) {
+        return state.manager.capture(state.nextText());
+    }
+
+    @Benchmark
+    public boolean captureDuplicate(Duplicates state) {
+        state.flip = !state.flip;
+        return state.manager.capture(state.flip ? state.first : state.second);
+    }
+
+    @Benchmark
+    public int trimToFive(Trim state) {
+        state.settings.setHistorySize(5);
+        return state.manager.getHistorySnapshot().size();
+    }
+}
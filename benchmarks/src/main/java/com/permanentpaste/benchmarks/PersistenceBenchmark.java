@@ -0,0 +1,117 @@
+package com.permanentpaste.benchmarks;
+
+import com.permanentpaste.core.HistoryEntry;
+import com.permanentpaste.core.HistoryLog;
+import com.permanentpaste.core.PayloadStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization cost of the history log: appending a record while the oldest one is removed
+ * (the steady state of a full history, including compaction), and loading the history at startup:
+ * reading the offset index, then decoding every entry.
+ * Payloads go up to the spill threshold; larger items are stored as a blob reference,
+ * see {@link HistoryBenchmark#captureSpilledItem}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class PersistenceBenchmark {
+
+    private static final int LIVE_RECORDS = 100;
+
+    @State(Scope.Thread)
+    public static class Append {
+        @Param({"16", "4096", "131072"})
+        int payloadChars;
+
+        Path directory;
+        HistoryLog log;
+        String text;
+        long counter;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = BenchmarkData.scratchDirectory();
+            log = HistoryLog.open(directory);
+            text = BenchmarkData.texts(1, payloadChars)[0];
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            log.close();
+            BenchmarkData.delete(directory);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Load {
+        @Param({"100", "1000"})
+        int historySize;
+
+        @Param({"16", "4096", "131072"})
+        int payloadChars;
+
+        Path directory;
+        PayloadStore payloads;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = BenchmarkData.scratchDirectory();
+            payloads = new PayloadStore(directory.resolve("payloads"));
+            try (HistoryLog log = HistoryLog.open(directory.resolve("history"))) {
+                long now = System.currentTimeMillis();
+                for (String text : BenchmarkData.texts(historySize, payloadChars)) {
+                    log.append(new HistoryEntry(text, now++));
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            BenchmarkData.delete(directory);
+        }
+    }
+
+    @Benchmark
+    public int appendRecord(Append state) throws IOException {
+        long hash = ++state.counter;
+        state.log.append(new HistoryEntry(state.text, hash, hash));
+        //keep the log at a steady size, removals make compaction run now and then
+        if (hash > LIVE_RECORDS) {
+            state.log.remove(hash - LIVE_RECORDS);
+        }
+        return state.log.size();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<HistoryEntry> openAndLoad(Load state) throws IOException {
+        try (HistoryLog log = HistoryLog.open(state.directory.resolve("history"))) {
+            List<HistoryEntry> entries = new ArrayList<>();
+            for (HistoryLog.Stored stored : log.load(state.historySize)) {
+                entries.add(log.read(stored.hash(), state.payloads));
+            }
+            return entries;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.permanentpaste.benchmarks;
+
+import com.permanentpaste.core.HistoryEntry;
+import com.permanentpaste.ui.HistoryListModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.swing.DefaultListModel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the history popup's list model, headless. {@link #rebuildDefaultModel} is how the
+ * popup filled its list on every open before the model was kept in sync; {@link #resetModel}
+ * is the full rebuild that is now only done once, and {@link #addNewestWhenFull} is the
+ * per-capture update that replaced it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class PopupModelBenchmark {
+
+    private static final HistoryEntry PLACEHOLDER = new HistoryEntry("History is empty.", 0L);
+
+    @Param({"5", "100", "5000"})
+    int historySize;
+
+    List<HistoryEntry> snapshot;
+    HistoryEntry[] incoming;
+    HistoryListModel model;
+    int next;
+
+    @Setup
+    public void setUp() {
+        snapshot = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (String text : BenchmarkData.texts(historySize, 200)) {
+            snapshot.add(new HistoryEntry(text, now++));
+        }
+        incoming = snapshot.toArray(new HistoryEntry[0]);
+        model = new HistoryListModel(PLACEHOLDER);
+        model.reset(snapshot);
+    }
+
+    @Benchmark
+    public DefaultListModel<HistoryEntry> rebuildDefaultModel() {
+        DefaultListModel<HistoryEntry> listModel = new DefaultListModel<>();
+        for (int i = snapshot.size() - 1; i >= 0; i--) {
+            listModel.addElement(snapshot.get(i));
+        }
+        return listModel;
+    }
+
+    @Benchmark
+    public int resetModel() {
+        model.reset(snapshot);
+        return model.getSize();
+    }
+
+    @Benchmark
+    public int addNewestWhenFull() {
+        //the oldest entry is evicted and comes back as the newest, as in a full history
+        HistoryEntry entry = incoming[next];
+        next = next + 1 == incoming.length ? 0 : next + 1;
+        model.remove(entry);
+        model.addNewest(entry);
+        return model.getSize();
+    }
+}
@@ -0,0 +1,236 @@
+package com.permanentpaste.benchmarks;
+
+import com.permanentpaste.core.ClipboardManager;
+import com.permanentpaste.core.ContentHash;
+import com.permanentpaste.core.HistoryEntry;
+import com.permanentpaste.core.HistoryListener;
+import com.permanentpaste.core.InMemoryClipboardBackend;
+import com.permanentpaste.core.LatencyHistogram;
+import com.permanentpaste.core.Log;
+
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.StringSelection;
+import java.awt.datatransfer.Transferable;
+import java.awt.datatransfer.UnsupportedFlavorException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Churns clipboard changes through the real capture pipeline of {@link ClipboardManager},
+ * monitoring included, on an {@link InMemoryClipboardBackend}, and reports throughput,
+ * changes the pipeline never captured, heap growth and the latency from copy to history.
+ *
+ * Payloads are mixed: mostly short text, some KB-sized, a few large ones, and a share of
+ * HTML copies, which also change the clipboard's flavor set. A small share of steps restores
+ * a history entry instead of copying, as the popup does.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.permanentpaste.benchmarks.SoakHarness
+ *     [--rate changes/s] [--seconds n] [--history n] [--transfer-micros n] [--failure-rate 0..1] [--awt-notifications]
+ * </pre>
+ * With --awt-notifications, listeners hear of flavor set changes only, as with the system
+ * clipboard, so most text-to-text changes are left to the poll.
+ */
+public final class SoakHarness {
+
+    private static final double HTML_SHARE = 0.1;
+    private static final double RESTORE_SHARE = 0.01;
+
+    private static final DataFlavor[] HTML_FLAVORS = {DataFlavor.stringFlavor, DataFlavor.allHtmlFlavor};
+
+    //text and its content hash, hashed ahead so the driver does not pay for it
+    private record Payload(String text, long hash, boolean html) {
+    }
+
+    private SoakHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rate = 2000;
+        int seconds = 30;
+        int historySize = 1000;
+        long transferMicros = 0;
+        double failureRate = 0.0;
+        boolean awtNotifications = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--rate" -> rate = Integer.parseInt(args[++i]);
+                case "--seconds" -> seconds = Integer.parseInt(args[++i]);
+                case "--history" -> historySize = Integer.parseInt(args[++i]);
+                case "--transfer-micros" -> transferMicros = Long.parseLong(args[++i]);
+                case "--failure-rate" -> failureRate = Double.parseDouble(args[++i]);
+                case "--awt-notifications" -> awtNotifications = true;
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        Payload[][] pools = {
+                payloads(20_000, 80),
+                payloads(2_000, 4 * 1024),
+                payloads(200, 64 * 1024),
+                payloads(8, 1024 * 1024)
+        };
+        //share of the changes taken from each pool
+        double[] mix = {0.70, 0.25, 0.04, 0.01};
+
+        //one info line per capture would measure the console
+        Log.setLevel(Log.Level.WARN);
+        Path directory = BenchmarkData.scratchDirectory();
+        InMemoryClipboardBackend backend = new InMemoryClipboardBackend();
+        backend.setTransferDelay(transferMicros * 1000L);
+        backend.setFailureRate(failureRate);
+        backend.setNotifyEveryChange(!awtNotifications);
+        ClipboardManager manager = new ClipboardManager(BenchmarkData.settings(directory, historySize), backend);
+
+        //copy time of every change not captured yet, by content hash
+        Map<Long, Long> pending = new ConcurrentHashMap<>();
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicLong captured = new AtomicLong();
+        manager.addHistoryListener(new HistoryListener() {
+            @Override
+            public void entryAdded(HistoryEntry entry) {
+                Long copiedAt = pending.remove(entry.getHash());
+                if (copiedAt != null) {
+                    latency.record(System.nanoTime() - copiedAt);
+                    captured.incrementAndGet();
+                }
+            }
+
+            @Override
+            public void entryRemoved(HistoryEntry entry) {
+            }
+        });
+        manager.loadPersistedHistory();
+        manager.startMonitoring();
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long heapBefore = usedHeapAfterGc(memory);
+
+        SplittableRandom random = new SplittableRandom(7);
+        long periodNanos = 1_000_000_000L / rate;
+        long total = (long) rate * seconds;
+        long copies = 0;
+        long restores = 0;
+        long lastHash = 0;
+        long start = System.nanoTime();
+        for (long step = 0; step < total; step++) {
+            long due = start + step * periodNanos;
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            if (random.nextDouble() < RESTORE_SHARE) {
+                List<HistoryEntry> hot = manager.getHistorySnapshot();
+                if (!hot.isEmpty()) {
+                    manager.restoreClipboard(hot.get(random.nextInt(hot.size())));
+                    restores++;
+                    continue;
+                }
+            }
+            Payload payload = pick(pools, mix, random);
+            if (payload.hash() == lastHash) {
+                continue;
+            }
+            lastHash = payload.hash();
+            pending.put(payload.hash(), System.nanoTime());
+            backend.copy(payload.html() ? html(payload.text()) : new StringSelection(payload.text()));
+            copies++;
+        }
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        //the last changes get the slowest poll interval to be seen
+        Thread.sleep(1500);
+        ClipboardManager.MonitoringMode mode = manager.getMonitoringMode();
+        manager.stopMonitoring();
+        long heapAfter = usedHeapAfterGc(memory);
+
+        long capturedCount = captured.get();
+        System.out.printf(Locale.ROOT, "changes      %d copies, %d restores in %.1f s (%.0f/s offered)%n",
+                copies, restores, elapsedSeconds, (copies + restores) / elapsedSeconds);
+        System.out.printf(Locale.ROOT, "captured     %d (%.0f/s), dropped %d (%.1f%%)%n",
+                capturedCount, capturedCount / elapsedSeconds, copies - capturedCount,
+                copies == 0 ? 0.0 : 100.0 * (copies - capturedCount) / copies);
+        System.out.printf(Locale.ROOT, "clipboard    %d transfers, %d simulated failures, monitoring mode %s%n",
+                backend.getTransferCount(), backend.getFailureCount(), mode);
+        System.out.printf(Locale.ROOT, "history      %d hot, %d cold, %.1f MB%n",
+                manager.getHistorySnapshot().size(), manager.getColdSize(), manager.getHistoryBytes() / 1048576.0);
+        System.out.printf(Locale.ROOT, "heap         %.1f MB -> %.1f MB (%+.1f MB)%n",
+                heapBefore / 1048576.0, heapAfter / 1048576.0, (heapAfter - heapBefore) / 1048576.0);
+        System.out.printf(Locale.ROOT, "latency ms   p50 %.3f  p90 %.3f  p99 %.3f  p99.9 %.3f  max %.3f%n",
+                millis(latency.getValueAtPercentile(50)), millis(latency.getValueAtPercentile(90)),
+                millis(latency.getValueAtPercentile(99)), millis(latency.getValueAtPercentile(99.9)),
+                millis(latency.getMax()));
+
+        manager.close();
+        BenchmarkData.delete(directory);
+        System.exit(0);
+    }
+
+    private static Payload[] payloads(int count, int chars) {
+        String[] texts = BenchmarkData.texts(count, chars);
+        Payload[] payloads = new Payload[count];
+        SplittableRandom random = new SplittableRandom(chars);
+        for (int i = 0; i < count; i++) {
+            //each size has its own prefix, texts of different pools never collide
+            String text = chars + ":" + texts[i];
+            payloads[i] = new Payload(text, ContentHash.of(text), random.nextDouble() < HTML_SHARE);
+        }
+        return payloads;
+    }
+
+    private static Payload pick(Payload[][] pools, double[] mix, SplittableRandom random) {
+        double r = random.nextDouble();
+        int pool = 0;
+        while (pool < mix.length - 1 && r >= mix[pool]) {
+            r -= mix[pool];
+            pool++;
+        }
+        return pools[pool][random.nextInt(pools[pool].length)];
+    }
+
+    /**
+     * The text as a browser would copy it, with an HTML flavor next to the plain text.
+     */
+    private static Transferable html(String text) {
+        String markup = "<p>" + text + "</p>";
+        return new Transferable() {
+            @Override
+            public DataFlavor[] getTransferDataFlavors() {
+                return HTML_FLAVORS.clone();
+            }
+
+            @Override
+            public boolean isDataFlavorSupported(DataFlavor flavor) {
+                return flavor.equals(DataFlavor.stringFlavor) || flavor.equals(DataFlavor.allHtmlFlavor);
+            }
+
+            @Override
+            public Object getTransferData(DataFlavor flavor) throws UnsupportedFlavorException {
+                if (flavor.equals(DataFlavor.stringFlavor)) {
+                    return text;
+                }
+                if (flavor.equals(DataFlavor.allHtmlFlavor)) {
+                    return markup;
+                }
+                throw new UnsupportedFlavorException(flavor);
+            }
+        };
+    }
+
+    private static long usedHeapAfterGc(MemoryMXBean memory) throws InterruptedException {
+        System.gc();
+        Thread.sleep(200);
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
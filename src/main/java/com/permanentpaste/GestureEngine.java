@@ -0,0 +1,258 @@
+package com.permanentpaste;
+
+import com.permanentpaste.core.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.ToIntFunction;
+
+/**
+ * Recognizes hotkey gestures from raw key presses and releases.
+ *
+ * {@link #keyPressed(int)} and {@link #keyReleased(int)} are called on the native hook thread
+ * and only update primitive state, so global key delivery is never held up: they do not
+ * allocate, lock or block. A recognized gesture is put on a fixed-size single-producer queue
+ * and handed to the {@link Listener} on the engine's own worker thread.
+ *
+ * A gesture is a key tapped a number of times, optionally while other keys are held:
+ * double Shift is {@code 2x Shift}, a chord is e.g. {@code Ctrl+Shift+V}.
+ */
+public class GestureEngine {
+
+    /**
+     * Receives gesture events on the worker thread.
+     */
+    public interface Listener {
+        /**
+         * The first tap of a multi-tap gesture, the rest may follow.
+         */
+        default void gestureArmed(Gesture gesture) {
+        }
+
+        /**
+         * @param pressedAtNanos {@link System#nanoTime()} of the key press that completed the gesture
+         */
+        void gestureTriggered(Gesture gesture, long pressedAtNanos);
+    }
+
+    /**
+     * @param name Shown in logs
+     * @param heldKeys Keys that must be held while tapping, empty for a plain multi-tap
+     * @param key The key that is tapped
+     * @param taps How many taps complete the gesture
+     * @param tapWindowNanos Longest gap between two taps
+     */
+    public record Gesture(String name, int[] heldKeys, int key, int taps, long tapWindowNanos) {
+
+        public static final long DEFAULT_TAP_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(400);
+
+        /**
+         * Parses a gesture such as {@code "2x Shift"}, {@code "Ctrl+Shift+V"} or {@code "Ctrl+2x Alt"}.
+         * @param keyCodes Maps a key name to its key code, or returns -1 for unknown names
+         * @throws IllegalArgumentException If the spec cannot be parsed
+         */
+        public static Gesture parse(String spec, ToIntFunction<String> keyCodes) {
+            String[] parts = spec.trim().split("\\s*\\+\\s*");
+            int[] held = new int[parts.length - 1];
+            for (int i = 0; i < held.length; i++) {
+                held[i] = keyCode(parts[i], keyCodes, spec);
+            }
+            String last = parts[parts.length - 1];
+            int taps = 1;
+            int x = last.toLowerCase(Locale.ROOT).indexOf('x');
+            if (x > 0 && last.substring(0, x).chars().allMatch(Character::isDigit)) {
+                taps = Integer.parseInt(last.substring(0, x));
+                last = last.substring(x + 1).trim();
+            }
+            if (taps < 1) {
+                throw new IllegalArgumentException("Gesture needs at least one tap: " + spec);
+            }
+            return new Gesture(spec.trim(), held, keyCode(last, keyCodes, spec), taps, DEFAULT_TAP_WINDOW_NANOS);
+        }
+
+        private static int keyCode(String name, ToIntFunction<String> keyCodes, String spec) {
+            int code = keyCodes.applyAsInt(name.trim());
+            if (code < 0 || code >= MAX_KEY_CODE) {
+                throw new IllegalArgumentException("Unknown key '" + name.trim() + "' in gesture: " + spec);
+            }
+            return code;
+        }
+    }
+
+    private static final int MAX_KEY_CODE = 1 << 16;
+    private static final int QUEUE_SIZE = 64;
+    //presses closer than this are key bounce
+    private static final long DEBOUNCE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final int ARMED = 0;
+    private static final int TRIGGERED = 1;
+
+    private final Gesture[] gestures;
+    private final Listener listener;
+
+    //hook thread only
+    private final long[] heldKeys = new long[MAX_KEY_CODE / 64];
+    private final int[] tapCounts;
+    private final long[] lastTapNanos;
+
+    //single-producer, single-consumer ring: the hook thread writes at tail, the worker reads at head
+    private final int[] queuedEvents = new int[QUEUE_SIZE];
+    private final long[] queuedNanos = new long[QUEUE_SIZE];
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    //written by the hook thread only, read from anywhere
+    private volatile long dropped = 0L;
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    public GestureEngine(List<Gesture> gestures, Listener listener) {
+        this.gestures = gestures.toArray(new Gesture[0]);
+        this.listener = listener;
+        this.tapCounts = new int[this.gestures.length];
+        this.lastTapNanos = new long[this.gestures.length];
+        this.worker = new Thread(this::drain, "gesture-worker");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Called on the hook thread for every key press.
+     */
+    public void keyPressed(int keyCode) {
+        if (keyCode < 0 || keyCode >= MAX_KEY_CODE) {
+            return;
+        }
+        long now = System.nanoTime();
+        //auto-repeat of a key that is already down is not a tap
+        boolean repeat = isHeld(keyCode);
+        heldKeys[keyCode >>> 6] |= 1L << keyCode;
+        if (repeat) {
+            return;
+        }
+
+        for (int g = 0; g < gestures.length; g++) {
+            Gesture gesture = gestures[g];
+            if (keyCode == gesture.key) {
+                tap(g, gesture, now);
+            } else if (!contains(gesture.heldKeys, keyCode)) {
+                //any other key breaks the sequence
+                tapCounts[g] = 0;
+            }
+        }
+    }
+
+    /**
+     * Called on the hook thread for every key release.
+     */
+    public void keyReleased(int keyCode) {
+        if (keyCode >= 0 && keyCode < MAX_KEY_CODE) {
+            heldKeys[keyCode >>> 6] &= ~(1L << keyCode);
+        }
+    }
+
+    /**
+     * @return Events dropped because the worker fell behind
+     */
+    public long getDroppedEvents() {
+        return dropped;
+    }
+
+    public void close() {
+        running = false;
+        LockSupport.unpark(worker);
+    }
+
+    private void tap(int g, Gesture gesture, long now) {
+        for (int held : gesture.heldKeys) {
+            if (!isHeld(held)) {
+                tapCounts[g] = 0;
+                return;
+            }
+        }
+        if (tapCounts[g] > 0) {
+            long gap = now - lastTapNanos[g];
+            if (gap < DEBOUNCE_NANOS) {
+                return;
+            }
+            if (gap > gesture.tapWindowNanos) {
+                tapCounts[g] = 0;
+            }
+        }
+        lastTapNanos[g] = now;
+
+        if (++tapCounts[g] == gesture.taps) {
+            tapCounts[g] = 0;
+            publish(g, TRIGGERED, now);
+        } else if (tapCounts[g] == 1) {
+            publish(g, ARMED, now);
+        }
+    }
+
+    private void publish(int gesture, int type, long nanos) {
+        long t = tail.get();
+        if (t - head.get() == QUEUE_SIZE) {
+            dropped++;
+            return;
+        }
+        int slot = (int) (t & (QUEUE_SIZE - 1));
+        queuedEvents[slot] = gesture << 1 | type;
+        queuedNanos[slot] = nanos;
+        //release store: the slot is written before the worker can see the new tail
+        tail.lazySet(t + 1);
+        LockSupport.unpark(worker);
+    }
+
+    private void drain() {
+        while (running) {
+            long h = head.get();
+            if (h == tail.get()) {
+                LockSupport.park(this);
+                continue;
+            }
+            int slot = (int) (h & (QUEUE_SIZE - 1));
+            int event = queuedEvents[slot];
+            long nanos = queuedNanos[slot];
+            head.lazySet(h + 1);
+
+            Gesture gesture = gestures[event >>> 1];
+            try {
+                if ((event & 1) == TRIGGERED) {
+                    listener.gestureTriggered(gesture, nanos);
+                } else {
+                    listener.gestureArmed(gesture);
+                }
+            } catch (RuntimeException e) {
+                Log.warn("Error handling gesture " + gesture.name() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private boolean isHeld(int keyCode) {
+        return (heldKeys[keyCode >>> 6] & (1L << keyCode)) != 0;
+    }
+
+    private static boolean contains(int[] keys, int keyCode) {
+        for (int key : keys) {
+            if (key == keyCode) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses a comma separated list of gestures, see {@link Gesture#parse}.
+     */
+    public static List<Gesture> parseAll(String specs, ToIntFunction<String> keyCodes) {
+        List<Gesture> gestures = new ArrayList<>();
+        for (String spec : specs.split(",")) {
+            if (!spec.isBlank()) {
+                gestures.add(Gesture.parse(spec, keyCodes));
+            }
+        }
+        return gestures;
+    }
+}
@@ -3,265 +3,439 @@ package com.permanentpaste;
 import javax.swing.*;
 import com.formdev.flatlaf.FlatDarkLaf;
 import com.github.kwhat.jnativehook.keyboard.NativeKeyListener;
+import com.github.kwhat.jnativehook.mouse.NativeMouseEvent;
+import com.github.kwhat.jnativehook.mouse.NativeMouseListener;
 import com.permanentpaste.core.AppSettings;
+import com.permanentpaste.core.ClipboardLock;
 import com.permanentpaste.core.ClipboardManager;
+import com.permanentpaste.core.DataDirectoryLock;
+import com.permanentpaste.core.LatencyStage;
+import com.permanentpaste.core.Log;
+import com.permanentpaste.core.PasteExecutor;
+import com.permanentpaste.core.SelectionClipboardBackend;
+import com.permanentpaste.daemon.HistoryServer;
 import com.permanentpaste.ui.ControlCubeFrame;
 import com.permanentpaste.ui.PasteHistoryDialog;
+import com.permanentpaste.ui.UiResources;
 
 import com.github.kwhat.jnativehook.GlobalScreen;
 import com.github.kwhat.jnativehook.NativeHookException;
 import com.github.kwhat.jnativehook.keyboard.NativeKeyEvent;
 
 import java.awt.*;
-import java.awt.event.KeyEvent;
-import java.awt.Robot;
-import java.awt.AWTException;
+import java.awt.event.InputEvent;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
 
-public class Main implements NativeKeyListener {
+public class Main implements NativeKeyListener, NativeMouseListener {
 
     private AppSettings appSettings;
+    //held for the life of the process, so no other instance uses the same history files
+    private DataDirectoryLock dataDirectoryLock;
     private ClipboardManager clipboardManager;
-    private PasteHistoryDialog pasteHistoryDialog;
-
-    // Performance-optimized double Shift detection state
-    private long lastShiftPressTime = 0L;
-    private int consecutiveShiftPresses = 0;
-    private boolean doubleShiftTriggered = false;
-
-    // Timing constants (using static final for compiler optimization)
-    private static final long DOUBLE_SHIFT_THRESHOLD = 400L; // 400ms window
-    private static final long DEBOUNCE_THRESHOLD = 50L;     // 50ms debounce
-    private static final long RESET_TIMEOUT = 1000L;        // 1s reset timeout
-    private static final int MAX_SHIFT_PRESSES = 3;          // Prevent excessive detection
+    //history of the PRIMARY selection, created when terminal mode is first turned on
+    private volatile ClipboardManager selectionManager;
+    private volatile boolean terminalMode = false;
+    //owns the one Robot used for all synthetic key strokes, null in daemon mode
+    private PasteExecutor pasteExecutor;
+    //created on the EDT during startup, null until then
+    private volatile PasteHistoryDialog pasteHistoryDialog;
+
+    //recognizes the popup hotkey, null until the settings are loaded
+    private volatile GestureEngine gestureEngine;
+    private static final String DEFAULT_GESTURE = "2x Shift";
 
     public static void main(String[] args) {
-        FlatDarkLaf.setup();
         Main app = new Main();
-        app.start();
+        if (List.of(args).contains("--daemon")) {
+            app.startDaemon();
+        } else {
+            app.start();
+        }
     }
 
+    /**
+     * Starts the app. Look and feel, native hook, history and UI resources are prepared in
+     * parallel; the settings window is only built once the hotkey is armed and the history
+     * is loaded.
+     */
     public void start() {
         appSettings = new AppSettings();
+        lockDataDirectory();
+        StartupPipeline startup = new StartupPipeline();
+        pasteExecutor = new PasteExecutor();
         clipboardManager = new ClipboardManager(appSettings);
-        pasteHistoryDialog = new PasteHistoryDialog(clipboardManager);
+        //whatever way the app exits, keep the latencies of the session and the end of the log
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            writeLatencyReport();
+            Log.close();
+        }, "shutdown"));
+
+        CompletableFuture<Void> lookAndFeel = startup.phase("look-and-feel", FlatDarkLaf::setup);
+        CompletableFuture<Void> nativeHook = startup.phase("native-hook", this::registerNativeHook);
+        CompletableFuture<Void> history = startup.phase("history", () -> {
+            //load SAVED settings
+            appSettings.loadSettingsFromFile();
+            configureLog();
+            gestureEngine = createGestureEngine();
+            //and the history from the previous run
+            clipboardManager.loadPersistedHistory();
+            //if monitoring is ON start monitoring
+            if (appSettings.isMonitoringEnabled()) {
+                clipboardManager.startMonitoring();
+            } else {
+                Log.info("Monitoring is initially disabled by settings.");
+            }
+        });
+        CompletableFuture<Font> font = startup.supply("font", () -> UiResources.loadAppFont("/AlienSpace.ttf", 14f));
+        CompletableFuture<Image> logo = startup.supply("logo",
+                () -> UiResources.loadLogo("/mainImage.png", appSettings.getDataDirectory().resolve("cache")));
+
+        //the popup only needs the look and feel, so it is ready as soon as possible
+        CompletableFuture<Void> popup = lookAndFeel.thenRunAsync(() ->
+                startup.run("popup", () -> pasteHistoryDialog = new PasteHistoryDialog(clipboardManager, pasteExecutor)),
+                SwingUtilities::invokeLater);
+
+        CompletableFuture.allOf(lookAndFeel, nativeHook, history, font, logo, popup).whenComplete((ignored, error) -> {
+            if (error != null) {
+                Log.error("Startup failed: " + error.getMessage());
+                System.exit(1);
+            }
+            SwingUtilities.invokeLater(() -> {
+                startup.run("settings-window", () -> showControlCubeFrame(font.join(), logo.join()));
+                applyTerminalMode();
+                appSettings.addPropertyChangeListener(AppSettings.LINUX_TERMINAL_PROPERTY,
+                        evt -> SwingUtilities.invokeLater(this::applyTerminalMode));
+                appSettings.addPropertyChangeListener(AppSettings.MONITORING_PROPERTY,
+                        evt -> SwingUtilities.invokeLater(this::applyTerminalMode));
+                startup.finish();
+            });
+        });
+    }
 
-        //load SAVED settings
+    /**
+     * Starts capture, history and persistence without any UI or hotkey, serving the history
+     * on a Unix domain socket instead. Runs until the process is terminated.
+     */
+    public void startDaemon() {
+        appSettings = new AppSettings();
+        lockDataDirectory();
         appSettings.loadSettingsFromFile();
-        //if monitoring is ON start monitoring
+        configureLog();
+        clipboardManager = new ClipboardManager(appSettings);
+        clipboardManager.loadPersistedHistory();
         if (appSettings.isMonitoringEnabled()) {
             clipboardManager.startMonitoring();
-        }else {
-            System.out.println("Monitoring is initially disabled by settings.");
+        } else {
+            Log.info("Monitoring is initially disabled by settings.");
+        }
+        HistoryServer server;
+        try {
+            server = HistoryServer.open(clipboardManager, appSettings.getDaemonSocketPath());
+        } catch (IOException e) {
+            Log.error("Could not start the history daemon: " + e.getMessage());
+            Log.close();
+            System.exit(1);
+            return;
+        }
+        Thread serverThread = new Thread(server::run, "history-server");
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            //let a request in progress finish before the history is closed under it
+            try {
+                serverThread.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            clipboardManager.stopMonitoring();
+            clipboardManager.close();
+            writeLatencyReport();
+            Log.close();
+        }, "shutdown"));
+        serverThread.start();
+    }
+
+    /**
+     * Exits if another app or daemon already uses the data directory.
+     */
+    private void lockDataDirectory() {
+        try {
+            dataDirectoryLock = DataDirectoryLock.acquire(appSettings.getDataDirectory());
+        } catch (IOException e) {
+            Log.error("Could not start: " + e.getMessage());
+            Log.close();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Keeps a history of the PRIMARY selection while terminal mode and monitoring are on, and
+     * lets the popup offer it. Turning terminal mode off keeps that history for later.
+     * Runs on the EDT, after startup and whenever one of the two settings changes.
+     */
+    private void applyTerminalMode() {
+        boolean enabled = appSettings.isUseInLinuxTerminal();
+        ClipboardManager selection = selectionManager;
+        if (enabled && selection == null) {
+            if (!SelectionClipboardBackend.isAvailable()) {
+                Log.warn("Terminal mode needs a PRIMARY selection, which this platform does not have.");
+                return;
+            }
+            selection = new ClipboardManager(appSettings, new SelectionClipboardBackend(),
+                    appSettings.getDataDirectory().resolve("selection"));
+            //a drag changes the selection on every pixel, only the final one is kept
+            selection.setSettleMillis(appSettings.getSelectionSettleMillis());
+            selection.loadPersistedHistory();
+            selectionManager = selection;
+        }
+        if (selection == null) {
+            return;
+        }
+        if (enabled && appSettings.isMonitoringEnabled()) {
+            selection.startMonitoring();
+        } else if (selection.isMonitoringActive()) {
+            selection.stopMonitoring();
+        }
+        if (enabled != terminalMode) {
+            terminalMode = enabled;
+            pasteHistoryDialog.setSelectionHistory(enabled ? selection : null);
+        }
+    }
+
+    private void configureLog() {
+        try {
+            Log.setLevel(Log.Level.valueOf(appSettings.getLogLevel().trim().toUpperCase(Locale.ROOT)));
+        } catch (IllegalArgumentException e) {
+            Log.warn("Unknown log level " + appSettings.getLogLevel() + ", using INFO");
+        }
+        Log.setRedactPayloads(!appSettings.isLogPayloadsEnabled());
+        try {
+            Log.openFile(appSettings.getDataDirectory().resolve("logs"));
+        } catch (IOException e) {
+            Log.warn("Could not open log file, logging to the console only: " + e.getMessage());
+        }
+    }
+
+    private void writeLatencyReport() {
+        Log.info(System.lineSeparator() + LatencyStage.report().stripTrailing());
+        try {
+            LatencyStage.writeReport(appSettings.getDataDirectory().resolve("latency.txt"));
+        } catch (IOException e) {
+            Log.warn("Could not write latency report: " + e.getMessage());
         }
+    }
 
+    private void registerNativeHook() {
         //register, turn on
         try {
             GlobalScreen.registerNativeHook();
         } catch (NativeHookException ex) {
-            System.err.println("There was a problem registering the native hook.");
-            System.err.println(ex.getMessage());
+            Log.error("There was a problem registering the native hook: " + ex.getMessage());
             System.exit(1);
         }
 
         //listen to its actions by class in which it is implemented(main)
         GlobalScreen.addNativeKeyListener(this);
+        //the end of a mouse selection, in terminal mode
+        GlobalScreen.addNativeMouseListener(this);
+    }
 
-        SwingUtilities.invokeLater(() -> {
-            ControlCubeFrame controlCubeFrame = new ControlCubeFrame(appSettings, clipboardManager);
-            //show the UI
-            controlCubeFrame.setVisible(true);
-
-            controlCubeFrame.addWindowListener(new java.awt.event.WindowAdapter() {
-                //when window closing
-                @Override
-                public void windowClosing(java.awt.event.WindowEvent windowEvent) {
-                    try {
-                        //unregister, turn off
-                        GlobalScreen.unregisterNativeHook();
-                    } catch (NativeHookException e) {
-                        System.err.println("Failed to unregister native hook: " + e.getMessage());
-                    }
-                    //saving if changes in UI when the app closes, if there was changes in the session
-                    appSettings.saveSettingsToFile();
-                    clipboardManager.stopMonitoring();
-
-                    System.exit(0);
+    private void showControlCubeFrame(Font mainFont, Image logo) {
+        ControlCubeFrame controlCubeFrame = new ControlCubeFrame(appSettings, clipboardManager, mainFont, logo);
+        //show the UI
+        controlCubeFrame.setVisible(true);
+
+        controlCubeFrame.addWindowListener(new java.awt.event.WindowAdapter() {
+            //when window closing
+            @Override
+            public void windowClosing(java.awt.event.WindowEvent windowEvent) {
+                try {
+                    //unregister, turn off
+                    GlobalScreen.unregisterNativeHook();
+                } catch (NativeHookException e) {
+                    Log.warn("Failed to unregister native hook: " + e.getMessage());
                 }
-            });
+                //saving if changes in UI when the app closes, if there was changes in the session
+                appSettings.saveSettingsToFile();
+                clipboardManager.stopMonitoring();
+                clipboardManager.close();
+                ClipboardManager selection = selectionManager;
+                if (selection != null) {
+                    selection.stopMonitoring();
+                    selection.close();
+                }
+                pasteExecutor.close();
+                gestureEngine.close();
+
+                System.exit(0);
+            }
         });
     }
 
     @Override
     public void nativeKeyPressed(NativeKeyEvent e) {
-        // Performance-optimized double Shift detection
-        if (e.getKeyCode() == NativeKeyEvent.VC_SHIFT) {
-            handleShiftKeyPress();
-        } else {
-            // Reset state on any other key press for cleaner behavior
-            resetDoubleShiftState();
+        int modifier = modifierMask(e.getKeyCode());
+        if (modifier != 0) {
+            pasteExecutor.modifierPressed(modifier);
+        }
+        // Only records the press, gestures are handled on the engine's worker thread
+        GestureEngine engine = gestureEngine;
+        if (engine != null) {
+            engine.keyPressed(e.getKeyCode());
         }
     }
 
     @Override
     public void nativeKeyReleased(NativeKeyEvent e) {
-        // Key release logic is now handled in nativeKeyPressed for better timing
-        // This method is kept empty but required for interface implementation
+        int modifier = modifierMask(e.getKeyCode());
+        if (modifier != 0) {
+            pasteExecutor.modifierReleased(modifier);
+        }
+        GestureEngine engine = gestureEngine;
+        if (engine != null) {
+            engine.keyReleased(e.getKeyCode());
+        }
     }
 
     @Override
     public void nativeKeyTyped(NativeKeyEvent e) {
     }
 
+    @Override
+    public void nativeMouseReleased(NativeMouseEvent e) {
+        // A selection made by dragging is complete, capture it without waiting for it to settle
+        ClipboardManager selection = selectionManager;
+        if (terminalMode && selection != null && e.getButton() == NativeMouseEvent.BUTTON1) {
+            selection.settle();
+        }
+    }
+
+    /**
+     * @return The {@link InputEvent} modifier mask for a native key code, 0 if it is not a modifier
+     */
+    private static int modifierMask(int keyCode) {
+        return switch (keyCode) {
+            case NativeKeyEvent.VC_SHIFT -> InputEvent.SHIFT_DOWN_MASK;
+            case NativeKeyEvent.VC_CONTROL -> InputEvent.CTRL_DOWN_MASK;
+            case NativeKeyEvent.VC_ALT -> InputEvent.ALT_DOWN_MASK;
+            case NativeKeyEvent.VC_META -> InputEvent.META_DOWN_MASK;
+            default -> 0;
+        };
+    }
+
     /**
      * LAYER 1: Immediately block the Shift key at hardware level
-     * to prevent double Shift from affecting other applications
+     * to prevent the hotkey from affecting other applications
      */
     private void blockKeyCombinationImmediately() {
-        try {
-            Robot robot = new Robot();
-
-            // Immediately release Shift key to prevent the double press from propagating
-            robot.keyRelease(KeyEvent.VK_SHIFT);
-            robot.keyRelease(KeyEvent.VK_ALT);
-            robot.keyRelease(KeyEvent.VK_META);
-
-            System.out.println("Hardware-level Shift key blocking applied");
-        } catch (AWTException e) {
-            System.err.println("Failed to create robot for key blocking: " + e.getMessage());
-        }
+        // Immediately release Shift key to prevent the double press from propagating
+        pasteExecutor.releaseModifiers();
+        Log.info("Hardware-level Shift key blocking applied");
     }
 
     /**
-     * LAYER 2: Perform multi-pass clipboard clearing to ensure complete interception
+     * LAYER 2: Take clipboard ownership once, so nothing can be pasted while the dialog is open.
+     * Interference is reported by the lock itself, no verification passes are needed.
+     * @return The lock, or null if the clipboard could not be locked
      */
-    private String performMultiPassClipboardLock() {
-        String originalContent = "";
-
+    private ClipboardLock lockClipboard() {
         try {
-            // Use enhanced force lock with built-in verification
-            originalContent = clipboardManager.forceLockClipboard();
-
-            // Additional manual passes for ultra-fast applications
-            Robot robot = new Robot();
-
-            for (int i = 0; i < 2; i++) {
-                robot.delay(2); // 2ms delay - shorter than before for speed
-                clipboardManager.lockClipboard(); // Clear again
-            }
-
-            System.out.println("Enhanced multi-pass clipboard clearing completed");
+            return clipboardManager.acquireClipboardLock();
         } catch (Exception e) {
-            System.err.println("Error in enhanced multi-pass clipboard lock: " + e.getMessage());
+            Log.warn("Error locking clipboard: " + e.getMessage());
+            return null;
         }
-
-        return originalContent;
     }
 
     /**
      * LAYER 3: Show dialog with atomic operations to prevent timing gaps
      */
-    private void performAtomicDialogDisplay(String originalClipboardContent) {
+    private void performAtomicDialogDisplay(ClipboardLock clipboardLock, long triggeredAtNanos) {
         // Use SwingUtilities.invokeLater to ensure UI operations are on EDT
         SwingUtilities.invokeLater(() -> {
+            if (pasteHistoryDialog == null) {
+                // Hotkey pressed before startup finished
+                clipboardLock.release();
+                return;
+            }
             try {
                 // Get the current coordinates of the mouse
                 Point mouseLocation = MouseInfo.getPointerInfo().getLocation();
 
                 // Call the method to display our paste history dialog at the mouse's location
-                // with the original clipboard content as backup
+                // with the original clipboard content as backup, given back if nothing gets pasted
                 pasteHistoryDialog.showDialogWithClipboardInterception(
-                    mouseLocation.x, mouseLocation.y, originalClipboardContent, () -> {
-                        System.out.println("Dialog closed - enhanced clipboard interception complete");
-                    });
+                    mouseLocation.x, mouseLocation.y, clipboardLock, () -> {
+                        clipboardLock.release();
+                        Log.info("Dialog closed - enhanced clipboard interception complete");
+                    }, triggeredAtNanos);
             } catch (Exception e) {
-                System.err.println("Error showing dialog: " + e.getMessage());
+                Log.warn("Error showing dialog: " + e.getMessage());
                 // Fallback: restore clipboard if dialog fails
-                clipboardManager.restoreClipboard(originalClipboardContent);
+                clipboardLock.release();
             }
         });
     }
 
-    /**
-     * Performance-optimized double Shift detection handler
-     */
-    private void handleShiftKeyPress() {
-        long currentTime = System.currentTimeMillis();
-
-        // Early exit for maximum performance - check conditions in order of likelihood
-        if (doubleShiftTriggered) {
-            return; // Already triggered, ignore additional Shift presses
-        }
-
-        // Debounce: ignore very rapid successive presses (key bounce)
-        if (currentTime - lastShiftPressTime < DEBOUNCE_THRESHOLD) {
-            return;
+    private GestureEngine createGestureEngine() {
+        List<GestureEngine.Gesture> gestures;
+        try {
+            gestures = GestureEngine.parseAll(appSettings.getHotkeyGestures(), Main::nativeKeyCode);
+        } catch (IllegalArgumentException e) {
+            Log.warn(e.getMessage() + ", using " + DEFAULT_GESTURE);
+            gestures = GestureEngine.parseAll(DEFAULT_GESTURE, Main::nativeKeyCode);
         }
-
-        // Check if this is within the double press window
-        if (currentTime - lastShiftPressTime <= DOUBLE_SHIFT_THRESHOLD) {
-            consecutiveShiftPresses++;
-
-            // Trigger on exactly 2 presses (double Shift)
-            if (consecutiveShiftPresses == 2) {
-                triggerDoubleShiftInterception();
-                return; // Early exit to prevent additional processing
+        return new GestureEngine(gestures, new GestureEngine.Listener() {
+            @Override
+            public void gestureArmed(GestureEngine.Gesture gesture) {
+                // Speculatively get the popup ready, so the last tap only has to show it
+                PasteHistoryDialog dialog = pasteHistoryDialog;
+                if (dialog != null) {
+                    SwingUtilities.invokeLater(dialog::prepare);
+                }
             }
 
-            // Safety: prevent excessive consecutive presses
-            if (consecutiveShiftPresses >= MAX_SHIFT_PRESSES) {
-                resetDoubleShiftState();
-                return;
+            @Override
+            public void gestureTriggered(GestureEngine.Gesture gesture, long pressedAtNanos) {
+                triggerInterception(gesture, pressedAtNanos);
             }
-        } else {
-            // Outside window, start new sequence
-            consecutiveShiftPresses = 1;
-        }
-
-        lastShiftPressTime = currentTime;
+        });
+    }
 
-        // Schedule automatic reset for cleanup (performance-optimized)
-        scheduleResetTimeout();
+    /**
+     * Maps a key name such as "Shift", "Ctrl" or "V" to its native key code.
+     * @return The key code, or -1 if there is no such key
+     */
+    private static int nativeKeyCode(String name) {
+        String key = switch (name.toUpperCase(Locale.ROOT)) {
+            case "CTRL" -> "CONTROL";
+            case "WIN", "CMD", "SUPER" -> "META";
+            default -> name.toUpperCase(Locale.ROOT).replace(' ', '_');
+        };
+        try {
+            return NativeKeyEvent.class.getField("VC_" + key).getInt(null);
+        } catch (ReflectiveOperationException e) {
+            return -1;
+        }
     }
 
     /**
-     * Trigger the enhanced multi-layer interception on double Shift detection
+     * Runs the enhanced multi-layer interception for a recognized hotkey, on the gesture worker thread
      */
-    private void triggerDoubleShiftInterception() {
+    private void triggerInterception(GestureEngine.Gesture gesture, long pressedAtNanos) {
+        LatencyStage.GESTURE.recordSince(pressedAtNanos);
         if (!appSettings.isMonitoringEnabled() || !clipboardManager.isMonitoringActive()) {
-            resetDoubleShiftState();
             return;
         }
 
-        System.out.println("Double Shift detected - using enhanced multi-layer interception!");
-        doubleShiftTriggered = true;
+        Log.info(gesture.name() + " detected - using enhanced multi-layer interception!");
 
-        // Reuse existing enhanced multi-layer interception
         blockKeyCombinationImmediately();
-        String originalClipboardContent = performMultiPassClipboardLock();
-        performAtomicDialogDisplay(originalClipboardContent);
-
-        // Reset state after successful trigger
-        resetDoubleShiftState();
-    }
-
-    /**
-     * Performance-optimized state reset
-     */
-    private void resetDoubleShiftState() {
-        lastShiftPressTime = 0L;
-        consecutiveShiftPresses = 0;
-        doubleShiftTriggered = false;
-    }
-
-    /**
-     * Schedule automatic reset with minimal overhead
-     */
-    private void scheduleResetTimeout() {
-        // Only schedule if not already scheduled to prevent multiple timers
-        if (consecutiveShiftPresses == 1) {
-            javax.swing.Timer resetTimer = new javax.swing.Timer((int) RESET_TIMEOUT, e -> resetDoubleShiftState());
-            resetTimer.setRepeats(false);
-            resetTimer.start();
+        ClipboardLock clipboardLock = lockClipboard();
+        if (clipboardLock != null) {
+            performAtomicDialogDisplay(clipboardLock, pressedAtNanos);
         }
     }
-}
\ No newline at end of file
+}
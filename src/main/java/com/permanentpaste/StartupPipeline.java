@@ -0,0 +1,110 @@
+package com.permanentpaste;
+
+import com.permanentpaste.core.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs the independent startup steps (look and feel, native hook, history, font, logo)
+ * in parallel and records how long each phase took, so startup regressions show up
+ * in the console instead of just "feeling slower".
+ */
+public class StartupPipeline {
+
+    /**
+     * Timing of one phase, relative to the start of the pipeline.
+     */
+    public record PhaseTiming(String name, long startNanos, long endNanos) {
+        double durationMillis() {
+            return (endNanos - startNanos) / 1_000_000.0;
+        }
+    }
+
+    private final long startNanos = System.nanoTime();
+    private final List<PhaseTiming> timings = new ArrayList<>();
+    private final ExecutorService executor;
+
+    public StartupPipeline() {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(4, r -> {
+            Thread thread = new Thread(r, "startup-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts a phase on the startup pool.
+     */
+    public CompletableFuture<Void> phase(String name, Runnable step) {
+        return CompletableFuture.runAsync(() -> run(name, step), executor);
+    }
+
+    /**
+     * Starts a phase on the startup pool that produces a value.
+     */
+    public <T> CompletableFuture<T> supply(String name, Supplier<T> step) {
+        return CompletableFuture.supplyAsync(() -> {
+            long phaseStart = System.nanoTime();
+            try {
+                return step.get();
+            } finally {
+                record(name, phaseStart);
+            }
+        }, executor);
+    }
+
+    /**
+     * Runs a phase on the calling thread, e.g. the EDT.
+     */
+    public void run(String name, Runnable step) {
+        long phaseStart = System.nanoTime();
+        try {
+            step.run();
+        } finally {
+            record(name, phaseStart);
+        }
+    }
+
+    /**
+     * Records a point in time, e.g. when the main window became visible.
+     */
+    public void mark(String name) {
+        record(name, System.nanoTime());
+    }
+
+    /**
+     * Prints the per-phase breakdown and releases the startup threads.
+     */
+    public void finish() {
+        executor.shutdown();
+        StringBuilder report = new StringBuilder("Startup timing (ms):");
+        synchronized (timings) {
+            for (PhaseTiming timing : timings) {
+                report.append(String.format(Locale.ROOT, "%n  %-16s %8.1f  [%.1f -> %.1f]", timing.name(), timing.durationMillis(),
+                        (timing.startNanos() - startNanos) / 1_000_000.0, (timing.endNanos() - startNanos) / 1_000_000.0));
+            }
+        }
+        report.append(String.format(Locale.ROOT, "%n  %-16s %8.1f", "total", (System.nanoTime() - startNanos) / 1_000_000.0));
+        Log.info(report.toString());
+    }
+
+    public List<PhaseTiming> getTimings() {
+        synchronized (timings) {
+            return List.copyOf(timings);
+        }
+    }
+
+    private void record(String name, long phaseStart) {
+        synchronized (timings) {
+            timings.add(new PhaseTiming(name, phaseStart, System.nanoTime()));
+        }
+    }
+}
@@ -1,5 +1,10 @@
 package com.permanentpaste.core;
 
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 /**
  * This class holds all user-configurable settings for the application.
  * It follows the Single Responsibility Principle, as its only job is to manage
@@ -10,6 +15,22 @@ package com.permanentpaste.core;
  */
 public class AppSettings {
 
+    public static final String HISTORY_SIZE_PROPERTY = "historySize";
+    public static final String PERSISTENCE_PROPERTY = "persistenceEnabled";
+    public static final String MAX_HISTORY_MB_PROPERTY = "maxHistoryMb";
+    public static final String MAX_ITEM_AGE_PROPERTY = "maxItemAgeMinutes";
+    public static final String MONITORING_PROPERTY = "monitoringEnabled";
+    public static final String LINUX_TERMINAL_PROPERTY = "useInLinuxTerminal";
+
+    /**
+     * What happens to items the {@link ContentClassifier} tags as likely secrets.
+     * KEEP treats them like any other item, EXPIRE keeps them out of the persisted history and
+     * drops them after {@link #getSensitiveItemSeconds()}, SKIP never adds them.
+     */
+    public enum SensitiveItemPolicy { KEEP, EXPIRE, SKIP }
+
+    private final PropertyChangeSupport changeSupport = new PropertyChangeSupport(this);
+
     /**
      * If true, the clipboard history will be monitored from the moment user saves the configuration
      * If false, the history will not be monitored
@@ -22,6 +43,27 @@ public class AppSettings {
      */
     private int historySize = 5;
 
+    /**
+     * How many of the newest history items are kept fully in memory. Older items, up to the
+     * history size, are kept on disk with only a small index in memory.
+     * Default is 200.
+     */
+    private int hotHistorySize = 200;
+
+    /**
+     * Most megabytes the whole history may take, counting the text and the captured flavors of
+     * every item; the oldest items are dropped first. 0 means no limit.
+     * Default is 0.
+     */
+    private int maxHistoryMb = 0;
+
+    /**
+     * Minutes after which an item is dropped from the history, counted from the last time
+     * it was copied. 0 means items never expire.
+     * Default is 0.
+     */
+    private int maxItemAgeMinutes = 0;
+
     /**
      * If true, the clipboard history will be saved when the app closes and reloaded
      * when it starts. If false, the history will be cleared on exit.
@@ -36,14 +78,107 @@ public class AppSettings {
      */
     private boolean includeCutItems = true;
 
+    /**
+     * If true, the PRIMARY selection (select to copy, middle-click to paste) gets a history of
+     * its own next to the clipboard's, and pasting uses the terminal keys Ctrl+Shift+V.
+     * Only where the platform has a PRIMARY selection, i.e. Linux.
+     * Default is false.
+     */
     private boolean useInLinuxTerminal = false;
 
+    /**
+     * A PRIMARY selection is captured once it has stayed the same this long, or when the mouse
+     * button is released, so a drag selecting text is captured once and not on every pixel.
+     * Default is 400 ms.
+     */
+    private int selectionSettleMillis = 400;
+
+    /**
+     * What happens to items that look like passwords, tokens or keys.
+     * Default is EXPIRE.
+     */
+    private SensitiveItemPolicy sensitiveItemPolicy = SensitiveItemPolicy.EXPIRE;
+
+    /**
+     * Seconds a likely secret stays in the history under the EXPIRE policy, counted from the
+     * last time it was copied.
+     * Default is 60.
+     */
+    private int sensitiveItemSeconds = 60;
+
+    /**
+     * Items larger than this are compressed to disk and only a preview is kept in memory.
+     * Default is 256 KB.
+     */
+    private int spillThresholdKb = 256;
+
+    /**
+     * Hotkeys that open the history popup, comma separated. A key tapped several times
+     * ("2x Shift") or a chord ("Ctrl+Shift+V"); key names are the native key names, e.g. Shift, Ctrl, V.
+     * Default is double Shift.
+     */
+    private String hotkeyGestures = "2x Shift";
+
+    /**
+     * Least severe messages that are logged: DEBUG, INFO, WARN or ERROR.
+     * Default is INFO.
+     */
+    private String logLevel = "INFO";
+
+    /**
+     * If true, clipboard contents are written to the log in full instead of only their length and hash.
+     * Default is false.
+     */
+    private boolean logPayloads = false;
+
     public int getHistorySize() {
         return historySize;
     }
 
     public void setHistorySize(int historySize) {
+        int oldHistorySize = this.historySize;
         this.historySize = historySize;
+        changeSupport.firePropertyChange(HISTORY_SIZE_PROPERTY, oldHistorySize, historySize);
+    }
+
+    public int getHotHistorySize() {
+        return hotHistorySize;
+    }
+
+    public void setHotHistorySize(int hotHistorySize) {
+        this.hotHistorySize = hotHistorySize;
+    }
+
+    public int getMaxHistoryMb() {
+        return maxHistoryMb;
+    }
+
+    public void setMaxHistoryMb(int maxHistoryMb) {
+        int oldMaxHistoryMb = this.maxHistoryMb;
+        this.maxHistoryMb = maxHistoryMb;
+        changeSupport.firePropertyChange(MAX_HISTORY_MB_PROPERTY, oldMaxHistoryMb, maxHistoryMb);
+    }
+
+    public int getMaxItemAgeMinutes() {
+        return maxItemAgeMinutes;
+    }
+
+    public void setMaxItemAgeMinutes(int maxItemAgeMinutes) {
+        int oldMaxItemAgeMinutes = this.maxItemAgeMinutes;
+        this.maxItemAgeMinutes = maxItemAgeMinutes;
+        changeSupport.firePropertyChange(MAX_ITEM_AGE_PROPERTY, oldMaxItemAgeMinutes, maxItemAgeMinutes);
+    }
+
+    /**
+     * Registers a listener notified when the given setting changes, so components
+     * like the history store can react live instead of re-reading the settings.
+     */
+    public void addPropertyChangeListener(String propertyName, PropertyChangeListener listener) {
+        changeSupport.addPropertyChangeListener(propertyName, listener);
+    }
+
+    public void removePropertyChangeListener(String propertyName, PropertyChangeListener listener) {
+        changeSupport.removePropertyChangeListener(propertyName, listener);
     }
 
     public boolean isPersistenceEnabled() {
@@ -51,7 +186,23 @@ public class AppSettings {
     }
 
     public void setPersistenceEnabled(boolean persistenceEnabled) {
+        boolean oldPersistenceEnabled = isPersistenceEnabled;
         isPersistenceEnabled = persistenceEnabled;
+        changeSupport.firePropertyChange(PERSISTENCE_PROPERTY, oldPersistenceEnabled, persistenceEnabled);
+    }
+
+    /**
+     * Directory holding everything the app stores on disk, such as the history log.
+     */
+    public Path getDataDirectory() {
+        return Paths.get(System.getProperty("user.home"), ".permanentpaste");
+    }
+
+    /**
+     * Unix domain socket the daemon serves the history on.
+     */
+    public Path getDaemonSocketPath() {
+        return getDataDirectory().resolve("daemon.sock");
     }
 
     public boolean isIncludeCutItemsEnabled() {
@@ -63,12 +214,70 @@ public class AppSettings {
     }
 
 
+    public SensitiveItemPolicy getSensitiveItemPolicy() {
+        return sensitiveItemPolicy;
+    }
+
+    public void setSensitiveItemPolicy(SensitiveItemPolicy sensitiveItemPolicy) {
+        this.sensitiveItemPolicy = sensitiveItemPolicy;
+    }
+
+    public int getSensitiveItemSeconds() {
+        return sensitiveItemSeconds;
+    }
+
+    public void setSensitiveItemSeconds(int sensitiveItemSeconds) {
+        this.sensitiveItemSeconds = sensitiveItemSeconds;
+    }
+
+    public int getSpillThresholdKb() {
+        return spillThresholdKb;
+    }
+
+    public void setSpillThresholdKb(int spillThresholdKb) {
+        this.spillThresholdKb = spillThresholdKb;
+    }
+
+    public String getHotkeyGestures() {
+        return hotkeyGestures;
+    }
+
+    public void setHotkeyGestures(String hotkeyGestures) {
+        this.hotkeyGestures = hotkeyGestures;
+    }
+
+    public String getLogLevel() {
+        return logLevel;
+    }
+
+    public void setLogLevel(String logLevel) {
+        this.logLevel = logLevel;
+    }
+
+    public boolean isLogPayloadsEnabled() {
+        return logPayloads;
+    }
+
+    public void setLogPayloads(boolean logPayloads) {
+        this.logPayloads = logPayloads;
+    }
+
     public boolean isUseInLinuxTerminal() {
         return useInLinuxTerminal;
     }
 
     public void setUseInLinuxTerminal(boolean useInLinuxTerminal) {
+        boolean oldUseInLinuxTerminal = this.useInLinuxTerminal;
         this.useInLinuxTerminal = useInLinuxTerminal;
+        changeSupport.firePropertyChange(LINUX_TERMINAL_PROPERTY, oldUseInLinuxTerminal, useInLinuxTerminal);
+    }
+
+    public int getSelectionSettleMillis() {
+        return selectionSettleMillis;
+    }
+
+    public void setSelectionSettleMillis(int selectionSettleMillis) {
+        this.selectionSettleMillis = selectionSettleMillis;
     }
 
 
@@ -77,7 +286,9 @@ public class AppSettings {
     }
 
     public void setMonitoringEnabled(boolean monitoringEnabled) {
+        boolean oldMonitoringEnabled = isMonitoringEnabled;
         isMonitoringEnabled = monitoringEnabled;
+        changeSupport.firePropertyChange(MONITORING_PROPERTY, oldMonitoringEnabled, monitoringEnabled);
     }
 
     /**
@@ -85,7 +296,7 @@ public class AppSettings {
      * We will implement this in a later phase.
      */
     public void saveSettingsToFile() {
-        System.out.println("Saving settings to file... (Not implemented yet)");
+        Log.info("Saving settings to file... (Not implemented yet)");
     }
 
     /**
@@ -93,7 +304,7 @@ public class AppSettings {
      * We will implement this in a later phase.
      */
     public void loadSettingsFromFile() {
-        System.out.println("Loading settings from file... (Not implemented yet)");
+        Log.info("Loading settings from file... (Not implemented yet)");
     }
 
 }
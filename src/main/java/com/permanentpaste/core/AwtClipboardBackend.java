@@ -0,0 +1,15 @@
+package com.permanentpaste.core;
+
+import java.awt.Toolkit;
+import java.awt.datatransfer.Clipboard;
+
+/**
+ * The system clipboard, through AWT. Needs a display.
+ */
+public class AwtClipboardBackend implements ClipboardBackend {
+
+    @Override
+    public Clipboard getClipboard() {
+        return Toolkit.getDefaultToolkit().getSystemClipboard();
+    }
+}
@@ -0,0 +1,17 @@
+package com.permanentpaste.core;
+
+import java.awt.datatransfer.Clipboard;
+
+/**
+ * Where the clipboard that is captured, locked and restored comes from.
+ * The app uses the {@link AwtClipboardBackend system clipboard}; the
+ * {@link InMemoryClipboardBackend} lets the same code run headless and at any rate.
+ */
+public interface ClipboardBackend {
+
+    /**
+     * @return The clipboard to read, set and listen to
+     * @throws IllegalStateException Or another runtime exception if the clipboard is unavailable
+     */
+    Clipboard getClipboard();
+}
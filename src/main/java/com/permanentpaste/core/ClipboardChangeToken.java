@@ -0,0 +1,175 @@
+package com.permanentpaste.core;
+
+import java.awt.Image;
+import java.awt.datatransfer.Clipboard;
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.UnsupportedFlavorException;
+import java.awt.image.BufferedImage;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * A fingerprint of the clipboard contents: the offered flavor set, and the length of the text
+ * payload with a hash of its first and last {@value #EDGE_BYTES} bytes. Two equal tokens mean
+ * nothing changed, so the text only has to be decoded into a String and captured when the
+ * token differs from the last one seen.
+ *
+ * AWT has no change counter for the clipboard, so the token is the fallback, not the primary
+ * signal. Flavor change notifications, and losing ownership of contents this app set, wake a
+ * check right away, and a clipboard this app still owns is not read at all. What neither
+ * reports, a copy offering the same flavors as the one before, can only be seen by reading the
+ * clipboard. The token keeps that read bounded: the middle of the text stream is skipped
+ * without being hashed or decoded, so its cost does not grow with the text. The limitation
+ * is a copy of the same length that only differs in the middle, which is not seen until the
+ * next flavor or ownership change.
+ *
+ * Contents without text are fingerprinted by what they hold instead: a file selection by its
+ * paths, an image by its size and a grid of sampled pixels. Telling two images apart means
+ * transferring the image, so an image fingerprint is reused for {@value #IMAGE_RECHECK_MILLIS}
+ * ms while the flavor set stays the same; another image copied meanwhile is seen that much later.
+ */
+record ClipboardChangeToken(int flavorsHash, long length, long contentHash) {
+
+    //hashed at each end of the text, the bytes in between only count towards the length
+    private static final int EDGE_BYTES = 4096;
+    private static final long IMAGE_RECHECK_MILLIS = 5000;
+    private static final DataFlavor TEXT_STREAM_FLAVOR = DataFlavor.getTextPlainUnicodeFlavor();
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    //pixels sampled per image side
+    private static final int IMAGE_SAMPLES = 8;
+
+    //the last image fingerprint read from a clipboard, reused by polls until it is due again
+    private record ImageCheck(Clipboard clipboard, ClipboardChangeToken token, long checkedAt) {
+    }
+
+    private static volatile ImageCheck lastImageCheck;
+
+    /**
+     * Reads the token from the clipboard without materializing the payload as a String.
+     * Returns a token with length -1 if the clipboard could not be read, e.g. because another
+     * application has it open; such a token never equals a previous one, so the next check
+     * reads the clipboard again.
+     */
+    static ClipboardChangeToken read(Clipboard clipboard) {
+        return read(clipboard, clipboard.getAvailableDataFlavors());
+    }
+
+    /**
+     * Same as {@link #read(Clipboard)}, with the flavor list the caller already has.
+     */
+    static ClipboardChangeToken read(Clipboard clipboard, DataFlavor[] available) {
+        return read(clipboard, available, null);
+    }
+
+    /**
+     * Same as {@link #read(Clipboard, DataFlavor[])}, fingerprinting an image that was already
+     * transferred instead of transferring it again.
+     * @param image The clipboard's image, or null to read it if the token needs it
+     */
+    static ClipboardChangeToken read(Clipboard clipboard, DataFlavor[] available, Image image) {
+        int flavorsHash = 0;
+        boolean hasText = false;
+        boolean hasFiles = false;
+        boolean hasImage = false;
+        for (DataFlavor flavor : available) {
+            //order independent, platforms do not guarantee flavor order
+            flavorsHash += flavor.hashCode();
+            hasText |= flavor.equals(DataFlavor.stringFlavor);
+            hasFiles |= flavor.isFlavorJavaFileListType();
+            hasImage |= flavor.equals(DataFlavor.imageFlavor);
+        }
+        if (!hasText) {
+            try {
+                if (hasImage) {
+                    ImageCheck check = lastImageCheck;
+                    long now = System.currentTimeMillis();
+                    if (image == null && check != null && check.clipboard() == clipboard
+                            && check.token().flavorsHash() == flavorsHash && now - check.checkedAt() < IMAGE_RECHECK_MILLIS) {
+                        return check.token();
+                    }
+                    ClipboardChangeToken token = ofImage(flavorsHash, image != null ? image : FlavorRecord.readImage(clipboard));
+                    lastImageCheck = new ImageCheck(clipboard, token, now);
+                    return token;
+                }
+                if (hasFiles) {
+                    return ofFiles(flavorsHash, (List<?>) clipboard.getData(DataFlavor.javaFileListFlavor));
+                }
+            } catch (Exception e) {
+                return new ClipboardChangeToken(flavorsHash, -1, System.nanoTime());
+            }
+            return new ClipboardChangeToken(flavorsHash, 0, 0);
+        }
+
+        try {
+            InputStream in;
+            try {
+                in = (InputStream) clipboard.getData(TEXT_STREAM_FLAVOR);
+            } catch (UnsupportedFlavorException e) {
+                //contents of this process, e.g. a StringSelection, are not converted; reading them transfers nothing
+                String text = (String) clipboard.getData(DataFlavor.stringFlavor);
+                return new ClipboardChangeToken(flavorsHash, text.length(), ContentHash.of(text));
+            }
+            try (in) {
+                byte[] head = in.readNBytes(EDGE_BYTES);
+                long length = head.length;
+                //the middle is skipped, which the platforms' in-memory streams do without copying
+                long skippable;
+                while ((skippable = in.available() - (long) EDGE_BYTES) > 0) {
+                    long skipped = in.skip(skippable);
+                    if (skipped <= 0) {
+                        break;
+                    }
+                    length += skipped;
+                }
+                //a stream that cannot tell what is left is read through, keeping the last two blocks
+                byte[] before = new byte[0];
+                byte[] last = new byte[0];
+                for (byte[] block; (block = in.readNBytes(EDGE_BYTES)).length > 0; ) {
+                    length += block.length;
+                    before = last;
+                    last = block;
+                }
+                return new ClipboardChangeToken(flavorsHash, length, fnv(fnv(fnv(FNV_OFFSET, head), before), last));
+            }
+        } catch (Exception e) {
+            return new ClipboardChangeToken(flavorsHash, -1, System.nanoTime());
+        }
+    }
+
+    /**
+     * FNV-1a over the bytes.
+     */
+    private static long fnv(long hash, byte[] bytes) {
+        for (byte b : bytes) {
+            hash ^= (b & 0xff);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static ClipboardChangeToken ofFiles(int flavorsHash, List<?> files) {
+        long hash = FNV_OFFSET;
+        for (Object file : files) {
+            hash = (hash ^ file.hashCode()) * FNV_PRIME;
+        }
+        return new ClipboardChangeToken(flavorsHash, files.size(), hash);
+    }
+
+    private static ClipboardChangeToken ofImage(int flavorsHash, Image image) {
+        int width = image.getWidth(null);
+        int height = image.getHeight(null);
+        long hash = FNV_OFFSET;
+        //platforms hand out decoded images; any other kind is told apart by its size only
+        if (image instanceof BufferedImage buffered && width > 0 && height > 0) {
+            for (int row = 0; row < IMAGE_SAMPLES; row++) {
+                int y = (int) ((2L * row + 1) * height / (2 * IMAGE_SAMPLES));
+                for (int column = 0; column < IMAGE_SAMPLES; column++) {
+                    int x = (int) ((2L * column + 1) * width / (2 * IMAGE_SAMPLES));
+                    hash = (hash ^ buffered.getRGB(x, y)) * FNV_PRIME;
+                }
+            }
+        }
+        return new ClipboardChangeToken(flavorsHash, (long) width << 32 | (height & 0xffffffffL), hash);
+    }
+}
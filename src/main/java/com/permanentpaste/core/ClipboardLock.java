@@ -0,0 +1,149 @@
+package com.permanentpaste.core;
+
+import java.awt.datatransfer.Clipboard;
+import java.awt.datatransfer.ClipboardOwner;
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.StringSelection;
+import java.awt.datatransfer.Transferable;
+
+/**
+ * Holds the system clipboard empty while the history popup is open, so the hotkey cannot paste
+ * anything by itself.
+ *
+ * The lock takes clipboard ownership with a single write; interference by another application
+ * shows up as a {@link #lostOwnership} callback instead of having to be found by reading the
+ * clipboard back. The original contents are kept as a transferable, to be put back as they were,
+ * and only decoded into a String if {@link #getOriginalText()} is called.
+ *
+ * That transferable is not lazy for another application's contents: they are gone once the lock
+ * takes the clipboard, so AWT's getContents transfers every offered format right then, images
+ * included, and the lock takes longer the more there is on the clipboard. Only contents this
+ * app set itself, e.g. a restored history item, come back as the app's own transferable and
+ * are read on demand.
+ *
+ * A lock ends in one of three ways: {@link #release()} puts the original contents back,
+ * {@link #supersede()} leaves the clipboard to whatever this app sets next (e.g. a paste), or
+ * another application takes the clipboard.
+ */
+public final class ClipboardLock implements ClipboardOwner {
+
+    private enum State { HELD, SUPERSEDED, LOST, RELEASED }
+
+    private final Clipboard clipboard;
+    private final Transferable original;
+    private final Runnable onLost;
+    private final long lockNanos;
+    private volatile State state = State.HELD;
+    private String originalText;
+
+    private ClipboardLock(Clipboard clipboard, Transferable original, Runnable onLost, long startNanos) {
+        this.clipboard = clipboard;
+        this.original = original;
+        this.onLost = onLost;
+        clipboard.setContents(new StringSelection(""), this);
+        this.lockNanos = System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Takes ownership of the clipboard, remembering what was on it.
+     * @param onLost Called when another application takes the clipboard while it is locked
+     */
+    static ClipboardLock acquire(Clipboard clipboard, Runnable onLost) {
+        long start = System.nanoTime();
+        Transferable original;
+        try {
+            original = clipboard.getContents(null);
+        } catch (IllegalStateException e) {
+            //clipboard busy, there is nothing to give back
+            original = null;
+        }
+        return new ClipboardLock(clipboard, original, onLost, start);
+    }
+
+    @Override
+    public void lostOwnership(Clipboard clipboard, Transferable contents) {
+        if (state == State.HELD) {
+            state = State.LOST;
+            Log.info("Clipboard lock lost - another application set the clipboard");
+            onLost.run();
+        }
+    }
+
+    /**
+     * @return True while the clipboard still holds the lock's empty contents
+     */
+    public boolean isHeld() {
+        return state == State.HELD;
+    }
+
+    /**
+     * @return True if another application took the clipboard while it was locked
+     */
+    public boolean wasLost() {
+        return state == State.LOST;
+    }
+
+    /**
+     * @return Time it took to take the lock, in nanoseconds
+     */
+    public long getLockNanos() {
+        return lockNanos;
+    }
+
+    /**
+     * @return Name of the text flavor of the original contents, or null if they had no text.
+     *         Does not read the contents.
+     */
+    public String getOriginalFlavor() {
+        return original != null && original.isDataFlavorSupported(DataFlavor.stringFlavor)
+                ? DataFlavor.stringFlavor.getHumanPresentableName() : null;
+    }
+
+    /**
+     * Returns the text that was on the clipboard when the lock was taken, decoding it on first
+     * call. Empty if there was no text.
+     */
+    public synchronized String getOriginalText() {
+        if (originalText == null) {
+            originalText = "";
+            if (original != null && original.isDataFlavorSupported(DataFlavor.stringFlavor)) {
+                try {
+                    Object data = original.getTransferData(DataFlavor.stringFlavor);
+                    if (data instanceof String text) {
+                        originalText = text;
+                    }
+                } catch (Exception e) {
+                    Log.warn("Could not read original clipboard content: " + e.getMessage());
+                }
+            }
+        }
+        return originalText;
+    }
+
+    /**
+     * Marks that this app is about to set the clipboard itself, so losing ownership is expected
+     * and {@link #release()} must not put the original back.
+     */
+    void supersede() {
+        if (state == State.HELD) {
+            state = State.SUPERSEDED;
+        }
+    }
+
+    /**
+     * Puts the original contents back if the lock is still held. Safe to call more than once.
+     */
+    public void release() {
+        if (state != State.HELD) {
+            return;
+        }
+        state = State.RELEASED;
+        if (original != null) {
+            try {
+                clipboard.setContents(original, null);
+            } catch (IllegalStateException e) {
+                Log.warn("Could not restore clipboard after lock: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -1,45 +1,459 @@
 package com.permanentpaste.core;
 
-import java.awt.Toolkit;
+import java.awt.Image;
 import java.awt.datatransfer.Clipboard;
+import java.awt.datatransfer.ClipboardOwner;
 import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.FlavorListener;
 import java.awt.datatransfer.StringSelection;
+import java.awt.datatransfer.Transferable;
+import java.awt.datatransfer.UnsupportedFlavorException;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
 
 
 /**
  * This class is responsible for monitoring the system clipboard in the background
- * and storing a history of copied text.
+ * and storing a history of copied text. The clipboard is reached through a
+ * {@link ClipboardBackend}, the system clipboard unless another one is given.
+ *
+ * The history is changed on one thread only, the {@link HistoryWriter}: clipboard checks,
+ * captures, evictions, expiry and settings changes are posted to it from whatever thread they
+ * come from, and the scheduler only keeps time for it. Reads use the snapshots the tiers
+ * publish, so neither the UI nor the hotkey thread ever waits for a capture in progress.
  */
 public class ClipboardManager {
 
-    private final List<String> clipboardHistory = new ArrayList<>();
-    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-    private Future<?> monitoringTask;
+    /**
+     * How clipboard changes are currently being detected.
+     * NOTIFICATION means the platform delivers flavor change events, so the background poll
+     * only has to catch same-flavor changes; POLLING means no event was seen yet.
+     */
+    public enum MonitoringMode { OFF, POLLING, NOTIFICATION }
+
+    //adaptive poll intervals, fast right after activity and backing off while idle
+    private static final long FAST_POLL_MILLIS = 100L;
+    private static final long POLLING_IDLE_MILLIS = 500L;
+    private static final long NOTIFICATION_IDLE_MILLIS = 1000L;
+    private static final long ACTIVITY_WINDOW_MILLIS = 2000L;
+    private static final int MAX_PENDING_INDEX_UPDATES = 1024;
+    public static final int THUMBNAIL_WIDTH = 72;
+    public static final int THUMBNAIL_HEIGHT = 24;
+    private static final int THUMBNAIL_CACHE_SIZE = 128;
+    //cold entries returned by one search, the newest ones
+    private static final int COLD_SEARCH_LIMIT = 1000;
+    //resolution of entry expiry
+    private static final long EXPIRY_TICK_MILLIS = 1000L;
+    //after a settle() call, changes this recent are captured without waiting; apps often set the selection on release
+    private static final long SETTLE_GRACE_MILLIS = 50L;
+
+    //hot tier, the newest entries in full
+    private final HistoryStore<HistoryEntry> clipboardHistory;
+    //cold tier, older entries on disk; null if it could not be opened, the history then stays in memory
+    private final ColdHistory coldHistory;
+    //holds the text of items above the spill threshold
+    private final PayloadStore payloadStore;
+    //captured images, by content, and their list thumbnails
+    private final ImageStore imageStore;
+    private final ThumbnailCache thumbnails;
+    //content hash -> history store id, kept in sync with inserts and evictions
+    private final Map<Long, Long> idsByHash = new ConcurrentHashMap<>();
+    //image key -> hash of the entry without text holding it
+    private final Map<String, Long> hashesByImage = new HashMap<>();
+    private final TrigramIndex searchIndex = new TrigramIndex();
+    //keeps index updates off the capture thread and in order; if a burst of captures gets too far
+    //ahead, the capture thread waits for room rather than queueing text without bound
+    private final ExecutorService indexer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(MAX_PENDING_INDEX_UPDATES), r -> {
+        Thread thread = new Thread(r, "search-indexer");
+        thread.setDaemon(true);
+        return thread;
+    }, (task, executor) -> {
+        try {
+            executor.getQueue().put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    });
+    //transfers image, HTML and RTF flavors after the capture tick
+    private final ExecutorService flavorLoader = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "flavor-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    //runs every change to the history; fields not marked otherwise are only touched on it
+    private final HistoryWriter writer = new HistoryWriter("history-writer");
+    //timers only, what they run is posted to the writer
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            r -> new Thread(r, "history-timer"));
+    private final FlavorListener flavorListener = e -> onClipboardNotification();
+    private ScheduledFuture<?> monitoringTask;
+    //bumped by every start and stop, so a poll of an earlier run does not reschedule itself
+    private long pollGeneration = 0L;
+    private final AtomicBoolean monitoring = new AtomicBoolean();
+    private volatile MonitoringMode monitoringMode = MonitoringMode.OFF;
     private final AppSettings appSettings;
-    private String lastSeenClipboardContent = "";
+    private final ClipboardBackend clipboardBackend;
+    private final Path dataDirectory;
+    private final List<HistoryListener> historyListeners = new CopyOnWriteArrayList<>();
+    //null while persistence is off
+    private HistoryLog historyLog;
+    private long lastSeenContentHash = ContentHash.of("");
+    private ClipboardChangeToken lastSeenToken;
+    //the lock taken by the last hotkey, null before the first one
+    private volatile ClipboardLock activeLock;
+    private final AtomicLong lockCount = new AtomicLong();
+    //what restoreClipboard last set, while this app still owns the clipboard
+    private final AtomicReference<Transferable> restoredContents = new AtomicReference<>();
+    private final ClipboardOwner restoreOwner = (clipboard, contents) -> {
+        if (restoredContents.compareAndSet(contents, null)) {
+            writer.execute(this::checkIfMonitoring);
+        }
+    };
+    private long lastActivityTime = 0L;
+    private long pollDelayMillis = FAST_POLL_MILLIS;
+    //0 captures changes right away, see setSettleMillis
+    private volatile long settleMillis = 0L;
+    private volatile long settleRequestedAt = Long.MIN_VALUE / 2;
+    //the change waiting to settle and since when it is unchanged
+    private ClipboardChangeToken pendingToken;
+    private long pendingSince;
+    private ScheduledFuture<?> settleTask;
+    //rules dropping entries besides the entry count; the ones made from settings are replaced when those change
+    private final List<EvictionPolicy> evictionPolicies = new ArrayList<>();
+    private final ItemTimeToLive itemTimeToLive = new ItemTimeToLive();
+    private EvictionPolicy maxBytesPolicy;
+    private EvictionPolicy maxAgePolicy;
+    //size of the text and loaded flavors of all entries, hot and cold
+    private final AtomicLong historyBytes = new AtomicLong();
+    //entry deadlines
+    private final TimingWheel expiryWheel = new TimingWheel(EXPIRY_TICK_MILLIS, System.currentTimeMillis());
+    private ScheduledFuture<?> expiryTask;
 
     public ClipboardManager(AppSettings appSettings) {
+        this(appSettings, new AwtClipboardBackend());
+    }
+
+    /**
+     * @param clipboardBackend The clipboard to capture from and restore to
+     */
+    public ClipboardManager(AppSettings appSettings, ClipboardBackend clipboardBackend) {
+        this(appSettings, clipboardBackend, appSettings.getDataDirectory());
+    }
+
+    /**
+     * @param clipboardBackend The clipboard to capture from and restore to
+     * @param dataDirectory Where the history is kept, one directory per clipboard
+     */
+    public ClipboardManager(AppSettings appSettings, ClipboardBackend clipboardBackend, Path dataDirectory) {
         this.appSettings = appSettings;
+        this.clipboardBackend = clipboardBackend;
+        this.dataDirectory = dataDirectory;
+        this.payloadStore = new PayloadStore(dataDirectory.resolve("payloads"));
+        this.imageStore = new ImageStore(dataDirectory.resolve("images"));
+        this.thumbnails = new ThumbnailCache(imageStore, THUMBNAIL_CACHE_SIZE, THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT);
+        ColdHistory cold = null;
+        try {
+            cold = ColdHistory.open(dataDirectory.resolve("cold"), payloadStore, coldCapacity());
+        } catch (IOException e) {
+            Log.warn("Cold history unavailable, keeping the whole history in memory: " + e.getMessage());
+        }
+        this.coldHistory = cold;
+        this.clipboardHistory = new HistoryStore<>(hotCapacity(), this::demote);
+        //resize live, both tiers keep their newest entries
+        appSettings.addPropertyChangeListener(AppSettings.HISTORY_SIZE_PROPERTY, evt -> writer.execute(this::resizeHistory));
+        evictionPolicies.add(itemTimeToLive);
+        writer.execute(this::applyEvictionSettings);
+        appSettings.addPropertyChangeListener(AppSettings.MAX_HISTORY_MB_PROPERTY, evt -> writer.execute(this::applyEvictionSettings));
+        appSettings.addPropertyChangeListener(AppSettings.MAX_ITEM_AGE_PROPERTY, evt -> writer.execute(this::applyEvictionSettings));
+        appSettings.addPropertyChangeListener(AppSettings.PERSISTENCE_PROPERTY, evt -> writer.execute(() -> {
+            if ((Boolean) evt.getNewValue() && historyLog == null) {
+                openHistoryLog();
+                //write what was captured while persistence was off
+                if (coldHistory != null) {
+                    try {
+                        coldHistory.forEach(this::logAppend);
+                    } catch (IOException e) {
+                        Log.warn("Error persisting cold history: " + e.getMessage());
+                    }
+                }
+                for (HistoryEntry entry : clipboardHistory.snapshot()) {
+                    logAppend(entry);
+                }
+            }
+        }));
+    }
+
+    private int hotCapacity() {
+        return coldHistory == null ? appSettings.getHistorySize()
+                : Math.min(appSettings.getHistorySize(), appSettings.getHotHistorySize());
+    }
+
+    private int coldCapacity() {
+        return Math.max(0, appSettings.getHistorySize() - appSettings.getHotHistorySize());
+    }
+
+    private void resizeHistory() {
+        clipboardHistory.setCapacity(hotCapacity());
+        if (coldHistory != null) {
+            try {
+                coldHistory.setCapacity(coldCapacity()).forEach(this::discardDropped);
+            } catch (IOException e) {
+                Log.warn("Error resizing cold history: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Called when an entry leaves the hot tier: its text moves to the cold tier, anything
+     * else it holds in memory or on disk (flavors, images) is released.
+     */
+    private void demote(HistoryEntry entry) {
+        idsByHash.remove(entry.getHash());
+        indexer.execute(() -> searchIndex.remove(entry.getHash()));
+        releaseFlavors(entry);
+        //an image without text has nothing left to keep, and a likely secret must not reach the file
+        if (coldHistory == null || entry.getLength() == 0 || isKeptOffDisk(entry.getTags())) {
+            discard(entry);
+            return;
+        }
+        try {
+            List<ColdHistory.Dropped> evicted = coldHistory.append(entry);
+            fireEntryDemoted(entry);
+            evicted.forEach(this::discardDropped);
+        } catch (IOException e) {
+            Log.warn("Could not move clipboard item to the cold history: " + e.getMessage());
+            discard(entry);
+        }
+    }
+
+    /**
+     * Drops an entry that left the history for good.
+     */
+    private void discard(HistoryEntry entry) {
+        historyBytes.addAndGet(-textWeightOf(entry));
+        itemTimeToLive.clear(entry.getHash());
+        fireEntryRemoved(entry);
+        logRemove(entry.getHash());
+        if (entry.isSpilled()) {
+            payloadStore.delete(entry.getBlob());
+        }
+    }
+
+    /**
+     * Same as {@link #discard}, for a cold entry dropped without reading it back.
+     */
+    private void discardDropped(ColdHistory.Dropped dropped) {
+        historyBytes.addAndGet(-2L * dropped.length());
+        itemTimeToLive.clear(dropped.hash());
+        fireColdEntryDropped(dropped.hash());
+        logRemove(dropped.hash());
+        if (dropped.blob() != null) {
+            payloadStore.delete(dropped.blob());
+        }
+    }
+
+    private void releaseFlavors(HistoryEntry entry) {
+        if (entry.getFlavors() != null) {
+            historyBytes.addAndGet(-entry.getFlavors().release());
+            entry.getFlavors().blobs().forEach(payloadStore::delete);
+            ImageStore.Ref image = entry.getFlavors().getImage();
+            if (image != null) {
+                hashesByImage.remove(image.getKey(), entry.getHash());
+                imageStore.release(image);
+            }
+        }
+    }
+
+    /**
+     * Restores the history saved by a previous run, if persistence is enabled.
+     * Only the newest entries that fit the history size are restored, and only those of the
+     * hot tier are read back; the cold tier is listed from the log's index and pages its
+     * entries in from the log. Waits until the history writer has done so.
+     */
+    public void loadPersistedHistory() {
+        writer.runAndWait(this::restoreHistory);
+    }
+
+    private void restoreHistory() {
+        //images are not persisted, anything in the store is left over from the last run
+        imageStore.clear();
+        if (!appSettings.isPersistenceEnabled()) {
+            return;
+        }
+        HistoryLog log = openHistoryLog();
+        if (log == null) {
+            return;
+        }
+        try {
+            //the index only, entries are decoded when they are needed
+            List<HistoryLog.Stored> entries = log.load(appSettings.getHistorySize());
+            //payloads of entries that did not survive, e.g. after a crash, or of a previous cold tier
+            payloadStore.retainOnly(log.blobNames());
+            //entries older than the hot tier stay in the log, listed by the cold tier without being indexed
+            int hot = Math.min(entries.size(), hotCapacity());
+            for (HistoryLog.Stored stored : entries.subList(0, entries.size() - hot)) {
+                historyBytes.addAndGet(2L * stored.length());
+                coldHistory.appendLogged(log, stored).forEach(this::discardDropped);
+                applySensitiveItemPolicy(stored.hash(), stored.tags());
+                addExpiryTimer(stored.hash(), stored.capturedAt());
+            }
+            if (hot < entries.size()) {
+                fireColdEntriesRestored();
+            }
+            for (HistoryLog.Stored stored : entries.subList(entries.size() - hot, entries.size())) {
+                HistoryEntry entry = log.read(stored.hash(), payloadStore);
+                if (entry == null) {
+                    continue;
+                }
+                historyBytes.addAndGet(textWeightOf(entry));
+                idsByHash.put(entry.getHash(), clipboardHistory.append(entry));
+                fireEntryAdded(entry);
+                indexer.execute(() -> searchIndex.add(entry.getHash(), entry.getTextPrefix(TrigramIndex.MAX_INDEXED_CHARS)));
+                applySensitiveItemPolicy(entry.getHash(), entry.getTags());
+                addExpiryTimer(entry.getHash(), entry.getCapturedAt());
+            }
+            enforceBudget();
+            if (!entries.isEmpty()) {
+                lastSeenContentHash = entries.get(entries.size() - 1).hash();
+            }
+            Log.info("Restored " + entries.size() + " history items.");
+        } catch (IOException e) {
+            Log.warn("Error loading clipboard history: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Flushes the history log on exit, or wipes it if the user turned persistence off.
+     * Changes already posted to the history writer are made first, later ones are dropped.
+     */
+    public void close() {
+        scheduler.shutdownNow();
+        writer.runAndWait(this::closeHistory);
+        writer.close();
+    }
+
+    private void closeHistory() {
+        HistoryLog log = historyLog;
+        thumbnails.close();
+        imageStore.clear();
+        if (coldHistory != null) {
+            try {
+                coldHistory.close();
+            } catch (IOException e) {
+                Log.warn("Error closing cold history: " + e.getMessage());
+            }
+        }
+        if (!appSettings.isPersistenceEnabled()) {
+            payloadStore.clear();
+        }
+        if (log == null) {
+            return;
+        }
+        try {
+            if (!appSettings.isPersistenceEnabled()) {
+                log.clear();
+            }
+            log.close();
+        } catch (IOException e) {
+            Log.warn("Error closing clipboard history log: " + e.getMessage());
+        }
+    }
+
+    private static void commitRestore(JfrEvents.ClipboardRestore event, FlavorRecord flavors) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.flavor = flavors == null ? DataFlavor.stringFlavor.getHumanPresentableName() : flavors.describeKinds();
+            event.commit();
+        }
+    }
+
+    private void supersedeLock() {
+        ClipboardLock lock = activeLock;
+        if (lock != null) {
+            lock.supersede();
+        }
+    }
+
+    private HistoryLog openHistoryLog() {
+        if (historyLog == null) {
+            try {
+                historyLog = HistoryLog.open(dataDirectory.resolve("history"));
+            } catch (IOException e) {
+                Log.warn("Error opening clipboard history log: " + e.getMessage());
+            }
+        }
+        return historyLog;
+    }
+
+    private void logAppend(HistoryEntry entry) {
+        HistoryLog log = historyLog;
+        //only the text is persisted, an image without text would come back empty
+        if (log != null && appSettings.isPersistenceEnabled() && entry.getLength() > 0 && !isKeptOffDisk(entry.getTags())) {
+            try {
+                log.append(entry);
+            } catch (IOException e) {
+                Log.warn("Error persisting clipboard item: " + e.getMessage());
+            }
+        }
+    }
+
+    private void logRemove(long hash) {
+        HistoryLog log = historyLog;
+        if (log != null) {
+            try {
+                log.remove(hash);
+            } catch (IOException e) {
+                Log.warn("Error persisting clipboard removal: " + e.getMessage());
+            }
+        }
     }
 
     /**
      * Starts the background process of monitoring the clipboard.
+     * Flavor change notifications, when the platform delivers them, and the app losing the
+     * clipboard it set trigger a check right away; an adaptive poll is the fallback for changes
+     * neither reports.
      */
     public void startMonitoring() {
-        //ukoliko nije aktivna ili je zavrsena ili je otkazana
+        //ukoliko nije aktivna
         //tada mozes da palis
-        if (monitoringTask == null || monitoringTask.isDone() || monitoringTask.isCancelled()) {
-            //pokreni odmah i ranuj svaki sekund
-            monitoringTask = scheduler.scheduleAtFixedRate(this::checkClipboard, 0, 1, TimeUnit.SECONDS);
-            System.out.println("Clipboard monitoring started.");
+        if (monitoring.compareAndSet(false, true)) {
+            try {
+                clipboardBackend.getClipboard().addFlavorListener(flavorListener);
+            } catch (Exception e) {
+                Log.warn("Clipboard notifications unavailable, polling only: " + e.getMessage());
+            }
+            //pokreni odmah
+            writer.execute(() -> {
+                long generation = ++pollGeneration;
+                monitoringMode = MonitoringMode.POLLING;
+                pollDelayMillis = FAST_POLL_MILLIS;
+                Log.info("Clipboard monitoring started (mode: " + monitoringMode + ").");
+                pollClipboard(generation);
+            });
         } else {
-            System.out.println("Clipboard monitoring is already active.");
+            Log.info("Clipboard monitoring is already active.");
         }
     }
     /**
@@ -47,122 +461,888 @@ public class ClipboardManager {
      */
     public void stopMonitoring() {
         //ukoliko je active
-        if (monitoringTask != null) {
+        if (monitoring.compareAndSet(true, false)) {
+            try {
+                clipboardBackend.getClipboard().removeFlavorListener(flavorListener);
+            } catch (Exception e) {
+                Log.warn("Error removing clipboard listener: " + e.getMessage());
+            }
             //ugasi
-            monitoringTask.cancel(false);
-            //setuj na null
-            monitoringTask = null;
-            System.out.println("Clipboard monitoring stopped.");
+            writer.execute(() -> {
+                pollGeneration++;
+                monitoringMode = MonitoringMode.OFF;
+                if (monitoringTask != null) {
+                    monitoringTask.cancel(false);
+                    monitoringTask = null;
+                }
+                Log.info("Clipboard monitoring stopped.");
+            });
         } else {
-            System.out.println("Clipboard monitoring is not active.");
+            Log.info("Clipboard monitoring is not active.");
         }
     }
 
     public boolean isMonitoringActive() {
-        //true if there is task, is ongoing and is not cancelled
-        return monitoringTask != null && !monitoringTask.isDone() && !monitoringTask.isCancelled();
+        return monitoring.get();
+    }
+
+    /**
+     * @return The way clipboard changes are currently detected
+     */
+    public MonitoringMode getMonitoringMode() {
+        return monitoringMode;
+    }
+
+    /**
+     * Called on the AWT thread when the clipboard flavor set changes.
+     * The check itself is handed to the writer so it never races with a poll.
+     */
+    private void onClipboardNotification() {
+        if (!monitoring.get()) {
+            return;
+        }
+        writer.execute(() -> {
+            if (monitoringMode == MonitoringMode.POLLING) {
+                monitoringMode = MonitoringMode.NOTIFICATION;
+                Log.info("Clipboard change notifications detected (mode: " + monitoringMode + ").");
+            }
+            checkIfMonitoring();
+        });
+    }
+
+    private void pollClipboard(long generation) {
+        //monitoring was stopped, or stopped and started again, since this poll was scheduled
+        if (generation != pollGeneration) {
+            return;
+        }
+        checkClipboard();
+
+        //poll fast while the user is copying, back off when idle
+        long idleMillis = monitoringMode == MonitoringMode.NOTIFICATION ? NOTIFICATION_IDLE_MILLIS : POLLING_IDLE_MILLIS;
+        if (System.currentTimeMillis() - lastActivityTime < ACTIVITY_WINDOW_MILLIS) {
+            pollDelayMillis = FAST_POLL_MILLIS;
+        } else {
+            pollDelayMillis = Math.min(pollDelayMillis * 2, idleMillis);
+        }
+        monitoringTask = later(() -> pollClipboard(generation), pollDelayMillis);
+    }
+
+    /**
+     * Posts the command to the history writer once the delay has passed.
+     */
+    private ScheduledFuture<?> later(Runnable command, long delayMillis) {
+        return scheduler.schedule(() -> writer.execute(command), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Makes changes wait until the clipboard stops changing: a change is only captured once it
+     * has stayed the same for the given time, or on {@link #settle()}. For the PRIMARY selection,
+     * which changes with every pixel of a mouse drag; captures in between would flood the history.
+     * @param millis 0 to capture every change right away
+     */
+    public void setSettleMillis(long millis) {
+        settleMillis = millis;
+    }
+
+    /**
+     * Captures a change that is waiting to settle now, e.g. because the mouse button that was
+     * selecting has been released. A change arriving right after this call is captured at once
+     * too, as many applications only set the selection on release.
+     */
+    public void settle() {
+        settleRequestedAt = System.currentTimeMillis();
+        writer.execute(this::checkIfMonitoring);
+        later(this::checkIfMonitoring, SETTLE_GRACE_MILLIS);
+    }
+
+    private void checkIfMonitoring() {
+        if (monitoring.get()) {
+            checkClipboard();
+        }
+    }
+
+    /**
+     * Decides whether a change can be captured now. If not, the check is repeated once the
+     * change would have settled.
+     */
+    private boolean isSettled(ClipboardChangeToken token) {
+        long settle = settleMillis;
+        long now = System.currentTimeMillis();
+        if (settle <= 0 || now - settleRequestedAt <= SETTLE_GRACE_MILLIS) {
+            pendingToken = null;
+            return true;
+        }
+        //an unreadable token differs every time, it can still be the same selection
+        boolean same = token.equals(pendingToken) || pendingToken != null && token.length() < 0
+                && pendingToken.length() < 0 && token.flavorsHash() == pendingToken.flavorsHash();
+        if (!same) {
+            pendingToken = token;
+            pendingSince = now;
+        }
+        long remaining = pendingSince + settle - now;
+        if (remaining <= 0) {
+            pendingToken = null;
+            return true;
+        }
+        if (settleTask == null) {
+            settleTask = later(() -> {
+                settleTask = null;
+                checkIfMonitoring();
+            }, remaining);
+        }
+        return false;
     }
 
     private void checkClipboard() {
+        JfrEvents.ClipboardPoll event = new JfrEvents.ClipboardPoll();
+        event.begin();
         try {
-            Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
+            //the lock's empty contents are not a new item
+            ClipboardLock lock = activeLock;
+            if (lock != null && lock.isHeld()) {
+                event.success = true;
+                return;
+            }
+            //nothing new can be on a clipboard this app still owns; losing it wakes a check. Nothing is
+            //marked seen meanwhile, the callback is delivered later than the copy that caused it
+            if (restoredContents.get() != null) {
+                event.success = true;
+                return;
+            }
+            Clipboard clipboard = clipboardBackend.getClipboard();
 
-            if (clipboard.isDataFlavorAvailable(DataFlavor.stringFlavor)) {
-                String currentContent = (String) clipboard.getData(DataFlavor.stringFlavor);
+            DataFlavor[] available = clipboard.getAvailableDataFlavors();
+            //cheap check first, the payload is only transferred when the token changed
+            ClipboardChangeToken token = ClipboardChangeToken.read(clipboard, available);
+            //also not after a lock gives the original back again
+            if (token.equals(lastSeenToken)) {
+                lastSeenToken = token;
+                pendingToken = null;
+                event.success = true;
+                return;
+            }
+            if (!isSettled(token)) {
+                event.success = true;
+                return;
+            }
+            event.changed = true;
 
-                if (currentContent != null && !currentContent.equals(lastSeenClipboardContent)) {
-                    lastSeenClipboardContent = currentContent;
-                    clipboardHistory.add(currentContent);
-                    System.out.println("Item saved: " + currentContent);
+            //file lists and the offered flavors are cheap, images and rich text are loaded afterwards
+            FlavorRecord flavors = FlavorRecord.describe(clipboard, available);
+            String currentContent = clipboard.isDataFlavorAvailable(DataFlavor.stringFlavor)
+                    ? (String) clipboard.getData(DataFlavor.stringFlavor) : null;
+            if (currentContent == null && flavors != null) {
+                currentContent = flavors.getFiles() != null ? flavors.filesAsText() : "";
+            }
+            //seen only once read, a read that failed is tried again on the next check
+            lastSeenToken = token;
 
-                    while (clipboardHistory.size() > appSettings.getHistorySize()) {
-                        clipboardHistory.remove(0); // Remove the oldest item from the front.
+            if (currentContent != null) {
+                event.flavor = flavors == null ? DataFlavor.stringFlavor.getHumanPresentableName() : flavors.describeKinds();
+                event.payloadChars = currentContent.length();
+                HistoryEntry entry = record(currentContent, flavors);
+                if (entry != null) {
+                    event.captured = true;
+                    lastActivityTime = System.currentTimeMillis();
+                    String saved = currentContent;
+                    Log.info(() -> "Item saved: " + Log.payload(saved) + (flavors == null ? "" : " (" + flavors.describeKinds() + ")"));
+                    //a recaptured entry keeps the flavors it already had
+                    if (entry.getFlavors() == flavors && flavors != null && !flavors.pending().isEmpty()) {
+                        flavorLoader.execute(() -> loadFlavors(entry, token));
                     }
                 }
             }
+            event.success = true;
         } catch (Exception e) {
+            event.success = false;
+            Log.warn("Could not read the clipboard: " + e.getMessage());
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.mode = monitoringMode.name();
+                event.commit();
+            }
         }
     }
 
     /**
-     * Returns the current clipboard history as an array.
+     * Records text read from the clipboard, unless it is what was seen last.
+     * Called by the monitor; public so the capture path can be driven without a system clipboard.
+     * Waits until the history writer has recorded it.
+     * @return True if the text was added to (or moved to the top of) the history
      */
-    public String[] getClipboardHistory() {
-        return clipboardHistory.toArray(new String[0]);
+    public boolean capture(String content) {
+        return writer.call(() -> record(content, null) != null);
     }
 
-    public void updateLastSeenClipboardContent(String content) {
-        this.lastSeenClipboardContent = content;
+    /**
+     * Adds a captured item on top of the history. An item that is already listed is moved
+     * to the top, reusing its stored text, instead of being stored twice.
+     * @param flavors Flavors captured besides plain text, or null
+     * @return The entry now on top, or null if the item is what was seen last
+     */
+    private HistoryEntry record(String content, FlavorRecord flavors) {
+        JfrEvents.ClipboardCapture event = new JfrEvents.ClipboardCapture();
+        event.begin();
+        //items without text, e.g. images, cannot be told apart by content before they are loaded, see dedupeImage
+        long hash = content.isEmpty() && flavors != null ? ContentHash.mix(System.nanoTime()) : ContentHash.of(content);
+        boolean added = hash != lastSeenContentHash;
+        boolean duplicate = false;
+        boolean skipped = false;
+        int tags = 0;
+        HistoryEntry entry = null;
+        if (added) {
+            lastSeenContentHash = hash;
+            tags = ContentClassifier.classify(content);
+            skipped = (tags & ContentClassifier.Tag.SECRET.bit()) != 0
+                    && appSettings.getSensitiveItemPolicy() == AppSettings.SensitiveItemPolicy.SKIP;
+            if (skipped) {
+                //not even as a payload, with redaction off that would be the secret itself
+                Log.info("Likely secret not saved (" + content.length() + " chars).");
+            } else {
+                //one lookup per tier, which also takes the listed entry out for reuse
+                HistoryEntry existing = takeListed(hash);
+                duplicate = existing != null;
+                entry = addToHistory(content, hash, System.currentTimeMillis(), flavors, tags, existing);
+            }
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.payloadChars = content.length();
+            event.added = added;
+            event.duplicate = duplicate;
+            event.spilled = entry != null && entry.isSpilled();
+            event.tags = ContentClassifier.describe(tags);
+            event.skipped = skipped;
+            event.historySize = clipboardHistory.size();
+            event.commit();
+        }
+        return entry;
     }
 
     /**
-     * Immediately locks the clipboard by replacing its content with a special marker
-     * @return The original clipboard content that was replaced
+     * Transfers the heavy flavors of a just captured item, on the flavor loader thread.
+     * A flavor is only kept if the clipboard still shows the same change token before and
+     * after the transfer, otherwise the data may belong to a later copy.
      */
-    public String lockClipboard() {
-        try {
-            Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
-            String originalContent = "";
+    private void loadFlavors(HistoryEntry entry, ClipboardChangeToken token) {
+        FlavorRecord flavors = entry.getFlavors();
+        Clipboard clipboard = clipboardBackend.getClipboard();
+        for (FlavorRecord.Kind kind : flavors.pending()) {
+            try {
+                byte[] data;
+                if (kind == FlavorRecord.Kind.IMAGE) {
+                    //transferred once, the token of the image itself tells whether it is the captured one
+                    Image image = FlavorRecord.readImage(clipboard);
+                    if (!token.equals(ClipboardChangeToken.read(clipboard, clipboard.getAvailableDataFlavors(), image))) {
+                        flavors.discard(kind);
+                        continue;
+                    }
+                    data = FlavorRecord.encodePng(image);
+                } else {
+                    if (!token.equals(ClipboardChangeToken.read(clipboard))) {
+                        flavors.discard(kind);
+                        continue;
+                    }
+                    data = FlavorRecord.read(clipboard, kind);
+                    if (!token.equals(ClipboardChangeToken.read(clipboard))) {
+                        flavors.discard(kind);
+                        continue;
+                    }
+                }
+                //a record released while loading was dropped from the hot tier, nobody else will delete what was stored
+                boolean kept;
+                if (kind == FlavorRecord.Kind.IMAGE) {
+                    ImageStore.Ref image = imageStore.put(data);
+                    kept = flavors.put(kind, image, data.length);
+                    if (!kept) {
+                        imageStore.release(image);
+                    } else {
+                        thumbnails.prefetch(image);
+                        writer.execute(() -> dedupeImage(entry, image));
+                    }
+                } else if (data.length > appSettings.getSpillThresholdKb() * 1024L) {
+                    PayloadStore.Blob blob = payloadStore.write(data, entry.getHash());
+                    kept = flavors.put(kind, blob, data.length);
+                    if (!kept) {
+                        payloadStore.delete(blob);
+                    }
+                } else {
+                    kept = flavors.put(kind, data, data.length);
+                }
+                if (kept) {
+                    historyBytes.addAndGet(data.length);
+                    writer.execute(this::enforceBudget);
+                }
+            } catch (UnsupportedFlavorException e) {
+                //the clipboard changed between the token check and the transfer
+                flavors.discard(kind);
+                Log.debug(() -> kind.getLabel() + " flavor gone before it was loaded");
+            } catch (Exception e) {
+                flavors.discard(kind);
+                Log.warn("Could not load " + kind.getLabel() + " flavor: " + e.getMessage());
+            }
+        }
+    }
 
-            if (clipboard.isDataFlavorAvailable(DataFlavor.stringFlavor)) {
-                originalContent = (String) clipboard.getData(DataFlavor.stringFlavor);
+    /**
+     * Drops an earlier entry holding the same image as one just loaded, so copying an image
+     * again moves it to the top instead of listing it twice. Entries without text can only be
+     * told apart once their image is stored, by its SHA-256.
+     */
+    private void dedupeImage(HistoryEntry entry, ImageStore.Ref image) {
+        //entries with text are identified by it; a dropped one keeps nothing
+        if (entry.getLength() > 0 || !idsByHash.containsKey(entry.getHash())) {
+            return;
+        }
+        Long previous = hashesByImage.put(image.getKey(), entry.getHash());
+        if (previous != null && previous != entry.getHash()) {
+            Log.debug(() -> "Image copied again, replacing history item #" + Long.toHexString(previous));
+            evict(previous);
+        }
+    }
+
+    /**
+     * Takes an entry out of whichever tier lists it, because it was copied again and moves to the top.
+     * @return The entry, or null if the history does not list it
+     */
+    private HistoryEntry takeListed(long hash) {
+        HistoryEntry existing = null;
+        Long existingId = idsByHash.remove(hash);
+        if (existingId != null) {
+            existing = clipboardHistory.remove(existingId);
+            if (existing != null) {
+                fireEntryRemoved(existing);
             }
+            logRemove(hash);
+        } else if (coldHistory != null) {
+            try {
+                existing = coldHistory.remove(hash);
+            } catch (IOException e) {
+                Log.warn("Could not read clipboard item from the cold history: " + e.getMessage());
+            }
+            if (existing != null) {
+                fireEntryRemoved(existing);
+                logRemove(hash);
+                //the cold tier kept the text only, index it again
+                HistoryEntry promoted = existing;
+                indexer.execute(() -> searchIndex.add(hash, promoted.getTextPrefix(TrigramIndex.MAX_INDEXED_CHARS)));
+            }
+        }
+        return existing;
+    }
 
-            // Replace clipboard with empty string to block any paste
-            StringSelection emptySelection = new StringSelection("");
-            clipboard.setContents(emptySelection, null);
+    /**
+     * @param existing The entry taken out by {@link #takeListed}, reused instead of storing the text again; or null
+     */
+    private HistoryEntry addToHistory(String content, long hash, long capturedAt, FlavorRecord flavors, int tags,
+                                      HistoryEntry existing) {
+        HistoryEntry entry;
+        if (existing != null) {
+            entry = existing.recapturedAt(capturedAt);
+        } else {
+            entry = createEntry(content, hash, capturedAt, flavors, tags);
+            historyBytes.addAndGet(textWeightOf(entry));
+            //only the indexed prefix is handed over, so a huge item is not kept alive by the queue
+            String indexedText = content.length() > TrigramIndex.MAX_INDEXED_CHARS
+                    ? content.substring(0, TrigramIndex.MAX_INDEXED_CHARS) : content;
+            indexer.execute(() -> searchIndex.add(hash, indexedText));
+        }
+        // Evicts the oldest item when full.
+        idsByHash.put(hash, clipboardHistory.append(entry));
+        fireEntryAdded(entry);
+        applySensitiveItemPolicy(hash, entry.getTags());
+        logAppend(entry);
+        addExpiryTimer(hash, capturedAt);
+        enforceBudget();
+        return entry;
+    }
 
-            System.out.println("Clipboard locked - original content: " +
-                (originalContent.length() > 50 ? originalContent.substring(0, 50) + "..." : originalContent));
+    /**
+     * Gives a likely secret its time to live. Under SKIP, which only lets one in when it was
+     * restored from a run with another policy, it expires right away.
+     */
+    private void applySensitiveItemPolicy(long hash, int tags) {
+        if ((tags & ContentClassifier.Tag.SECRET.bit()) == 0) {
+            return;
+        }
+        switch (appSettings.getSensitiveItemPolicy()) {
+            case EXPIRE -> itemTimeToLive.set(hash, TimeUnit.SECONDS.toMillis(appSettings.getSensitiveItemSeconds()));
+            case SKIP -> itemTimeToLive.set(hash, 0L);
+            case KEEP -> {
+            }
+        }
+    }
 
-            return originalContent;
-        } catch (Exception e) {
-            System.err.println("Error locking clipboard: " + e.getMessage());
-            return "";
+    /**
+     * Likely secrets are only kept in memory, unless the policy keeps them like any other
+     * entry: not logged, not spilled and not moved to the cold tier.
+     */
+    private boolean isKeptOffDisk(int tags) {
+        return (tags & ContentClassifier.Tag.SECRET.bit()) != 0
+                && appSettings.getSensitiveItemPolicy() != AppSettings.SensitiveItemPolicy.KEEP;
+    }
+
+    /**
+     * Adds a rule for dropping entries, applied to the entries already in the history too.
+     */
+    public void addEvictionPolicy(EvictionPolicy policy) {
+        writer.execute(() -> {
+            evictionPolicies.add(policy);
+            reapplyEvictionPolicies();
+        });
+    }
+
+    public void removeEvictionPolicy(EvictionPolicy policy) {
+        writer.execute(() -> evictionPolicies.remove(policy));
+    }
+
+    /**
+     * Drops the entry from the history the given time after it was (last) copied,
+     * e.g. because it holds a password.
+     */
+    public void setTimeToLive(HistoryEntry entry, long timeToLiveMillis) {
+        writer.execute(() -> {
+            itemTimeToLive.set(entry.getHash(), timeToLiveMillis);
+            long capturedAt = capturedAtOf(entry.getHash());
+            if (capturedAt >= 0) {
+                addExpiryTimer(entry.getHash(), capturedAt);
+            }
+        });
+    }
+
+    /**
+     * @return Size of the text and loaded flavors of all entries in bytes, as counted by the byte budget
+     */
+    public long getHistoryBytes() {
+        return historyBytes.get();
+    }
+
+    /**
+     * Replaces the policies made from the settings with ones matching the current settings.
+     */
+    private void applyEvictionSettings() {
+        evictionPolicies.remove(maxBytesPolicy);
+        evictionPolicies.remove(maxAgePolicy);
+        maxBytesPolicy = appSettings.getMaxHistoryMb() > 0
+                ? EvictionPolicy.maxBytes(appSettings.getMaxHistoryMb() * 1024L * 1024L) : null;
+        maxAgePolicy = appSettings.getMaxItemAgeMinutes() > 0
+                ? EvictionPolicy.maxAge(TimeUnit.MINUTES.toMillis(appSettings.getMaxItemAgeMinutes())) : null;
+        if (maxBytesPolicy != null) {
+            evictionPolicies.add(maxBytesPolicy);
         }
+        if (maxAgePolicy != null) {
+            evictionPolicies.add(maxAgePolicy);
+        }
+        reapplyEvictionPolicies();
     }
 
     /**
-     * Force lock clipboard with multiple attempts for enhanced reliability
-     * @return The original clipboard content that was replaced
+     * Schedules every entry again, since its deadline may have moved, then enforces the budgets.
+     * Timers set for the old deadlines are harmless, a timer only expires an entry that is due.
      */
-    public String forceLockClipboard() {
-        String originalContent = "";
+    private void reapplyEvictionPolicies() {
+        for (HistoryEntry entry : clipboardHistory.snapshot()) {
+            addExpiryTimer(entry.getHash(), entry.getCapturedAt());
+        }
+        if (coldHistory != null) {
+            coldHistory.forEachIndexed(this::addExpiryTimer);
+        }
+        enforceBudget();
+    }
+
+    private long expiresAt(long hash, long capturedAt) {
+        long deadline = EvictionPolicy.NEVER;
+        for (EvictionPolicy policy : evictionPolicies) {
+            deadline = Math.min(deadline, policy.expiresAt(hash, capturedAt));
+        }
+        return deadline;
+    }
+
+    private void addExpiryTimer(long hash, long capturedAt) {
+        long deadline = expiresAt(hash, capturedAt);
+        if (deadline == EvictionPolicy.NEVER) {
+            return;
+        }
+        expiryWheel.schedule(hash, deadline);
+        if (expiryTask == null) {
+            expiryTask = scheduler.scheduleWithFixedDelay(() -> writer.execute(this::expireDueEntries),
+                    EXPIRY_TICK_MILLIS, EXPIRY_TICK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
 
-        for (int attempt = 0; attempt < 3; attempt++) {
-            originalContent = lockClipboard();
+    private void expireDueEntries() {
+        long now = System.currentTimeMillis();
+        expiryWheel.advance(now, (hash, deadline) -> {
+            //the timer may be stale: the entry is gone, was copied again or its policy changed
+            long capturedAt = capturedAtOf(hash);
+            if (capturedAt >= 0 && expiresAt(hash, capturedAt) <= now) {
+                Log.debug(() -> "Expired history item #" + Long.toHexString(hash));
+                evict(hash);
+            }
+        });
+    }
 
-            // Verify that clipboard is actually cleared
+    /**
+     * Drops the oldest entries while a policy finds the history over its budget,
+     * always keeping the newest entry.
+     */
+    private void enforceBudget() {
+        while (true) {
+            int entries = clipboardHistory.size() + getColdSize();
+            if (entries <= 1 || !isOverBudget(entries, historyBytes.get())) {
+                return;
+            }
+            ColdHistory.Dropped oldest = null;
             try {
-                Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
-                if (clipboard.isDataFlavorAvailable(DataFlavor.stringFlavor)) {
-                    String currentContent = (String) clipboard.getData(DataFlavor.stringFlavor);
-                    if (currentContent == null || currentContent.trim().isEmpty()) {
-                        // Successfully cleared
-                        System.out.println("Force lock successful on attempt " + (attempt + 1));
-                        break;
-                    }
-                } else {
-                    // No string content available - successfully cleared
-                    System.out.println("Force lock successful on attempt " + (attempt + 1));
-                    break;
-                }
+                oldest = coldHistory != null ? coldHistory.dropOldest() : null;
+            } catch (IOException e) {
+                Log.warn("Could not drop cold history item: " + e.getMessage());
+            }
+            if (oldest != null) {
+                discardDropped(oldest);
+            } else if (!evict(clipboardHistory.snapshot().get(0).getHash())) {
+                return;
+            }
+        }
+    }
 
-                // If we get here, clipboard still has content, try again
-                if (attempt < 2) {
-                    try {
-                        Thread.sleep(1); // 1ms delay between attempts
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        break;
-                    }
+    private boolean isOverBudget(int entries, long bytes) {
+        for (EvictionPolicy policy : evictionPolicies) {
+            if (policy.isOverBudget(entries, bytes)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return When the entry was last captured, or -1 if it is not in the history
+     */
+    private long capturedAtOf(long hash) {
+        Long id = idsByHash.get(hash);
+        HistoryEntry entry = id == null ? null : clipboardHistory.get(id);
+        if (entry != null) {
+            return entry.getCapturedAt();
+        }
+        return coldHistory == null ? -1L : coldHistory.capturedAtOf(hash);
+    }
+
+    /**
+     * Drops an entry from whichever tier holds it. A cold entry is dropped without reading its text.
+     * @return False if it is not in the history
+     */
+    private boolean evict(long hash) {
+        Long id = idsByHash.remove(hash);
+        HistoryEntry entry = id == null ? null : clipboardHistory.remove(id);
+        if (entry != null) {
+            indexer.execute(() -> searchIndex.remove(hash));
+            releaseFlavors(entry);
+            discard(entry);
+            return true;
+        }
+        if (coldHistory == null) {
+            return false;
+        }
+        ColdHistory.Dropped dropped = null;
+        try {
+            dropped = coldHistory.drop(hash);
+        } catch (IOException e) {
+            Log.warn("Could not drop cold history item: " + e.getMessage());
+        }
+        if (dropped != null) {
+            discardDropped(dropped);
+        }
+        return dropped != null;
+    }
+
+    /**
+     * Size counted for the text of an entry: two bytes per char, as held in memory.
+     */
+    private static long textWeightOf(HistoryEntry entry) {
+        return 2L * entry.getLength();
+    }
+
+    /**
+     * Creates the history entry for new text. Text above the spill threshold is compressed
+     * into the payload store so only a preview stays in the heap, unless it is a likely secret.
+     */
+    private HistoryEntry createEntry(String content, long hash, long capturedAt, FlavorRecord flavors, int tags) {
+        if ((long) content.length() * 2 > appSettings.getSpillThresholdKb() * 1024L && !isKeptOffDisk(tags)) {
+            try {
+                return HistoryEntry.spilled(payloadStore.write(content, hash), content, hash, capturedAt, flavors, tags);
+            } catch (IOException e) {
+                Log.warn("Could not spill large clipboard item, keeping it in memory: " + e.getMessage());
+            }
+        }
+        return new HistoryEntry(content, hash, capturedAt, flavors, tags);
+    }
+
+    /**
+     * Thumbnails of the captured images, for the history list.
+     */
+    public ThumbnailCache getThumbnails() {
+        return thumbnails;
+    }
+
+    /**
+     * Returns the current clipboard history as an array.
+     */
+    public String[] getClipboardHistory() {
+        return clipboardHistory.snapshot().stream().map(HistoryEntry::getText).toArray(String[]::new);
+    }
+
+    /**
+     * Returns an immutable snapshot of the hot tier, oldest first, without copying into an array.
+     * Older entries are in the cold tier, see {@link #getColdEntry}.
+     */
+    public List<HistoryEntry> getHistorySnapshot() {
+        return clipboardHistory.snapshot();
+    }
+
+    /**
+     * @return Number of entries in the cold tier, listed after the {@link #getHistorySnapshot() hot ones}
+     */
+    public int getColdSize() {
+        return coldHistory == null ? 0 : coldHistory.size();
+    }
+
+    /**
+     * Returns a cold entry by age, 0 being the newest, reading it from disk unless it is cached.
+     * @return The entry, or null if the cold tier has no such entry (any more)
+     */
+    public HistoryEntry getColdEntry(int index) {
+        return coldHistory == null ? null : coldHistory.get(index);
+    }
+
+    /**
+     * Returns a page of cold entries by age, reading the ones not cached from disk.
+     * Meant to be called off the EDT.
+     * @param index Age of the first entry, 0 being the newest
+     * @return Up to count entries, fewer if the cold tier ends before
+     */
+    public List<HistoryEntry> getColdEntries(int index, int count) {
+        return coldHistory == null ? List.of() : coldHistory.get(index, count);
+    }
+
+    /**
+     * Looks up an entry by content hash, in the hot tier or, reading it from disk, the cold tier.
+     * @return The entry, or null if it is not in the history
+     */
+    public HistoryEntry getEntry(long hash) {
+        Long id = idsByHash.get(hash);
+        HistoryEntry entry = id == null ? null : clipboardHistory.get(id);
+        if (entry != null || coldHistory == null) {
+            return entry;
+        }
+        return coldHistory.getByHash(hash);
+    }
+
+    /**
+     * Finds history entries containing the query (case-insensitive), newest first.
+     * In the hot tier, queries of three or more chars go through the trigram index and shorter
+     * ones scan the previews. The cold tier is scanned on disk after that.
+     * @param prefix If true, entries must start with the query instead of containing it
+     * @param limit Most matches returned; the cold tier is only scanned for what the hot tier leaves
+     */
+    public List<HistoryEntry> search(String query, boolean prefix, int limit) {
+        List<HistoryEntry> matches = searchHot(query, prefix);
+        if (matches.size() >= limit) {
+            return new ArrayList<>(matches.subList(0, limit));
+        }
+        matches.addAll(searchCold(query, prefix, limit - matches.size(), () -> false));
+        return matches;
+    }
+
+    /**
+     * The in-memory part of {@link #search}, fast enough for the EDT.
+     */
+    public List<HistoryEntry> searchHot(String query, boolean prefix) {
+        List<HistoryEntry> history = clipboardHistory.snapshot();
+        List<HistoryEntry> matches = new ArrayList<>();
+        long[] candidates = query.isEmpty() ? null : searchIndex.search(query, prefix);
+
+        if (candidates == null) {
+            for (int i = history.size() - 1; i >= 0; i--) {
+                HistoryEntry entry = history.get(i);
+                if (TrigramIndex.containsIgnoreCase(entry.getPreview(), query, prefix)) {
+                    matches.add(entry);
                 }
-            } catch (Exception e) {
-                System.err.println("Error verifying clipboard lock on attempt " + (attempt + 1) + ": " + e.getMessage());
+            }
+            return matches;
+        }
+
+        Set<Long> candidateHashes = new HashSet<>(candidates.length * 2);
+        for (long hash : candidates) {
+            candidateHashes.add(hash);
+        }
+        for (int i = history.size() - 1; i >= 0 && !candidateHashes.isEmpty(); i--) {
+            HistoryEntry entry = history.get(i);
+            if (candidateHashes.remove(entry.getHash())
+                    //spilled text stays on disk, the trigram match is good enough for those
+                    && (entry.isSpilled() || TrigramIndex.containsIgnoreCase(entry.getText(), query, prefix))) {
+                matches.add(entry);
             }
         }
+        return matches;
+    }
+
+    /**
+     * The on-disk part of {@link #search}: scans the cold tier, so it is meant to run off the EDT.
+     * @param cancelled Polled while scanning, e.g. because the query changed; a cancelled search returns nothing
+     */
+    public List<HistoryEntry> searchCold(String query, boolean prefix, BooleanSupplier cancelled) {
+        return searchCold(query, prefix, COLD_SEARCH_LIMIT, cancelled);
+    }
+
+    private List<HistoryEntry> searchCold(String query, boolean prefix, int limit, BooleanSupplier cancelled) {
+        if (coldHistory == null || query.isEmpty()) {
+            return new ArrayList<>();
+        }
+        try {
+            return coldHistory.search(query, prefix, limit, cancelled);
+        } catch (IOException e) {
+            Log.warn("Could not search the cold history: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
 
-        return originalContent;
+    /**
+     * Registers a listener for history changes. It is called on the history writer thread.
+     */
+    public void addHistoryListener(HistoryListener listener) {
+        historyListeners.add(listener);
+    }
+
+    public void removeHistoryListener(HistoryListener listener) {
+        historyListeners.remove(listener);
+    }
+
+    private void fireEntryAdded(HistoryEntry entry) {
+        for (HistoryListener listener : historyListeners) {
+            listener.entryAdded(entry);
+        }
+    }
+
+    private void fireEntryRemoved(HistoryEntry entry) {
+        for (HistoryListener listener : historyListeners) {
+            listener.entryRemoved(entry);
+        }
+    }
+
+    private void fireColdEntryDropped(long hash) {
+        for (HistoryListener listener : historyListeners) {
+            listener.coldEntryDropped(hash);
+        }
+    }
+
+    private void fireColdEntriesRestored() {
+        for (HistoryListener listener : historyListeners) {
+            listener.coldEntriesRestored();
+        }
+    }
+
+    private void fireEntryDemoted(HistoryEntry entry) {
+        for (HistoryListener listener : historyListeners) {
+            listener.entryDemoted(entry);
+        }
+    }
+
+    /**
+     * Checks whether the given text is already in the history, by hash lookup instead of a scan.
+     */
+    public boolean isInHistory(String content) {
+        long hash = ContentHash.of(content);
+        return idsByHash.containsKey(hash) || coldHistory != null && coldHistory.contains(hash);
+    }
+
+    public void updateLastSeenClipboardContent(String content) {
+        long hash = ContentHash.of(content);
+        writer.execute(() -> lastSeenContentHash = hash);
+    }
+
+    public void updateLastSeenClipboardContent(HistoryEntry entry) {
+        writer.execute(() -> lastSeenContentHash = entry.getHash());
+    }
+
+    /**
+     * Locks the clipboard empty while the popup is open, taking ownership with a single write.
+     * Any earlier lock that is still held is released first. Another application's contents are
+     * transferred in full to be remembered, see {@link ClipboardLock}.
+     * @return The lock, which remembers the original clipboard contents
+     */
+    public ClipboardLock acquireClipboardLock() {
+        JfrEvents.ClipboardLockAcquire event = new JfrEvents.ClipboardLockAcquire();
+        event.begin();
+        event.attempt = lockCount.incrementAndGet();
+        ClipboardLock previous = activeLock;
+        if (previous != null) {
+            previous.release();
+        }
+        ClipboardLock lock;
+        try {
+            //whatever another application set while the popup was open is captured right away
+            lock = ClipboardLock.acquire(clipboardBackend.getClipboard(), () -> writer.execute(this::checkIfMonitoring));
+        } catch (RuntimeException e) {
+            event.commit();
+            throw e;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.success = true;
+            event.flavor = lock.getOriginalFlavor();
+            event.commit();
+        }
+        activeLock = lock;
+        LatencyStage.CLIPBOARD_LOCK.record(lock.getLockNanos());
+        long lockNanos = lock.getLockNanos();
+        Log.debug(() -> String.format(Locale.ROOT, "Clipboard locked in %.2f ms", lockNanos / 1_000_000.0));
+        return lock;
+    }
+
+    /**
+     * Puts a history entry on the clipboard with all the flavors it was captured with. Nothing
+     * is read here; spilled text, images and rich text are only read back from disk when the
+     * target application asks for that flavor.
+     * @param entry The entry to restore
+     * @return The transferable that was set, or null if the clipboard could not be set
+     */
+    public Transferable restoreClipboard(HistoryEntry entry) {
+        JfrEvents.ClipboardRestore event = new JfrEvents.ClipboardRestore();
+        event.begin();
+        event.payloadChars = entry.getLength();
+        event.lazy = entry.isSpilled();
+        try {
+            Clipboard clipboard = clipboardBackend.getClipboard();
+            Transferable contents = entry.isSpilled() || entry.getFlavors() != null
+                    ? new HistoryTransferable(entry) : new StringSelection(entry.getText());
+            setOwnedContents(clipboard, contents);
+            event.success = true;
+            Log.info(() -> "Clipboard restored with: " + entry.getLength() + " chars #" + Long.toHexString(entry.getHash()));
+            return contents;
+        } catch (Exception e) {
+            Log.warn("Error restoring clipboard: " + e.getMessage());
+            return null;
+        } finally {
+            commitRestore(event, entry.getFlavors());
+        }
+    }
+
+    /**
+     * Sets the clipboard and keeps ownership of it tracked, so the clipboard is not read until
+     * another application takes it over.
+     */
+    private void setOwnedContents(Clipboard clipboard, Transferable contents) {
+        supersedeLock();
+        restoredContents.set(contents);
+        //whatever is copied once the app lost the clipboard again is new, even if it matches what was there before
+        writer.execute(() -> lastSeenToken = null);
+        try {
+            clipboard.setContents(contents, restoreOwner);
+        } catch (RuntimeException e) {
+            restoredContents.compareAndSet(contents, null);
+            throw e;
+        }
     }
 
     /**
@@ -170,14 +1350,18 @@ public class ClipboardManager {
      * @param content The content to restore
      */
     public void restoreClipboard(String content) {
+        JfrEvents.ClipboardRestore event = new JfrEvents.ClipboardRestore();
+        event.begin();
+        event.payloadChars = content.length();
         try {
-            Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
-            StringSelection selection = new StringSelection(content);
-            clipboard.setContents(selection, null);
-            System.out.println("Clipboard restored with: " +
-                (content.length() > 50 ? content.substring(0, 50) + "..." : content));
+            Clipboard clipboard = clipboardBackend.getClipboard();
+            setOwnedContents(clipboard, new StringSelection(content));
+            event.success = true;
+            Log.info(() -> "Clipboard restored with: " + Log.payload(content));
         } catch (Exception e) {
-            System.err.println("Error restoring clipboard: " + e.getMessage());
+            Log.warn("Error restoring clipboard: " + e.getMessage());
+        } finally {
+            commitRestore(event, null);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,694 @@
+package com.permanentpaste.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Cold tier of the history: the entries older than the in-memory hot tier, kept in a file.
+ *
+ * The heap only holds a compact index, oldest first: per entry its content hash, capture
+ * time, record position, text length and record kind, plus an open-addressed map from hash to
+ * index position, so an entry is found by hash in O(1). Everything else stays in the file and
+ * is paged in when the popup scrolls to an entry or a search hits it; the entries read last
+ * are kept in a small LRU cache. Text longer than {@value #INLINE_CHARS} chars is moved to the
+ * {@link PayloadStore} on the way in, so no cold entry holds more than that in the heap.
+ *
+ * Removing an entry from the middle of the index leaves a tombstone instead of shifting the
+ * newer entries; the index is squeezed once tombstones outnumber the live entries, and a
+ * Fenwick tree over the tombstones keeps lookups by age logarithmic meanwhile. Entries that
+ * leave for good (evicted, expired, over budget) are {@link Dropped dropped} from the index
+ * without reading their text back. Removed records leave dead bytes in the file, which is
+ * rewritten once they outweigh the live ones. The file is only a working copy and is recreated
+ * on every start; what survives a restart is the {@link HistoryLog}.
+ *
+ * Entries restored from the history log at start are not copied into the file: they are
+ * {@link #appendLogged listed} from the log's index and paged in from the log itself.
+ */
+public class ColdHistory implements Closeable {
+
+    /**
+     * What is left of an entry dropped without reading its text back: enough to account for
+     * it and to delete its payload.
+     * @param length Length of the text in chars
+     * @param blob Blob holding the text, or null if the text was inline
+     */
+    public record Dropped(long hash, int length, PayloadStore.Blob blob) {
+    }
+
+    private static final int INLINE_CHARS = 1024;
+    private static final int CACHE_SIZE = 256;
+    private static final int SCAN_BUFFER_SIZE = 256 * 1024;
+    //scans restarted because the file was compacted under them, before giving up
+    private static final int MAX_SCAN_ATTEMPTS = 3;
+    private static final long COMPACTION_MIN_DEAD_BYTES = 4L * 1024 * 1024;
+    //hash, capturedAt, text length, kind, content tags and preview length
+    private static final int HEADER_SIZE = 8 + 8 + 4 + 1 + 1 + 2;
+    private static final byte INLINE = 0;
+    private static final byte BLOB = 1;
+    //records kept in the history log instead of the file, with the text inline or in a blob
+    private static final byte LOGGED = 2;
+    private static final byte LOGGED_BLOB = 3;
+    //kind of a removed index position
+    private static final byte TOMBSTONE = -1;
+    //tombstones tolerated before the index is squeezed, if they also outnumber the live entries
+    private static final int MIN_SQUEEZED_TOMBSTONES = 64;
+    //a record position is its file offset and length packed into one long
+    private static final int LENGTH_BITS = 24;
+    private static final long LENGTH_MASK = (1L << LENGTH_BITS) - 1;
+
+    private final Path file;
+    private final PayloadStore payloads;
+    //where the LOGGED records are
+    private HistoryLog log;
+    private FileChannel channel;
+    private long writePosition = 0L;
+    private long deadBytes = 0L;
+    private int capacity;
+
+    //oldest first, [start, end) is in use; records are in the file in the same order
+    private long[] hashes = new long[64];
+    private long[] capturedAts = new long[64];
+    private long[] records = new long[64];
+    private int[] lengths = new int[64];
+    private byte[] kinds = new byte[64];
+    private int start = 0;
+    private int end = 0;
+    private int tombstones = 0;
+    //hash to index position of the live entries
+    private final LongIntMap positions = new LongIntMap();
+    //tombstones per index position as a Fenwick tree, 1-based
+    private int[] tombstoneTree = new int[65];
+
+    private final Map<Long, HistoryEntry> cache = new LinkedHashMap<>(CACHE_SIZE * 2, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, HistoryEntry> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private ColdHistory(Path file, PayloadStore payloads, int capacity, FileChannel channel) {
+        this.file = file;
+        this.payloads = payloads;
+        this.capacity = capacity;
+        this.channel = channel;
+    }
+
+    /**
+     * Creates an empty cold tier, replacing the working file of a previous run.
+     * @param capacity Most entries kept, the oldest are evicted first
+     */
+    public static ColdHistory open(Path directory, PayloadStore payloads, int capacity) throws IOException {
+        Files.createDirectories(directory);
+        Path file = directory.resolve("cold.dat");
+        return new ColdHistory(file, payloads, capacity, FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    /**
+     * Adds an entry that left the hot tier as the newest cold entry. Only the text is kept,
+     * other flavors are left behind.
+     * @return Entries dropped to stay within the capacity, oldest first
+     */
+    public synchronized List<Dropped> append(HistoryEntry entry) throws IOException {
+        byte kind = INLINE;
+        String payload;
+        if (entry.isSpilled()) {
+            kind = BLOB;
+            payload = entry.getBlob().getName();
+        } else if (entry.getLength() > INLINE_CHARS) {
+            kind = BLOB;
+            payload = payloads.write(entry.getText(), entry.getHash()).getName();
+        } else {
+            payload = entry.getText();
+        }
+        byte[] preview = entry.getPreview().getBytes(StandardCharsets.UTF_8);
+        byte[] data = payload.getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + preview.length + data.length);
+        record.putLong(entry.getHash()).putLong(entry.getCapturedAt()).putInt(entry.getLength())
+                .put(kind).put((byte) entry.getTags()).putShort((short) preview.length).put(preview).put(data).flip();
+        long offset = writePosition;
+        while (record.hasRemaining()) {
+            writePosition += channel.write(record, writePosition);
+        }
+
+        if (end == hashes.length) {
+            resizeIndex(Math.max(64, size() * 2));
+        }
+        hashes[end] = entry.getHash();
+        capturedAts[end] = entry.getCapturedAt();
+        records[end] = offset << LENGTH_BITS | record.limit();
+        lengths[end] = entry.getLength();
+        kinds[end] = kind;
+        positions.put(entry.getHash(), end);
+        end++;
+        return evictOverflow();
+    }
+
+    /**
+     * Lists an entry of the history log as the newest cold entry, without reading or copying
+     * it: it is read from the log when needed, so it must stay in the log while it is listed here.
+     * @param entry The entry as known from the log's index
+     * @return Entries dropped to stay within the capacity, oldest first
+     */
+    public synchronized List<Dropped> appendLogged(HistoryLog log, HistoryLog.Stored entry) throws IOException {
+        this.log = log;
+        if (end == hashes.length) {
+            resizeIndex(Math.max(64, size() * 2));
+        }
+        hashes[end] = entry.hash();
+        capturedAts[end] = entry.capturedAt();
+        records[end] = 0L;
+        lengths[end] = entry.length();
+        kinds[end] = entry.spilled() ? LOGGED_BLOB : LOGGED;
+        positions.put(entry.hash(), end);
+        end++;
+        return evictOverflow();
+    }
+
+    /**
+     * Takes an entry out of the cold tier, e.g. because it was copied again and moves to the top.
+     * @return The entry, or null if it is not in the cold tier
+     */
+    public synchronized HistoryEntry remove(long hash) throws IOException {
+        int position = positions.get(hash);
+        if (position < 0) {
+            return null;
+        }
+        HistoryEntry entry = read(position);
+        removeAt(position);
+        return entry;
+    }
+
+    /**
+     * Takes an entry out of the cold tier for good, without reading its text.
+     * @return What is left of the entry, or null if it is not in the cold tier
+     */
+    public synchronized Dropped drop(long hash) throws IOException {
+        int position = positions.get(hash);
+        return position < 0 ? null : dropAt(position);
+    }
+
+    public synchronized boolean contains(long hash) {
+        return positions.get(hash) >= 0;
+    }
+
+    /**
+     * Looks up the capture time in the index, without reading the file.
+     * @return The capture time, or -1 if the entry is not in the cold tier
+     */
+    public synchronized long capturedAtOf(long hash) {
+        int position = positions.get(hash);
+        return position < 0 ? -1L : capturedAts[position];
+    }
+
+    /**
+     * Drops the oldest entry, without reading its text.
+     * @return What is left of the entry, or null if the cold tier is empty
+     */
+    public synchronized Dropped dropOldest() throws IOException {
+        return size() == 0 ? null : dropAt(start);
+    }
+
+    /**
+     * Receives the index of every entry.
+     */
+    public interface IndexVisitor {
+        void visit(long hash, long capturedAt);
+    }
+
+    /**
+     * Visits the index, oldest first, without reading the file.
+     */
+    public synchronized void forEachIndexed(IndexVisitor visitor) {
+        for (int position = start; position < end; position++) {
+            if (kinds[position] != TOMBSTONE) {
+                visitor.visit(hashes[position], capturedAts[position]);
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return end - start - tombstones;
+    }
+
+    /**
+     * Changes the capacity, dropping the oldest entries that no longer fit.
+     * @return The dropped entries, oldest first
+     */
+    public synchronized List<Dropped> setCapacity(int capacity) throws IOException {
+        this.capacity = capacity;
+        return evictOverflow();
+    }
+
+    /**
+     * Returns an entry by age, 0 being the newest cold entry, reading it from the file on a cache miss.
+     * @return The entry, or null if there is no such entry (any more)
+     */
+    public synchronized HistoryEntry get(int newestFirstIndex) {
+        if (newestFirstIndex < 0 || newestFirstIndex >= size()) {
+            return null;
+        }
+        try {
+            return read(positionOfAge(size() - 1 - newestFirstIndex));
+        } catch (IOException e) {
+            Log.warn("Could not read cold history entry: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Returns a page of entries by age, reading the ones not cached under a single lock.
+     * @param newestFirstIndex Age of the first entry, 0 being the newest cold entry
+     * @return Up to count entries, fewer if the cold tier ends before
+     */
+    public synchronized List<HistoryEntry> get(int newestFirstIndex, int count) {
+        List<HistoryEntry> page = new ArrayList<>(Math.max(0, count));
+        for (int i = newestFirstIndex; i < newestFirstIndex + count; i++) {
+            HistoryEntry entry = get(i);
+            if (entry == null) {
+                break;
+            }
+            page.add(entry);
+        }
+        return page;
+    }
+
+    /**
+     * Looks up an entry by content hash, reading it from the file on a cache miss.
+     * @return The entry, or null if it is not in the cold tier
+     */
+    public synchronized HistoryEntry getByHash(long hash) {
+        int position = positions.get(hash);
+        if (position < 0) {
+            return null;
+        }
+        try {
+            return read(position);
+        } catch (IOException e) {
+            Log.warn("Could not read cold history entry: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Calls the action for every entry, oldest first, without filling the cache.
+     */
+    public synchronized void forEach(Consumer<HistoryEntry> action) throws IOException {
+        scan(snapshot(), (hash, record) -> action.accept(record != null ? decode(record) : readLogged(hash)),
+                () -> false);
+    }
+
+    /**
+     * Finds entries containing the query, newest first. Inline text is matched in full,
+     * text kept in a blob by its preview. The file is read front to back in large chunks,
+     * entries kept in the history log are read from there, and only matching entries are
+     * materialized; an ASCII query is matched on the raw bytes, without decoding the records.
+     * The scan runs on a copy of the index without holding the lock, so appends and lookups
+     * go on meanwhile; hits removed before the scan ends are left out.
+     * @param limit Most matches returned, the newest ones are kept
+     * @param cancelled Polled while scanning; once it returns true the scan stops and nothing is returned
+     */
+    public List<HistoryEntry> search(String query, boolean prefix, int limit, BooleanSupplier cancelled)
+            throws IOException {
+        byte[] asciiQuery = query.chars().allMatch(c -> c < 0x80)
+                ? query.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.US_ASCII) : null;
+        List<Long> hits = new ArrayList<>();
+        for (int attempt = 1; ; attempt++) {
+            Snapshot snapshot;
+            synchronized (this) {
+                snapshot = snapshot();
+            }
+            try {
+                scan(snapshot, (hash, record) -> {
+                    if (matches(snapshot.log(), hash, record, query, asciiQuery, prefix)) {
+                        hits.add(hash);
+                    }
+                }, cancelled);
+                break;
+            } catch (ClosedChannelException e) {
+                //the file was compacted meanwhile and the copied record positions are stale
+                if (attempt == MAX_SCAN_ATTEMPTS) {
+                    throw e;
+                }
+                hits.clear();
+            }
+        }
+        if (cancelled.getAsBoolean()) {
+            return List.of();
+        }
+        List<HistoryEntry> matches = new ArrayList<>(Math.min(limit, hits.size()));
+        synchronized (this) {
+            for (int i = hits.size() - 1; i >= 0 && matches.size() < limit; i--) {
+                int position = positions.get(hits.get(i));
+                if (position != LongIntMap.MISSING) {
+                    matches.add(read(position));
+                }
+            }
+        }
+        return matches;
+    }
+
+    private static boolean matches(HistoryLog log, long hash, ByteBuffer record, String query, byte[] asciiQuery,
+            boolean prefix) throws IOException {
+        int from;
+        int to;
+        if (record == null) {
+            record = log.readSearchable(hash);
+            if (record == null) {
+                return false;
+            }
+            from = 0;
+            to = record.limit();
+        } else {
+            int previewLength = record.getShort(HEADER_SIZE - 2) & 0xffff;
+            boolean inline = record.get(HEADER_SIZE - 4) == INLINE;
+            from = inline ? HEADER_SIZE + previewLength : HEADER_SIZE;
+            to = inline ? record.limit() : HEADER_SIZE + previewLength;
+        }
+        if (asciiQuery != null) {
+            return containsAsciiIgnoreCase(record, from, to, asciiQuery, prefix);
+        }
+        byte[] text = new byte[to - from];
+        record.get(from, text);
+        return TrigramIndex.containsIgnoreCase(new String(text, StandardCharsets.UTF_8), query, prefix);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+        Files.deleteIfExists(file);
+    }
+
+    private interface RecordVisitor {
+        /**
+         * @param record The record, or null if it is kept in the history log
+         */
+        void visit(long hash, ByteBuffer record) throws IOException;
+    }
+
+    /**
+     * Copy of the live part of the index and of where its records are, to scan without the lock.
+     * @param records Record positions, or -1 for records kept in the history log
+     */
+    private record Snapshot(long[] hashes, long[] records, HistoryLog log, FileChannel channel, long writePosition) {
+    }
+
+    private Snapshot snapshot() {
+        int size = size();
+        long[] liveHashes = new long[size];
+        long[] liveRecords = new long[size];
+        int i = 0;
+        for (int position = start; position < end; position++) {
+            if (kinds[position] != TOMBSTONE) {
+                liveHashes[i] = hashes[position];
+                liveRecords[i++] = isLogged(position) ? -1L : records[position];
+            }
+        }
+        return new Snapshot(liveHashes, liveRecords, log, channel, writePosition);
+    }
+
+    /**
+     * Visits the records of a snapshot in index order, which is also file order, reading the
+     * file in large chunks instead of once per record.
+     * @param stop Polled before every record, the scan ends once it returns true
+     * @throws ClosedChannelException If the file was compacted since the snapshot was taken
+     */
+    private static void scan(Snapshot snapshot, RecordVisitor visitor, BooleanSupplier stop) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE).limit(0);
+        long bufferOffset = 0L;
+        for (int i = 0; i < snapshot.hashes().length && !stop.getAsBoolean(); i++) {
+            long record = snapshot.records()[i];
+            if (record < 0) {
+                visitor.visit(snapshot.hashes()[i], null);
+                continue;
+            }
+            long offset = offsetOf(record);
+            int length = lengthOf(record);
+            if (offset + length > bufferOffset + buffer.limit()) {
+                if (length > buffer.capacity()) {
+                    buffer = ByteBuffer.allocate(length);
+                }
+                buffer.clear().limit((int) Math.min(buffer.capacity(), snapshot.writePosition() - offset));
+                readFully(snapshot.channel(), buffer, offset);
+                buffer.flip();
+                bufferOffset = offset;
+            }
+            visitor.visit(snapshot.hashes()[i], buffer.slice((int) (offset - bufferOffset), length));
+        }
+    }
+
+    /**
+     * Case-insensitive search for a lower case ASCII query in UTF-8 bytes. Bytes of multi-byte
+     * chars are never ASCII, so they cannot produce a false match.
+     */
+    private static boolean containsAsciiIgnoreCase(ByteBuffer text, int from, int to, byte[] query, boolean prefix) {
+        int last = prefix ? Math.min(from, to - query.length) : to - query.length;
+        outer:
+        for (int i = from; i <= last; i++) {
+            for (int j = 0; j < query.length; j++) {
+                byte b = text.get(i + j);
+                if (b != query[j] && (b < 'A' || b > 'Z' || b + ('a' - 'A') != query[j])) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Drops a live entry. Only a record whose text is in a blob is read, for the blob's name,
+     * unless the entry is cached.
+     */
+    private Dropped dropAt(int position) throws IOException {
+        PayloadStore.Blob blob = null;
+        if (kinds[position] == BLOB || kinds[position] == LOGGED_BLOB) {
+            HistoryEntry entry = cache.get(hashes[position]);
+            try {
+                blob = (entry != null ? entry : readRecord(position)).getBlob();
+            } catch (IOException e) {
+                //dropped anyway, the blob is deleted with the other unreferenced ones on the next start
+                Log.warn("Could not read cold history item being dropped: " + e.getMessage());
+            }
+        }
+        Dropped dropped = new Dropped(hashes[position], lengths[position], blob);
+        removeAt(position);
+        return dropped;
+    }
+
+    /**
+     * Takes a live entry out of the index: the oldest one by moving the start past it and any
+     * tombstones following it, any other one by turning it into a tombstone.
+     */
+    private void removeAt(int position) throws IOException {
+        positions.remove(hashes[position]);
+        cache.remove(hashes[position]);
+        deadBytes += lengthOf(records[position]);
+        if (position == start) {
+            start++;
+            while (start < end && kinds[start] == TOMBSTONE) {
+                start++;
+                tombstones--;
+            }
+        } else {
+            kinds[position] = TOMBSTONE;
+            tombstones++;
+            for (int i = position + 1; i < tombstoneTree.length; i += i & -i) {
+                tombstoneTree[i]++;
+            }
+        }
+        maybeCompact();
+    }
+
+    private List<Dropped> evictOverflow() throws IOException {
+        List<Dropped> evicted = new ArrayList<>();
+        while (size() > capacity) {
+            evicted.add(dropAt(start));
+        }
+        return evicted;
+    }
+
+    /**
+     * @param age Age of a live entry, 0 being the oldest
+     * @return Its index position
+     */
+    private int positionOfAge(int age) {
+        if (tombstones == 0) {
+            return start + age;
+        }
+        //the first position with age + 1 live entries from the start up to it
+        int low = start + age;
+        int high = end - 1;
+        int tombstonesBeforeStart = tombstonesUpTo(start - 1);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int live = middle - start + 1 - (tombstonesUpTo(middle) - tombstonesBeforeStart);
+            if (live >= age + 1) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return Number of tombstones at index positions 0 to the given one, inclusive
+     */
+    private int tombstonesUpTo(int position) {
+        int count = 0;
+        for (int i = position + 1; i > 0; i -= i & -i) {
+            count += tombstoneTree[i];
+        }
+        return count;
+    }
+
+    private HistoryEntry read(int position) throws IOException {
+        HistoryEntry entry = cache.get(hashes[position]);
+        if (entry == null) {
+            entry = readRecord(position);
+            cache.put(entry.getHash(), entry);
+        }
+        return entry;
+    }
+
+    private HistoryEntry readRecord(int position) throws IOException {
+        if (isLogged(position)) {
+            return readLogged(hashes[position]);
+        }
+        ByteBuffer record = ByteBuffer.allocate(lengthOf(records[position]));
+        readFully(channel, record, offsetOf(records[position]));
+        return decode(record.flip());
+    }
+
+    private HistoryEntry readLogged(long hash) throws IOException {
+        HistoryEntry entry = log.read(hash, payloads);
+        if (entry == null) {
+            throw new IOException("Cold history item is gone from the history log");
+        }
+        return entry;
+    }
+
+    private HistoryEntry decode(ByteBuffer record) {
+        long hash = record.getLong();
+        long capturedAt = record.getLong();
+        int length = record.getInt();
+        byte kind = record.get();
+        int tags = record.get() & 0xff;
+        byte[] preview = new byte[record.getShort() & 0xffff];
+        record.get(preview);
+        byte[] data = new byte[record.remaining()];
+        record.get(data);
+        String payload = new String(data, StandardCharsets.UTF_8);
+        if (kind == BLOB) {
+            return HistoryEntry.spilled(payloads.resolve(payload), new String(preview, StandardCharsets.UTF_8),
+                    length, hash, capturedAt, tags);
+        }
+        return new HistoryEntry(payload, hash, capturedAt, null, tags);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset + buffer.position());
+            if (read < 0) {
+                throw new IOException("Cold history record is truncated");
+            }
+        }
+    }
+
+    /**
+     * Rewrites the file without dead records once they make up most of it, and squeezes the
+     * index once most of it is unused or tombstones.
+     */
+    private void maybeCompact() throws IOException {
+        if (start > 64 && start > size() || tombstones > MIN_SQUEEZED_TOMBSTONES && tombstones > size()) {
+            resizeIndex(Math.max(64, size() * 2));
+        }
+        if (deadBytes < COMPACTION_MIN_DEAD_BYTES || deadBytes < writePosition - deadBytes) {
+            return;
+        }
+        Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+        long targetOffset = 0L;
+        try (FileChannel target = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int position = start; position < end; position++) {
+                if (kinds[position] == TOMBSTONE || isLogged(position)) {
+                    continue;
+                }
+                long offset = offsetOf(records[position]);
+                int length = lengthOf(records[position]);
+                for (long copied = 0L; copied < length; ) {
+                    copied += channel.transferTo(offset + copied, length - copied, target);
+                }
+                records[position] = targetOffset << LENGTH_BITS | length;
+                targetOffset += length;
+            }
+        }
+        channel.close();
+        Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING);
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        writePosition = targetOffset;
+        deadBytes = 0L;
+    }
+
+    /**
+     * Moves the live entries to the front of new arrays, leaving the tombstones behind.
+     */
+    private void resizeIndex(int length) {
+        long[] newHashes = new long[length];
+        long[] newCapturedAts = new long[length];
+        long[] newRecords = new long[length];
+        int[] newLengths = new int[length];
+        byte[] newKinds = new byte[length];
+        positions.clear(size());
+        int size = 0;
+        for (int position = start; position < end; position++) {
+            if (kinds[position] != TOMBSTONE) {
+                newHashes[size] = hashes[position];
+                newCapturedAts[size] = capturedAts[position];
+                newRecords[size] = records[position];
+                newLengths[size] = lengths[position];
+                newKinds[size] = kinds[position];
+                positions.put(newHashes[size], size);
+                size++;
+            }
+        }
+        hashes = newHashes;
+        capturedAts = newCapturedAts;
+        records = newRecords;
+        lengths = newLengths;
+        kinds = newKinds;
+        start = 0;
+        end = size;
+        tombstones = 0;
+        tombstoneTree = new int[length + 1];
+    }
+
+    private boolean isLogged(int position) {
+        return kinds[position] == LOGGED || kinds[position] == LOGGED_BLOB;
+    }
+
+    private static long offsetOf(long record) {
+        return record >>> LENGTH_BITS;
+    }
+
+    private static int lengthOf(long record) {
+        return (int) (record & LENGTH_MASK);
+    }
+}
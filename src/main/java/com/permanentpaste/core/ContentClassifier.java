@@ -0,0 +1,338 @@
+package com.permanentpaste.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.StringJoiner;
+
+/**
+ * Tags clipboard text by what it looks like: a link, an email address, JSON, source code, a
+ * file path or a likely secret, such as a password, an API token or a private key.
+ *
+ * All tags come from a single pass over the text. Keywords hinting at a tag ("https://",
+ * "password=", "-----BEGIN ", "return ") are matched together by one Aho-Corasick automaton,
+ * compiled into a transition table over case-folded ASCII, so a char costs one table lookup
+ * however many keywords there are. What keywords cannot express (an address around an @, a
+ * single token mixing character classes, brackets around JSON, a path prefix) is tracked by a
+ * few counters in the same loop. At most {@value #MAX_SCANNED_CHARS} chars are scanned, and
+ * the scan stops as soon as nothing it could still find would change the result.
+ *
+ * The tags are guesses meant for badges, filters and keeping secrets out of the history,
+ * not a validation of the content.
+ */
+public final class ContentClassifier {
+
+    public enum Tag {
+        URL("url"),
+        EMAIL("email"),
+        JSON("json"),
+        CODE("code"),
+        PATH("path"),
+        SECRET("secret");
+
+        private final String label;
+
+        Tag(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public int bit() {
+            return 1 << ordinal();
+        }
+
+        /**
+         * @return The tag with the given label, ignoring case, or null
+         */
+        public static Tag forLabel(String label) {
+            for (Tag tag : values()) {
+                if (tag.label.equalsIgnoreCase(label)) {
+                    return tag;
+                }
+            }
+            return null;
+        }
+    }
+
+    //longer text is classified by its beginning
+    public static final int MAX_SCANNED_CHARS = 64 * 1024;
+    //a lone token this long or longer, mixing character classes, looks like a password or key
+    private static final int MIN_SECRET_TOKEN = 12;
+    private static final int MAX_SECRET_TOKEN = 512;
+
+    //keyword outputs besides the tags themselves
+    private static final int JSON_KEY = 1 << 8;
+    private static final int CODE_WORD = 1 << 9;
+    private static final int CODE_SYNTAX = 1 << 10;
+    //tags set while scanning, the others are decided at the end
+    private static final int MATCHED_TAGS = Tag.URL.bit() | Tag.EMAIL.bit() | Tag.SECRET.bit();
+
+    private static final int ALPHABET = 128;
+
+    private static final String[] URL_KEYWORDS = {"http://", "https://", "ftp://", "file://", "www."};
+    private static final String[] SECRET_KEYWORDS = {
+            "password=", "password:", "password\":", "password =", "passwd=", "passwd:", "pwd=",
+            "secret=", "secret:", "secret\":", "secret =", "token=", "token:", "token\":", "token =",
+            "api_key", "apikey", "api-key", "access_key", "client_secret", "private_key", "aws_secret",
+            "-----begin ", "authorization: bearer", "bearer ey", ".eyj", "ghp_", "gho_", "ghs_",
+            "github_pat_", "glpat-", "xoxb-", "xoxp-", "sk_live_", "sk-proj-"};
+    private static final String[] CODE_WORDS = {
+            "function ", "def ", "class ", "import ", "return ", "public ", "private ", "static ",
+            "const ", "let ", "var ", "fn ", "func ", "println", "console.log", "print(", "if (",
+            "for (", "while (", "else {", "#include", "#define"};
+    private static final String[] CODE_SYNTAX_KEYWORDS = {"};", "){", ") {", "=>", "();", "):\n", "):\r", "#!/", "::", "!="};
+    private static final String[] JSON_KEYWORDS = {"\":"};
+
+    //transitions, ALPHABET per state; outputs hold the keyword bits of a state and its suffixes
+    private static final int[] transitions;
+    private static final int[] outputs;
+
+    static {
+        Automaton automaton = new Automaton();
+        automaton.addAll(URL_KEYWORDS, Tag.URL.bit());
+        automaton.addAll(SECRET_KEYWORDS, Tag.SECRET.bit());
+        automaton.addAll(CODE_WORDS, CODE_WORD);
+        automaton.addAll(CODE_SYNTAX_KEYWORDS, CODE_SYNTAX);
+        automaton.addAll(JSON_KEYWORDS, JSON_KEY);
+        automaton.compile();
+        transitions = automaton.transitions;
+        outputs = automaton.outputs;
+    }
+
+    private ContentClassifier() {
+    }
+
+    /**
+     * @return The tags of the text, as a set of {@link Tag#bit()}s; 0 if none applies
+     */
+    public static int classify(CharSequence text) {
+        int length = text.length();
+        int first = 0;
+        while (first < length && Character.isWhitespace(text.charAt(first))) {
+            first++;
+        }
+        if (first == length) {
+            return 0;
+        }
+        int last = length - 1;
+        while (Character.isWhitespace(text.charAt(last))) {
+            last--;
+        }
+        int end = Math.min(last + 1, first + MAX_SCANNED_CHARS);
+        char opening = text.charAt(first);
+        boolean jsonShaped = (opening == '{' && text.charAt(last) == '}') || (opening == '[' && text.charAt(last) == ']');
+
+        int hints = 0;
+        int codeWords = 0;
+        int codeSyntax = 0;
+        int state = 0;
+        boolean whitespace = false;
+        boolean newline = false;
+        boolean lower = false;
+        boolean upper = false;
+        boolean digit = false;
+        boolean symbol = false;
+        //an address: local part chars, then after the @ the domain so far and its last label
+        int localRun = 0;
+        boolean inDomain = false;
+        int domainChars = 0;
+        int labelChars = -1;
+
+        int i = first;
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < ALPHABET) {
+                state = transitions[state * ALPHABET + (c >= 'A' && c <= 'Z' ? c + 32 : c)];
+                int output = outputs[state];
+                if (output != 0) {
+                    hints |= output;
+                    if ((output & CODE_WORD) != 0) {
+                        codeWords++;
+                    }
+                    if ((output & CODE_SYNTAX) != 0) {
+                        codeSyntax++;
+                    }
+                }
+            } else {
+                state = 0;
+            }
+
+            boolean letterOrDigit = false;
+            if (c >= 'a' && c <= 'z') {
+                lower = true;
+                letterOrDigit = true;
+            } else if (c >= 'A' && c <= 'Z') {
+                upper = true;
+                letterOrDigit = true;
+            } else if (c >= '0' && c <= '9') {
+                digit = true;
+                letterOrDigit = true;
+            } else if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c > 127 && Character.isWhitespace(c)) {
+                whitespace = true;
+                newline |= c == '\n' || c == '\r';
+            } else if (c != '-' && c != '_' && c != '.') {
+                //separators of ids and version numbers do not make a token look random
+                symbol = true;
+            }
+
+            if (inDomain) {
+                if (letterOrDigit || c == '-') {
+                    domainChars++;
+                    if (labelChars >= 0 && ++labelChars >= 2) {
+                        hints |= Tag.EMAIL.bit();
+                        inDomain = false;
+                    }
+                } else if (c == '.' && domainChars > 0) {
+                    labelChars = 0;
+                } else {
+                    inDomain = false;
+                }
+            }
+            if (c == '@') {
+                inDomain = localRun > 0;
+                domainChars = 0;
+                labelChars = -1;
+                localRun = 0;
+            } else if (letterOrDigit || c == '.' || c == '_' || c == '%' || c == '+' || c == '-') {
+                localRun++;
+            } else {
+                localRun = 0;
+            }
+
+            //every tag the rest of the text could add is known already
+            if (whitespace && (hints & MATCHED_TAGS) == MATCHED_TAGS && codeWords > 0 && codeSyntax > 0
+                    && (!jsonShaped || (hints & JSON_KEY) != 0)) {
+                break;
+            }
+        }
+
+        int tags = hints & MATCHED_TAGS;
+        if (jsonShaped && (hints & JSON_KEY) != 0) {
+            tags |= Tag.JSON.bit();
+        }
+        if (codeSyntax >= 2 || codeSyntax >= 1 && codeWords >= 1) {
+            tags |= Tag.CODE.bit();
+        }
+        if (!newline && i == last + 1 && isPathStart(text, first, last)) {
+            tags |= Tag.PATH.bit();
+        }
+        int tokenLength = last + 1 - first;
+        if (!whitespace && i == last + 1 && tokenLength >= MIN_SECRET_TOKEN && tokenLength <= MAX_SECRET_TOKEN
+                && (tags & (Tag.URL.bit() | Tag.EMAIL.bit() | Tag.PATH.bit())) == 0
+                && digit && (lower && upper || (lower || upper) && symbol)) {
+            tags |= Tag.SECRET.bit();
+        }
+        return tags;
+    }
+
+    /**
+     * @return The labels of the tags, comma separated, e.g. "url, code"
+     */
+    public static String describe(int tags) {
+        StringJoiner labels = new StringJoiner(", ");
+        for (Tag tag : Tag.values()) {
+            if ((tags & tag.bit()) != 0) {
+                labels.add(tag.getLabel());
+            }
+        }
+        return labels.toString();
+    }
+
+    /**
+     * An absolute or home-relative path on Unix, a drive or UNC path on Windows, or a relative
+     * path starting with a dot.
+     */
+    private static boolean isPathStart(CharSequence text, int first, int last) {
+        int length = last + 1 - first;
+        char c0 = text.charAt(first);
+        char c1 = length > 1 ? text.charAt(first + 1) : 0;
+        char c2 = length > 2 ? text.charAt(first + 2) : 0;
+        if (c0 == '/') {
+            return length > 1 && c1 != '/' && c1 != '*' && c1 != ' ';
+        }
+        if (c0 == '~' || c0 == '.') {
+            return c1 == '/' || c0 == '.' && c1 == '.' && c2 == '/';
+        }
+        if (c0 == '\\') {
+            return c1 == '\\' && length > 2;
+        }
+        return Character.isLetter(c0) && c0 < ALPHABET && c1 == ':' && (c2 == '\\' || c2 == '/');
+    }
+
+    /**
+     * Builds the keyword automaton: a trie of the keywords, then failure links found breadth
+     * first, folded into a full transition table so matching never follows a link.
+     */
+    private static final class Automaton {
+        private final List<int[]> children = new ArrayList<>();
+        private final List<Integer> keywordBits = new ArrayList<>();
+        int[] transitions;
+        int[] outputs;
+
+        Automaton() {
+            newState();
+        }
+
+        private int newState() {
+            int[] next = new int[ALPHABET];
+            Arrays.fill(next, -1);
+            children.add(next);
+            keywordBits.add(0);
+            return children.size() - 1;
+        }
+
+        void addAll(String[] keywords, int bits) {
+            for (String keyword : keywords) {
+                int state = 0;
+                for (int i = 0; i < keyword.length(); i++) {
+                    char c = keyword.charAt(i);
+                    if (c >= ALPHABET || c >= 'A' && c <= 'Z') {
+                        throw new IllegalArgumentException("Keywords are lower case ASCII: " + keyword);
+                    }
+                    if (children.get(state)[c] < 0) {
+                        int child = newState();
+                        children.get(state)[c] = child;
+                    }
+                    state = children.get(state)[c];
+                }
+                keywordBits.set(state, keywordBits.get(state) | bits);
+            }
+        }
+
+        void compile() {
+            int states = children.size();
+            transitions = new int[states * ALPHABET];
+            outputs = new int[states];
+            int[] failure = new int[states];
+            Queue<Integer> queue = new ArrayDeque<>();
+            for (int c = 0; c < ALPHABET; c++) {
+                int child = children.get(0)[c];
+                transitions[c] = Math.max(child, 0);
+                if (child > 0) {
+                    queue.add(child);
+                }
+            }
+            outputs[0] = keywordBits.get(0);
+            while (!queue.isEmpty()) {
+                int state = queue.remove();
+                outputs[state] = keywordBits.get(state) | outputs[failure[state]];
+                for (int c = 0; c < ALPHABET; c++) {
+                    int child = children.get(state)[c];
+                    int fallback = transitions[failure[state] * ALPHABET + c];
+                    if (child < 0) {
+                        transitions[state * ALPHABET + c] = fallback;
+                    } else {
+                        transitions[state * ALPHABET + c] = child;
+                        failure[child] = fallback;
+                        queue.add(child);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.permanentpaste.core;
+
+/**
+ * 64-bit content hash used to identify history entries without comparing full strings.
+ * FNV-1a over the UTF-16 code units, finished with a MurmurHash3 mix so that short,
+ * similar strings still spread over the whole range.
+ */
+public final class ContentHash {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private ContentHash() {
+    }
+
+    public static long of(CharSequence text) {
+        long hash = FNV_OFFSET;
+        for (int i = 0, length = text.length(); i < length; i++) {
+            hash ^= text.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return mix(hash ^ text.length());
+    }
+
+    /**
+     * MurmurHash3 fmix64 finalizer.
+     */
+    static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
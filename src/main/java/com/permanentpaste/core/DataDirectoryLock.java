@@ -0,0 +1,60 @@
+package com.permanentpaste.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Exclusive use of the data directory by one process. The history log, the cold tier and the
+ * image store are rewritten on start, so a second app or daemon on the same directory would
+ * corrupt the first one's state. The lock is an OS file lock, released when the process ends,
+ * however it ends.
+ */
+public final class DataDirectoryLock implements Closeable {
+
+    private static final String LOCK_FILE = "instance.lock";
+
+    private final FileChannel channel;
+    private final FileLock lock;
+
+    private DataDirectoryLock(FileChannel channel, FileLock lock) {
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    /**
+     * Locks the directory, creating it if needed.
+     * @throws IOException If another process holds the lock, or the lock file cannot be opened
+     */
+    public static DataDirectoryLock acquire(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        Path path = directory.resolve(LOCK_FILE);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (IOException | OverlappingFileLockException e) {
+            channel.close();
+            throw e instanceof IOException io ? io : new IOException("Already locked by this process: " + path);
+        }
+        if (lock == null) {
+            channel.close();
+            throw new IOException("Another instance is using " + directory);
+        }
+        return new DataDirectoryLock(channel, lock);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            lock.release();
+        } finally {
+            channel.close();
+        }
+    }
+}
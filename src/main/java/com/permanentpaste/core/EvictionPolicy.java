@@ -0,0 +1,56 @@
+package com.permanentpaste.core;
+
+/**
+ * A rule for dropping history entries besides the entry count limit.
+ *
+ * A policy can expire entries by time, by giving each entry a deadline, and it can cap the
+ * history as a whole, in which case the oldest entries are dropped until it is satisfied.
+ * Deadlines are checked again when they come due, so a policy may change its mind; it only
+ * has to tell the {@link ClipboardManager} when an entry's deadline moved earlier.
+ */
+public interface EvictionPolicy {
+
+    long NEVER = Long.MAX_VALUE;
+
+    /**
+     * @param hash Content hash of the entry
+     * @param capturedAt When the entry was (last) captured, in epoch milliseconds
+     * @return When the entry expires, in epoch milliseconds, or {@link #NEVER}
+     */
+    default long expiresAt(long hash, long capturedAt) {
+        return NEVER;
+    }
+
+    /**
+     * @param entries Number of entries in the history
+     * @param bytes Total size of the entries: their text, two bytes per char, and captured flavors
+     * @return True if the oldest entry has to go
+     */
+    default boolean isOverBudget(int entries, long bytes) {
+        return false;
+    }
+
+    /**
+     * Caps the total size of the history, so a few huge items push out many small ones.
+     */
+    static EvictionPolicy maxBytes(long maxBytes) {
+        return new EvictionPolicy() {
+            @Override
+            public boolean isOverBudget(int entries, long bytes) {
+                return bytes > maxBytes;
+            }
+        };
+    }
+
+    /**
+     * Expires every entry the given time after it was captured.
+     */
+    static EvictionPolicy maxAge(long maxAgeMillis) {
+        return new EvictionPolicy() {
+            @Override
+            public long expiresAt(long hash, long capturedAt) {
+                return capturedAt + maxAgeMillis;
+            }
+        };
+    }
+}
@@ -0,0 +1,305 @@
+package com.permanentpaste.core;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.datatransfer.Clipboard;
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.UnsupportedFlavorException;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+
+/**
+ * The flavors of a clipboard item beyond plain text: rich text, an image or a file selection.
+ *
+ * Only cheap metadata is read when the item is captured: which flavors the source offered,
+ * and the file list, which is just a few paths. The heavy flavors are transferred afterwards
+ * on a background thread and attached with {@link #put}; a flavor that could not be read in
+ * time (e.g. the clipboard changed first) is {@link #discard discarded} and not offered again.
+ * Rich text is kept as bytes, in the heap or, when large, in the {@link PayloadStore}; images
+ * go to the {@link ImageStore} and only their reference is kept here.
+ */
+public final class FlavorRecord {
+
+    /**
+     * A flavor whose data may be large, so it is never transferred on the capture tick.
+     */
+    public enum Kind {
+        HTML("HTML"),
+        RTF("RTF"),
+        IMAGE("Image");
+
+        private final String label;
+
+        Kind(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    static final DataFlavor RTF_FLAVOR = flavor("text/rtf;class=java.io.InputStream");
+
+    private final List<File> files;
+    private final Set<Kind> offered;
+    //byte[], PayloadStore.Blob or ImageStore.Ref per loaded kind
+    private final Map<Kind, Object> loaded = new EnumMap<>(Kind.class);
+    //uncompressed size of the loaded data
+    private long byteSize = 0L;
+    private boolean released = false;
+
+    private FlavorRecord(List<File> files, Set<Kind> offered) {
+        this.files = files;
+        this.offered = offered;
+    }
+
+    /**
+     * Reads the cheap part of the clipboard contents: the offered flavors and the file list.
+     * Nothing large is transferred.
+     * @return The record, or null if the clipboard only holds plain text (or nothing usable)
+     */
+    static FlavorRecord describe(Clipboard clipboard, DataFlavor[] available) throws IOException, UnsupportedFlavorException {
+        Set<Kind> offered = EnumSet.noneOf(Kind.class);
+        boolean hasFiles = false;
+        for (DataFlavor flavor : available) {
+            if (flavor.isFlavorJavaFileListType()) {
+                hasFiles = true;
+            } else if (flavor.equals(DataFlavor.imageFlavor)) {
+                offered.add(Kind.IMAGE);
+            } else if (flavor.equals(DataFlavor.allHtmlFlavor)) {
+                offered.add(Kind.HTML);
+            } else if (flavor.equals(RTF_FLAVOR)) {
+                offered.add(Kind.RTF);
+            }
+        }
+        List<File> files = null;
+        if (hasFiles) {
+            @SuppressWarnings("unchecked")
+            List<File> list = (List<File>) clipboard.getData(DataFlavor.javaFileListFlavor);
+            files = list == null || list.isEmpty() ? null : List.copyOf(list);
+        }
+        if (files == null && offered.isEmpty()) {
+            return null;
+        }
+        return new FlavorRecord(files, offered);
+    }
+
+    /**
+     * @return The copied files, or null if the item is not a file selection
+     */
+    public List<File> getFiles() {
+        return files;
+    }
+
+    /**
+     * The copied files as text, one absolute path per line, for items that came without text.
+     */
+    String filesAsText() {
+        StringJoiner text = new StringJoiner("\n");
+        for (File file : files) {
+            text.add(file.getAbsolutePath());
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return True if the source offered the flavor and it was not discarded
+     */
+    public synchronized boolean offers(Kind kind) {
+        return offered.contains(kind);
+    }
+
+    public synchronized boolean isLoaded(Kind kind) {
+        return loaded.containsKey(kind);
+    }
+
+    /**
+     * Kinds that were offered but are not loaded yet.
+     */
+    synchronized List<Kind> pending() {
+        List<Kind> pending = new ArrayList<>();
+        for (Kind kind : offered) {
+            if (!loaded.containsKey(kind)) {
+                pending.add(kind);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Kinds whose data is available for pasting.
+     */
+    public synchronized Set<Kind> loadedKinds() {
+        return loaded.isEmpty() ? EnumSet.noneOf(Kind.class) : EnumSet.copyOf(loaded.keySet());
+    }
+
+    /**
+     * Attaches loaded data: the bytes themselves, the blob they were written to or, for an
+     * image, its reference in the image store.
+     * @param size Uncompressed size of the data
+     * @return False if the record was {@link #release released} meanwhile; the data is not
+     *         kept and the caller has to delete what it stored
+     */
+    synchronized boolean put(Kind kind, Object data, long size) {
+        if (released) {
+            return false;
+        }
+        loaded.put(kind, data);
+        byteSize += size;
+        return true;
+    }
+
+    /**
+     * Marks the record as dropped from the history, no more data is attached after this.
+     * @return Uncompressed size of the data loaded so far
+     */
+    synchronized long release() {
+        released = true;
+        return byteSize;
+    }
+
+    /**
+     * Gives up on a flavor that could not be transferred; it is no longer offered.
+     */
+    synchronized void discard(Kind kind) {
+        if (!loaded.containsKey(kind)) {
+            offered.remove(kind);
+        }
+    }
+
+    /**
+     * @return The data of a loaded flavor, reading it from disk if it was spilled; null if not loaded
+     */
+    public byte[] getBytes(Kind kind) throws IOException {
+        Object data;
+        synchronized (this) {
+            data = loaded.get(kind);
+        }
+        if (data instanceof PayloadStore.Blob blob) {
+            return blob.readBytes();
+        }
+        if (data instanceof ImageStore.Ref image) {
+            return image.readBytes();
+        }
+        return (byte[]) data;
+    }
+
+    /**
+     * @return The stored image, or null if there is none or it is not loaded yet
+     */
+    public synchronized ImageStore.Ref getImage() {
+        return loaded.get(Kind.IMAGE) instanceof ImageStore.Ref image ? image : null;
+    }
+
+    /**
+     * Blobs holding spilled flavors, to be deleted together with the entry.
+     */
+    synchronized List<PayloadStore.Blob> blobs() {
+        List<PayloadStore.Blob> blobs = new ArrayList<>();
+        for (Object data : loaded.values()) {
+            if (data instanceof PayloadStore.Blob blob) {
+                blobs.add(blob);
+            }
+        }
+        return blobs;
+    }
+
+    /**
+     * Short description of the flavors, e.g. "Files, HTML".
+     */
+    public synchronized String describeKinds() {
+        StringJoiner kinds = new StringJoiner(", ");
+        if (files != null) {
+            kinds.add("Files");
+        }
+        for (Kind kind : offered) {
+            kinds.add(kind.getLabel());
+        }
+        return kinds.toString();
+    }
+
+    /**
+     * Transfers one heavy flavor from the clipboard and encodes it as bytes:
+     * HTML as UTF-8, RTF as is, images as PNG.
+     */
+    static byte[] read(Clipboard clipboard, Kind kind) throws IOException, UnsupportedFlavorException {
+        switch (kind) {
+            case HTML -> {
+                return ((String) clipboard.getData(DataFlavor.allHtmlFlavor)).getBytes(StandardCharsets.UTF_8);
+            }
+            case RTF -> {
+                try (InputStream in = (InputStream) clipboard.getData(RTF_FLAVOR)) {
+                    return in.readAllBytes();
+                }
+            }
+            default -> {
+                return encodePng(readImage(clipboard));
+            }
+        }
+    }
+
+    static Image readImage(Clipboard clipboard) throws IOException, UnsupportedFlavorException {
+        return (Image) clipboard.getData(DataFlavor.imageFlavor);
+    }
+
+    /**
+     * Turns stored bytes back into what the given flavor promises.
+     */
+    static Object decode(Kind kind, byte[] data) throws IOException {
+        return switch (kind) {
+            case HTML -> new String(data, StandardCharsets.UTF_8);
+            case RTF -> new ByteArrayInputStream(data);
+            case IMAGE -> ImageIO.read(new ByteArrayInputStream(data));
+        };
+    }
+
+    /**
+     * Flavors under which a loaded kind is offered when the item is put back on the clipboard.
+     */
+    static DataFlavor[] flavorsOf(Kind kind) {
+        return switch (kind) {
+            case HTML -> new DataFlavor[]{DataFlavor.allHtmlFlavor, DataFlavor.fragmentHtmlFlavor, DataFlavor.selectionHtmlFlavor};
+            case RTF -> new DataFlavor[]{RTF_FLAVOR};
+            case IMAGE -> new DataFlavor[]{DataFlavor.imageFlavor};
+        };
+    }
+
+    static byte[] encodePng(Image image) throws IOException {
+        BufferedImage buffered;
+        if (image instanceof BufferedImage b) {
+            buffered = b;
+        } else {
+            buffered = new BufferedImage(Math.max(1, image.getWidth(null)), Math.max(1, image.getHeight(null)), BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = buffered.createGraphics();
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+        }
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        if (!ImageIO.write(buffered, "png", png)) {
+            throw new IOException("No PNG writer available");
+        }
+        return png.toByteArray();
+    }
+
+    private static DataFlavor flavor(String mimeType) {
+        try {
+            return new DataFlavor(mimeType);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.permanentpaste.core;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+
+/**
+ * A single captured clipboard item together with its precomputed content hash,
+ * so duplicate checks never have to compare the full text.
+ *
+ * Small items keep their text in the heap. Large items are spilled to a compressed
+ * {@link PayloadStore.Blob}; the entry then only holds a short preview, the length and the
+ * hash, and {@link #getText()} streams the text back from disk.
+ *
+ * Items copied with more than plain text (rich text, an image, files) also carry a
+ * {@link FlavorRecord}. An image copied without any text has empty text.
+ *
+ * Every entry carries the {@link ContentClassifier} tags of its text, found when it was captured.
+ */
+public final class HistoryEntry {
+
+    //previews are single-line and capped, so rendering cost does not depend on item size
+    public static final int PREVIEW_LENGTH = 120;
+
+    private final String text;
+    private final PayloadStore.Blob blob;
+    private final String preview;
+    private final int length;
+    private final long hash;
+    private final long capturedAt;
+    //null for plain text
+    private final FlavorRecord flavors;
+    //ContentClassifier.Tag bits
+    private final int tags;
+
+    public HistoryEntry(String text, long capturedAt) {
+        this(text, ContentHash.of(text), capturedAt);
+    }
+
+    public HistoryEntry(String text, long hash, long capturedAt) {
+        this(text, hash, capturedAt, null);
+    }
+
+    /**
+     * Classifies the text; use the constructor taking tags when they are known already.
+     */
+    public HistoryEntry(String text, long hash, long capturedAt, FlavorRecord flavors) {
+        this(text, hash, capturedAt, flavors, ContentClassifier.classify(text));
+    }
+
+    /**
+     * @param tags The text's {@link ContentClassifier} tags
+     */
+    public HistoryEntry(String text, long hash, long capturedAt, FlavorRecord flavors, int tags) {
+        this(text, null, previewOf(text, flavors), text.length(), hash, capturedAt, flavors, tags);
+    }
+
+    private HistoryEntry(String text, PayloadStore.Blob blob, String preview, int length, long hash, long capturedAt,
+                         FlavorRecord flavors, int tags) {
+        this.text = text;
+        this.blob = blob;
+        this.preview = preview;
+        this.length = length;
+        this.hash = hash;
+        this.capturedAt = capturedAt;
+        this.flavors = flavors;
+        this.tags = tags;
+    }
+
+    /**
+     * Creates an entry whose text lives in the given blob.
+     */
+    public static HistoryEntry spilled(PayloadStore.Blob blob, String preview, int length, long hash, long capturedAt,
+                                       int tags) {
+        return new HistoryEntry(null, blob, preview, length, hash, capturedAt, null, tags);
+    }
+
+    /**
+     * Creates a spilled entry, taking the preview from the full text before it is dropped.
+     */
+    public static HistoryEntry spilled(PayloadStore.Blob blob, String text, long hash, long capturedAt, FlavorRecord flavors,
+                                       int tags) {
+        return new HistoryEntry(null, blob, previewOf(text, flavors), text.length(), hash, capturedAt, flavors, tags);
+    }
+
+    /**
+     * Preview of text that came with other flavors; an image without text is shown by its flavors.
+     */
+    private static String previewOf(String text, FlavorRecord flavors) {
+        if (flavors != null && text.isBlank()) {
+            return "[" + flavors.describeKinds() + "]";
+        }
+        return previewOf(text);
+    }
+
+    /**
+     * Single-line preview of at most {@link #PREVIEW_LENGTH} chars: line breaks and tabs become
+     * spaces and leading whitespace is skipped.
+     */
+    static String previewOf(String text) {
+        int start = 0;
+        while (start < text.length() && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        int end = Math.min(text.length(), start + PREVIEW_LENGTH);
+        StringBuilder preview = new StringBuilder(end - start + 3);
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            preview.append(c == '\n' || c == '\r' || c == '\t' ? ' ' : c);
+        }
+        if (end < text.length()) {
+            preview.append("...");
+        }
+        return preview.toString();
+    }
+
+    /**
+     * The same item captured again at a later time, sharing the stored text.
+     */
+    public HistoryEntry recapturedAt(long capturedAt) {
+        return new HistoryEntry(text, blob, preview, length, hash, capturedAt, flavors, tags);
+    }
+
+    /**
+     * Returns the full text, reading it from disk if the entry was spilled.
+     * Prefer {@link #getPreview()} for display.
+     */
+    public String getText() {
+        if (blob == null) {
+            return text;
+        }
+        try {
+            return blob.readText(length);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read spilled clipboard item", e);
+        }
+    }
+
+    /**
+     * Returns at most the first maxChars chars of the text. For a spilled entry only that
+     * much is decompressed.
+     */
+    public String getTextPrefix(int maxChars) {
+        if (blob == null) {
+            return text.length() > maxChars ? text.substring(0, maxChars) : text;
+        }
+        try (Reader reader = blob.openReader()) {
+            char[] buffer = new char[Math.min(maxChars, length)];
+            int read = 0;
+            int n;
+            while (read < buffer.length && (n = reader.read(buffer, read, buffer.length - read)) != -1) {
+                read += n;
+            }
+            return new String(buffer, 0, read);
+        } catch (IOException e) {
+            return preview;
+        }
+    }
+
+    /**
+     * Single-line, length-capped text for display. Never loads anything from disk.
+     */
+    public String getPreview() {
+        return preview;
+    }
+
+    /**
+     * @return The flavors captured besides plain text, or null if the item is plain text
+     */
+    public FlavorRecord getFlavors() {
+        return flavors;
+    }
+
+    /**
+     * @return The {@link ContentClassifier} tags of the text, as {@link ContentClassifier.Tag#bit()}s
+     */
+    public int getTags() {
+        return tags;
+    }
+
+    public boolean hasTag(ContentClassifier.Tag tag) {
+        return (tags & tag.bit()) != 0;
+    }
+
+    public boolean isSpilled() {
+        return blob != null;
+    }
+
+    /**
+     * @return The blob holding the text, or null if the text is in the heap
+     */
+    public PayloadStore.Blob getBlob() {
+        return blob;
+    }
+
+    /**
+     * @return Length of the full text in chars
+     */
+    public int getLength() {
+        return length;
+    }
+
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * @return Capture time in epoch milliseconds
+     */
+    public long getCapturedAt() {
+        return capturedAt;
+    }
+
+    @Override
+    public String toString() {
+        return preview;
+    }
+}
@@ -0,0 +1,39 @@
+package com.permanentpaste.core;
+
+/**
+ * Notified when entries enter or leave the clipboard history, so views can update
+ * incrementally instead of rebuilding from a snapshot.
+ * Called on the manager's history writer thread, never on the EDT by itself.
+ */
+public interface HistoryListener {
+
+    /**
+     * A new entry became the newest one.
+     */
+    void entryAdded(HistoryEntry entry);
+
+    /**
+     * An entry was evicted, expired or removed because it moved to the top.
+     */
+    void entryRemoved(HistoryEntry entry);
+
+    /**
+     * An entry moved from the in-memory hot tier to the cold tier on disk. It is still in the
+     * history, now as the newest cold entry.
+     */
+    default void entryDemoted(HistoryEntry entry) {
+    }
+
+    /**
+     * An entry of the cold tier was evicted or expired. It is dropped without reading it back
+     * from disk, so only its content hash is known.
+     */
+    default void coldEntryDropped(long hash) {
+    }
+
+    /**
+     * Entries saved by a previous run were listed in the cold tier, without reading them back.
+     */
+    default void coldEntriesRestored() {
+    }
+}
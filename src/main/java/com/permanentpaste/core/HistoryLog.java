@@ -0,0 +1,578 @@
+package com.permanentpaste.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only, segmented log that persists the clipboard history across restarts.
+ *
+ * Every capture is a single sequential append of an ADD record into a memory-mapped window
+ * of the active segment, and every eviction appends a small REMOVE record. Records carry a
+ * CRC32C over the header and over the payload, so a record torn by a crash is detected and
+ * cut off on the next start. Opening the log only maps the segments and walks the record
+ * headers to rebuild an in-memory offset index, picking up the content tags and text length
+ * stored at a known place in the payload; the text of an entry is only decoded when it is
+ * {@link #read} back.
+ *
+ * Once removed records make up most of the log, a background thread copies the live records
+ * of the sealed segments into one compacted segment and deletes the old ones.
+ */
+public class HistoryLog implements Closeable {
+
+    private static final int MAGIC = 0x50504C47; // "PPLG"
+    //content tags, text length in chars, then the text
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    //first record of a compacted segment, it supersedes every older segment
+    private static final byte BASE = 3;
+    //entry spilled to the payload store: text length, preview, blob name and content tags
+    private static final byte ADD_BLOB = 4;
+    private static final int TEXT_OFFSET = 1 + 4;
+
+    // magic, type, hash, capturedAt, payload length, payload crc, header crc
+    private static final int HEADER_SIZE = 4 + 1 + 8 + 8 + 4 + 4 + 4;
+    private static final long SEGMENT_SIZE = 16L * 1024 * 1024;
+    private static final int WINDOW_SIZE = 1024 * 1024;
+    private static final long COMPACTION_MIN_DEAD_BYTES = 1024 * 1024;
+
+    /**
+     * Location of a live ADD or ADD_BLOB record.
+     * @param textLength Length of the text in chars
+     */
+    private record RecordRef(byte type, long hash, long capturedAt, int tags, int textLength,
+                             Segment segment, long offset, int length) {
+        long size() {
+            return HEADER_SIZE + length;
+        }
+    }
+
+    /**
+     * A live entry as known from the offset index, without its text.
+     * @param length Length of the text in chars
+     * @param spilled Whether the text is in the payload store
+     */
+    public record Stored(long hash, long capturedAt, int tags, int length, boolean spilled) {
+    }
+
+    private static final class Segment {
+        final long seq;
+        final Path path;
+        final FileChannel channel;
+        long writePosition;
+        MappedByteBuffer window;
+        long windowStart;
+
+        Segment(long seq, Path path, FileChannel channel) {
+            this.seq = seq;
+            this.path = path;
+            this.channel = channel;
+        }
+    }
+
+    private final Path directory;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    //content hash -> record, in capture order
+    private final LinkedHashMap<Long, RecordRef> live = new LinkedHashMap<>();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "history-log-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Segment active;
+    private long liveBytes = 0L;
+    private long deadBytes = 0L;
+    private boolean compacting = false;
+
+    private HistoryLog(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Opens the log in the given directory, recovering from a torn tail if the app crashed.
+     */
+    public static HistoryLog open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        HistoryLog log = new HistoryLog(directory);
+        log.recover();
+        return log;
+    }
+
+    /**
+     * Appends the entry as the newest record.
+     */
+    public synchronized void append(HistoryEntry entry) throws IOException {
+        byte type = entry.isSpilled() ? ADD_BLOB : ADD;
+        byte[] payload = entry.isSpilled() ? blobReference(entry) : text(entry);
+        long offset = write(type, entry.getHash(), entry.getCapturedAt(), payload);
+        //remove first so a re-added entry moves to the end of the capture order
+        RecordRef previous = live.remove(entry.getHash());
+        live.put(entry.getHash(), new RecordRef(type, entry.getHash(), entry.getCapturedAt(), entry.getTags(),
+                entry.getLength(), active, offset, payload.length));
+        liveBytes += HEADER_SIZE + payload.length;
+        if (previous != null) {
+            liveBytes -= previous.size();
+            deadBytes += previous.size();
+        }
+    }
+
+    /**
+     * Marks the entry with the given content hash as removed.
+     */
+    public synchronized void remove(long hash) throws IOException {
+        RecordRef removed = live.remove(hash);
+        if (removed == null) {
+            return;
+        }
+        write(REMOVE, hash, 0L, new byte[0]);
+        liveBytes -= removed.size();
+        deadBytes += removed.size() + HEADER_SIZE;
+        maybeCompact();
+    }
+
+    /**
+     * Lists the newest live entries from the offset index, oldest first, without reading
+     * their payloads; see {@link #read}. Older entries that no longer fit are removed from the log.
+     * @param limit Maximum number of entries
+     */
+    public synchronized List<Stored> load(int limit) throws IOException {
+        List<RecordRef> refs = new ArrayList<>(live.values());
+        int firstKept = Math.max(0, refs.size() - limit);
+        for (RecordRef ref : refs.subList(0, firstKept)) {
+            remove(ref.hash());
+        }
+
+        List<Stored> entries = new ArrayList<>(refs.size() - firstKept);
+        for (RecordRef ref : refs.subList(firstKept, refs.size())) {
+            entries.add(new Stored(ref.hash(), ref.capturedAt(), ref.tags(), ref.textLength(), ref.type() == ADD_BLOB));
+        }
+        return entries;
+    }
+
+    /**
+     * Decodes a live entry from its record. The record is found through the offset index,
+     * so this works however often the log was compacted since it was loaded.
+     * @param payloads Store holding the text of spilled entries
+     * @return The entry, or null if the log holds no live record of it
+     */
+    public synchronized HistoryEntry read(long hash, PayloadStore payloads) throws IOException {
+        RecordRef ref = live.get(hash);
+        if (ref == null) {
+            return null;
+        }
+        ByteBuffer payload = readPayload(ref);
+        if (ref.type() == ADD_BLOB) {
+            return spilledEntry(payload, ref, payloads);
+        }
+        return new HistoryEntry(new String(payload.array(), TEXT_OFFSET, ref.length() - TEXT_OFFSET,
+                StandardCharsets.UTF_8), ref.hash(), ref.capturedAt(), null, ref.tags());
+    }
+
+    /**
+     * Reads the UTF-8 bytes a search matches against without decoding them: the text, or the
+     * preview of a spilled entry.
+     * @return The bytes, or null if the log holds no live record of the entry
+     */
+    public synchronized ByteBuffer readSearchable(long hash) throws IOException {
+        RecordRef ref = live.get(hash);
+        if (ref == null) {
+            return null;
+        }
+        ByteBuffer payload = readPayload(ref);
+        return ref.type() == ADD_BLOB ? payload.slice(8, payload.getInt(4)) : payload.position(TEXT_OFFSET).slice();
+    }
+
+    /**
+     * @return Names of the payload store blobs the live entries refer to
+     */
+    public synchronized List<String> blobNames() throws IOException {
+        List<String> names = new ArrayList<>();
+        for (RecordRef ref : live.values()) {
+            if (ref.type() == ADD_BLOB) {
+                ByteBuffer payload = readPayload(ref);
+                int previewLength = payload.getInt(4);
+                byte[] name = new byte[payload.getInt(8 + previewLength)];
+                payload.get(12 + previewLength, name);
+                names.add(new String(name, StandardCharsets.UTF_8));
+            }
+        }
+        return names;
+    }
+
+    public synchronized int size() {
+        return live.size();
+    }
+
+    /**
+     * Drops all records, used when the user turned history persistence off.
+     */
+    public synchronized void clear() throws IOException {
+        List<Segment> old = new ArrayList<>(segments.values());
+        roll(1);
+        //the BASE record makes a restart ignore the old segments even if deleting them fails
+        write(BASE, 0L, 0L, new byte[0]);
+        for (Segment segment : old) {
+            segments.remove(segment.seq);
+            deleteSegment(segment);
+        }
+        live.clear();
+        liveBytes = 0L;
+        deadBytes = 0L;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        compactor.shutdown();
+        for (Segment segment : segments.values()) {
+            if (segment.window != null) {
+                segment.window.force();
+            }
+            segment.channel.close();
+        }
+    }
+
+    private long write(byte type, long hash, long capturedAt, byte[] payload) throws IOException {
+        int recordSize = HEADER_SIZE + payload.length;
+        if (active.writePosition > 0 && active.writePosition + recordSize > SEGMENT_SIZE) {
+            roll(1);
+        }
+        MappedByteBuffer window = windowFor(active, recordSize);
+        long offset = active.writePosition;
+
+        int position = (int) (offset - active.windowStart);
+        window.put(position, header(type, hash, capturedAt, payload), 0, HEADER_SIZE);
+        window.put(position + HEADER_SIZE, payload);
+        active.writePosition += recordSize;
+        return offset;
+    }
+
+    /**
+     * Returns a mapped window of the segment with room for the next record, remapping
+     * (and growing the file) when the current window is full.
+     */
+    private static MappedByteBuffer windowFor(Segment segment, int recordSize) throws IOException {
+        if (segment.window == null || segment.writePosition + recordSize > segment.windowStart + segment.window.capacity()) {
+            if (segment.window != null) {
+                segment.window.force();
+            }
+            segment.windowStart = segment.writePosition;
+            segment.window = segment.channel.map(FileChannel.MapMode.READ_WRITE, segment.writePosition, Math.max(WINDOW_SIZE, recordSize));
+        }
+        return segment.window;
+    }
+
+    private static byte[] header(byte type, long hash, long capturedAt, byte[] payload) {
+        CRC32C payloadCrc = new CRC32C();
+        payloadCrc.update(payload);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).put(type).putLong(hash).putLong(capturedAt)
+                .putInt(payload.length).putInt((int) payloadCrc.getValue());
+        CRC32C headerCrc = new CRC32C();
+        headerCrc.update(header.array(), 0, HEADER_SIZE - 4);
+        header.putInt((int) headerCrc.getValue());
+        return header.array();
+    }
+
+    /**
+     * Seals the active segment and starts a new one, step sequence numbers later.
+     */
+    private void roll(int step) throws IOException {
+        if (active.window != null) {
+            active.window.force();
+            active.window = null;
+        }
+        active = createSegment(active.seq + step);
+    }
+
+    private Segment createSegment(long seq) throws IOException {
+        Path path = directory.resolve(segmentName(seq));
+        Segment segment = new Segment(seq, path, FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        segments.put(seq, segment);
+        return segment;
+    }
+
+    private static String segmentName(long seq) {
+        return String.format("segment-%08d.log", seq);
+    }
+
+    /**
+     * Rebuilds the offset index by walking the record headers of every segment in order.
+     * Payload checksums are verified for the last segment only, the one a crash can tear;
+     * older segments were sealed and flushed before a newer one was started.
+     */
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(path -> path.getFileName().toString().matches("segment-\\d{8}\\.log")).sorted().toList();
+        }
+        //a leftover from a compaction that did not finish
+        try (Stream<Path> list = Files.list(directory)) {
+            for (Path leftover : list.filter(path -> path.toString().endsWith(".compact")).toList()) {
+                Files.deleteIfExists(leftover);
+            }
+        }
+
+        for (int i = 0; i < files.size(); i++) {
+            Path path = files.get(i);
+            long seq = Long.parseLong(path.getFileName().toString().substring(8, 16));
+            Segment segment = new Segment(seq, path, FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            segments.put(seq, segment);
+            scan(segment, i == files.size() - 1);
+        }
+
+        if (segments.isEmpty()) {
+            active = createSegment(1L);
+        } else {
+            active = segments.lastEntry().getValue();
+        }
+    }
+
+    private void scan(Segment segment, boolean verifyPayloads) throws IOException {
+        long size = segment.channel.size();
+        MappedByteBuffer map = segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        int position = 0;
+
+        while (position + HEADER_SIZE <= size) {
+            if (map.getInt(position) != MAGIC) {
+                break;
+            }
+            CRC32C headerCrc = new CRC32C();
+            headerCrc.update(map.slice(position, HEADER_SIZE - 4));
+            if ((int) headerCrc.getValue() != map.getInt(position + HEADER_SIZE - 4)) {
+                break;
+            }
+            byte type = map.get(position + 4);
+            long hash = map.getLong(position + 5);
+            long capturedAt = map.getLong(position + 13);
+            int length = map.getInt(position + 21);
+            if (length < 0 || position + HEADER_SIZE + (long) length > size) {
+                break;
+            }
+            if (verifyPayloads) {
+                CRC32C payloadCrc = new CRC32C();
+                payloadCrc.update(map.slice(position + HEADER_SIZE, length));
+                if ((int) payloadCrc.getValue() != map.getInt(position + 25)) {
+                    break;
+                }
+            }
+
+            int payload = position + HEADER_SIZE;
+            int tags = 0;
+            int textLength = 0;
+            if (type == ADD) {
+                tags = map.get(payload) & 0xff;
+                textLength = map.getInt(payload + 1);
+            } else if (type == ADD_BLOB) {
+                //the tags are the last byte, after the length, preview and blob name
+                tags = map.get(payload + length - 1) & 0xff;
+                textLength = map.getInt(payload);
+            }
+            apply(type, hash, capturedAt, tags, textLength, segment, position, length);
+            position += HEADER_SIZE + length;
+        }
+
+        segment.writePosition = position;
+        if (position + 4 <= size && map.getInt(position) != 0) {
+            //torn tail: wipe the partial record so it can never be mistaken for a valid one
+            Log.info("History log: recovered torn record at " + segment.path.getFileName() + ":" + position);
+            long end = size;
+            if (position + HEADER_SIZE <= size) {
+                end = Math.min(size, position + HEADER_SIZE + Math.max(0L, map.getInt(position + 21)));
+            }
+            ByteBuffer zeros = ByteBuffer.allocate(WINDOW_SIZE);
+            for (long offset = position; offset < end; offset += WINDOW_SIZE) {
+                zeros.clear().limit((int) Math.min(WINDOW_SIZE, end - offset));
+                segment.channel.write(zeros, offset);
+            }
+        }
+    }
+
+    private void apply(byte type, long hash, long capturedAt, int tags, int textLength, Segment segment, long offset,
+                       int length) throws IOException {
+        if (type == BASE) {
+            //everything before this segment was compacted into it
+            for (Iterator<Segment> it = segments.headMap(segment.seq).values().iterator(); it.hasNext(); ) {
+                deleteSegment(it.next());
+                it.remove();
+            }
+            live.clear();
+            liveBytes = 0L;
+            deadBytes = 0L;
+            return;
+        }
+
+        RecordRef previous = live.remove(hash);
+        if (previous != null) {
+            liveBytes -= previous.size();
+            deadBytes += previous.size();
+        }
+        if (type == ADD || type == ADD_BLOB) {
+            live.put(hash, new RecordRef(type, hash, capturedAt, tags, textLength, segment, offset, length));
+            liveBytes += HEADER_SIZE + length;
+        } else {
+            deadBytes += HEADER_SIZE;
+        }
+    }
+
+    private void maybeCompact() throws IOException {
+        if (compacting || deadBytes < COMPACTION_MIN_DEAD_BYTES || deadBytes < liveBytes) {
+            return;
+        }
+        compacting = true;
+        //seal the active segment so the compactor only ever reads immutable files,
+        //and leave a free sequence number between them for the compacted segment
+        roll(2);
+        long compactedSeq = active.seq - 1;
+        List<Segment> sealed = new ArrayList<>(segments.headMap(active.seq).values());
+        List<RecordRef> toCopy = new ArrayList<>();
+        for (RecordRef ref : live.values()) {
+            if (ref.segment() != active) {
+                toCopy.add(ref);
+            }
+        }
+        compactor.execute(() -> compact(compactedSeq, sealed, toCopy));
+    }
+
+    /**
+     * Runs on the compactor thread: copies the live records byte for byte into a new
+     * segment and swaps it in under the lock.
+     */
+    private void compact(long seq, List<Segment> sealed, List<RecordRef> toCopy) {
+        Path target = directory.resolve(segmentName(seq));
+        Path temp = directory.resolve(segmentName(seq) + ".compact");
+        Map<RecordRef, Long> newOffsets = new LinkedHashMap<>();
+
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                out.write(ByteBuffer.wrap(header(BASE, 0L, 0L, new byte[0])));
+                for (RecordRef ref : toCopy) {
+                    newOffsets.put(ref, out.position());
+                    long copied = 0;
+                    while (copied < ref.size()) {
+                        copied += ref.segment().channel.transferTo(ref.offset() + copied, ref.size() - copied, out);
+                    }
+                }
+                out.force(true);
+            }
+
+            synchronized (this) {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+                Segment compacted = new Segment(seq, target, FileChannel.open(target, StandardOpenOption.READ, StandardOpenOption.WRITE));
+                compacted.writePosition = compacted.channel.size();
+                segments.put(seq, compacted);
+
+                //records removed while copying keep their REMOVE record in a newer segment
+                deadBytes = 0L;
+                for (Map.Entry<Long, RecordRef> entry : live.entrySet()) {
+                    Long offset = newOffsets.get(entry.getValue());
+                    if (offset != null) {
+                        RecordRef ref = entry.getValue();
+                        entry.setValue(new RecordRef(ref.type(), ref.hash(), ref.capturedAt(), ref.tags(), ref.textLength(),
+                                compacted, offset, ref.length()));
+                    }
+                }
+                for (RecordRef ref : newOffsets.keySet()) {
+                    if (live.get(ref.hash()) == null || live.get(ref.hash()).segment() != compacted) {
+                        deadBytes += ref.size();
+                    }
+                }
+
+                //from here on the BASE record makes the old segments irrelevant, so a
+                //failed delete is cleaned up on the next start
+                for (Segment old : sealed) {
+                    segments.remove(old.seq);
+                    deleteSegment(old);
+                }
+            }
+            Log.info("History log compacted: " + toCopy.size() + " live records kept.");
+        } catch (IOException e) {
+            Log.warn("History log compaction failed: " + e.getMessage());
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+            }
+        } finally {
+            synchronized (this) {
+                compacting = false;
+            }
+        }
+    }
+
+    /**
+     * Payload of an ADD_BLOB record: text length, preview, blob name and content tags.
+     */
+    private static byte[] blobReference(HistoryEntry entry) {
+        byte[] preview = entry.getPreview().getBytes(StandardCharsets.UTF_8);
+        byte[] name = entry.getBlob().getName().getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(13 + preview.length + name.length)
+                .putInt(entry.getLength())
+                .putInt(preview.length).put(preview)
+                .putInt(name.length).put(name)
+                .put((byte) entry.getTags())
+                .array();
+    }
+
+    /**
+     * Payload of an ADD record: content tags, text length in chars, then the text.
+     */
+    private static byte[] text(HistoryEntry entry) {
+        byte[] text = entry.getText().getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(TEXT_OFFSET + text.length)
+                .put((byte) entry.getTags())
+                .putInt(entry.getLength())
+                .put(text)
+                .array();
+    }
+
+    private static HistoryEntry spilledEntry(ByteBuffer payload, RecordRef ref, PayloadStore payloads) {
+        int length = payload.getInt();
+        byte[] preview = new byte[payload.getInt()];
+        payload.get(preview);
+        byte[] name = new byte[payload.getInt()];
+        payload.get(name);
+        return HistoryEntry.spilled(payloads.resolve(new String(name, StandardCharsets.UTF_8)),
+                new String(preview, StandardCharsets.UTF_8), length, ref.hash(), ref.capturedAt(), ref.tags());
+    }
+
+    private static ByteBuffer readPayload(RecordRef ref) throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(ref.length());
+        readFully(ref.segment().channel, payload, ref.offset() + HEADER_SIZE);
+        return payload.flip();
+    }
+
+    private static void deleteSegment(Segment segment) {
+        try {
+            segment.channel.close();
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            Log.warn("Could not delete history segment " + segment.path.getFileName() + ": " + e.getMessage());
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of history log");
+            }
+        }
+    }
+}
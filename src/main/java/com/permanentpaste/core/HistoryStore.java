@@ -0,0 +1,264 @@
+package com.permanentpaste.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Ring buffer holding the clipboard history, oldest first.
+ * Appending and evicting are O(1) (amortized), removing by id is O(log n), and the
+ * capacity can be changed while the app runs.
+ *
+ * Removed entries leave a tombstone behind; the slot array is twice the capacity so
+ * tombstones can pile up for a while before the live entries are compacted into a new array.
+ * Ids handed out by {@link #append} stay valid across compaction and resizing.
+ *
+ * Writers (in the app, the manager's history writer thread) are serialized with a lock, readers
+ * never take it: every write publishes a new immutable {@link View} of the ring and a
+ * reader copies the slots it describes. If a writer laps a slow reader, the overwritten
+ * oldest entries are simply left out of that reader's snapshot.
+ */
+public class HistoryStore<E> {
+
+    private static final class Slot<E> {
+        //position in the ring, used by readers to detect reused slots
+        final long seq;
+        //stable id, increasing with seq
+        final long id;
+        final E value;
+
+        Slot(long seq, long id, E value) {
+            this.seq = seq;
+            this.id = id;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Published state: the slot array, the position range [first, end) it holds and
+     * how many of those slots are live (not tombstones).
+     */
+    private record View(Slot<?>[] slots, long first, long end, int live, int capacity) {
+    }
+
+    private final Consumer<? super E> evictionListener;
+    private volatile View view;
+    private long nextId = 0L;
+
+    public HistoryStore(int capacity) {
+        this(capacity, item -> { });
+    }
+
+    /**
+     * @param evictionListener Called on the writing thread for every item pushed out by
+     *                         capacity, but not for items removed explicitly
+     */
+    public HistoryStore(int capacity, Consumer<? super E> evictionListener) {
+        this.evictionListener = evictionListener;
+        view = new View(new Slot<?>[slotCount(checkCapacity(capacity))], 0L, 0L, 0, capacity);
+    }
+
+    /**
+     * Adds an item as the newest entry, evicting the oldest one if the store is full.
+     * @return The id of the new entry, used by {@link #remove(long)}
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized long append(E item) {
+        Objects.requireNonNull(item, "item");
+        View current = view;
+        Slot<?>[] slots = current.slots();
+        long first = current.first();
+        long end = current.end();
+        int live = current.live();
+
+        if (live == current.capacity()) {
+            //skip tombstones, then push out the oldest live entry
+            first = skipTombstones(slots, first, end);
+            E evicted = (E) slots[index(first, slots.length)].value;
+            first++;
+            live--;
+            evictionListener.accept(evicted);
+        }
+        if (end - first == slots.length) {
+            //every free slot is taken by tombstones, compact into a fresh array
+            slots = compact(slots, first, end, slots.length);
+            end = first + live;
+        }
+
+        long id = nextId++;
+        slots[index(end, slots.length)] = new Slot<>(end, id, item);
+        view = new View(slots, first, end + 1, live + 1, current.capacity());
+        return id;
+    }
+
+    /**
+     * Removes the entry with the given id, e.g. when it is re-copied and moves to the top.
+     * @return The removed item, or null if it was already gone
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized E remove(long id) {
+        View current = view;
+        Slot<?>[] slots = current.slots();
+        Slot<?> slot = find(current, id);
+        if (slot == null || slot.value == null) {
+            return null;
+        }
+
+        slots[index(slot.seq, slots.length)] = new Slot<>(slot.seq, slot.id, null);
+        view = new View(slots, current.first(), current.end(), current.live() - 1, current.capacity());
+        return (E) slot.value;
+    }
+
+    /**
+     * @return The item with the given id, or null if it is gone
+     */
+    @SuppressWarnings("unchecked")
+    public E get(long id) {
+        Slot<?> slot = find(view, id);
+        return slot == null ? null : (E) slot.value;
+    }
+
+    /**
+     * Ids increase with position, so the occupied range is binary searched. Without the lock
+     * the view may be stale: a slot a writer reused since holds a newer position, and the
+     * older positions it replaced count as evicted.
+     */
+    private static Slot<?> find(View current, long id) {
+        Slot<?>[] slots = current.slots();
+        long low = current.first();
+        long high = current.end() - 1;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            Slot<?> candidate = slots[index(mid, slots.length)];
+            if (candidate == null || candidate.seq != mid || candidate.id < id) {
+                low = mid + 1;
+            } else if (candidate.id > id) {
+                high = mid - 1;
+            } else {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Changes the capacity, keeping the newest entries.
+     * @return The items that no longer fit, oldest first
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized List<E> setCapacity(int capacity) {
+        checkCapacity(capacity);
+        View current = view;
+        if (capacity == current.capacity()) {
+            return List.of();
+        }
+
+        Slot<?>[] slots = current.slots();
+        List<E> evicted = new ArrayList<>();
+        long first = current.first();
+        int live = current.live();
+        while (live > capacity) {
+            first = skipTombstones(slots, first, current.end());
+            E item = (E) slots[index(first, slots.length)].value;
+            evicted.add(item);
+            evictionListener.accept(item);
+            first++;
+            live--;
+        }
+
+        //the old array stays untouched for readers still copying from it
+        Slot<?>[] resized = compact(slots, first, current.end(), slotCount(capacity));
+        view = new View(resized, first, first + live, live, capacity);
+        return evicted;
+    }
+
+    public int capacity() {
+        return view.capacity();
+    }
+
+    public int size() {
+        return view.live();
+    }
+
+    /**
+     * @return The newest item, or null if the store is empty
+     */
+    @SuppressWarnings("unchecked")
+    public E latest() {
+        View current = view;
+        Slot<?>[] slots = current.slots();
+        for (long seq = current.end() - 1; seq >= current.first(); seq--) {
+            Slot<?> slot = slots[index(seq, slots.length)];
+            if (slot == null || slot.seq != seq) {
+                return null;
+            }
+            if (slot.value != null) {
+                return (E) slot.value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns an immutable copy of the history, oldest first. Never blocks writers.
+     */
+    @SuppressWarnings("unchecked")
+    public List<E> snapshot() {
+        View current = view;
+        Slot<?>[] slots = current.slots();
+        Object[] copy = new Object[current.live()];
+        int count = 0;
+
+        for (long seq = current.first(); seq < current.end() && count < copy.length; seq++) {
+            Slot<?> slot = slots[index(seq, slots.length)];
+            //a different sequence means the writer already reused this slot
+            if (slot != null && slot.seq == seq && slot.value != null) {
+                copy[count++] = slot.value;
+            }
+        }
+
+        List<Object> result = List.of(count == copy.length ? copy : Arrays.copyOf(copy, count));
+        return (List<E>) result;
+    }
+
+    /**
+     * Copies the live slots of [first, end) into a new array, renumbering their positions
+     * from first but keeping their ids.
+     */
+    private static Slot<?>[] compact(Slot<?>[] slots, long first, long end, int length) {
+        Slot<?>[] compacted = new Slot<?>[length];
+        long seq = first;
+        for (long old = first; old < end; old++) {
+            Slot<?> slot = slots[index(old, slots.length)];
+            if (slot.value != null) {
+                compacted[index(seq, length)] = new Slot<>(seq, slot.id, slot.value);
+                seq++;
+            }
+        }
+        return compacted;
+    }
+
+    private static long skipTombstones(Slot<?>[] slots, long first, long end) {
+        while (first < end && slots[index(first, slots.length)].value == null) {
+            first++;
+        }
+        return first;
+    }
+
+    private static int index(long seq, int length) {
+        return (int) (seq % length);
+    }
+
+    private static int slotCount(int capacity) {
+        return capacity * 2;
+    }
+
+    private static int checkCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("History capacity must be at least 1: " + capacity);
+        }
+        return capacity;
+    }
+}
@@ -0,0 +1,81 @@
+package com.permanentpaste.core;
+
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.Transferable;
+import java.awt.datatransfer.UnsupportedFlavorException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Clipboard contents backed by a history entry, offering every flavor the entry has:
+ * its text, and the rich text, image and file flavors captured with it.
+ * Nothing is materialized when the clipboard is set, only when another application actually
+ * requests a flavor; spilled text and flavors are then read back from disk.
+ */
+class HistoryTransferable implements Transferable {
+
+    private final HistoryEntry entry;
+    private final DataFlavor[] flavors;
+
+    HistoryTransferable(HistoryEntry entry) {
+        this.entry = entry;
+        List<DataFlavor> offered = new ArrayList<>();
+        FlavorRecord record = entry.getFlavors();
+        if (record != null) {
+            //richest first, targets take the first flavor they understand
+            for (FlavorRecord.Kind kind : record.loadedKinds()) {
+                offered.addAll(List.of(FlavorRecord.flavorsOf(kind)));
+            }
+            if (record.getFiles() != null) {
+                offered.add(DataFlavor.javaFileListFlavor);
+            }
+        }
+        if (entry.getLength() > 0) {
+            offered.add(DataFlavor.stringFlavor);
+        }
+        this.flavors = offered.toArray(new DataFlavor[0]);
+    }
+
+    @Override
+    public DataFlavor[] getTransferDataFlavors() {
+        return flavors.clone();
+    }
+
+    @Override
+    public boolean isDataFlavorSupported(DataFlavor flavor) {
+        for (DataFlavor offered : flavors) {
+            if (offered.equals(flavor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Object getTransferData(DataFlavor flavor) throws UnsupportedFlavorException, IOException {
+        if (!isDataFlavorSupported(flavor)) {
+            throw new UnsupportedFlavorException(flavor);
+        }
+        if (DataFlavor.stringFlavor.equals(flavor)) {
+            try {
+                return entry.getText();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        FlavorRecord record = entry.getFlavors();
+        if (DataFlavor.javaFileListFlavor.equals(flavor)) {
+            return record.getFiles();
+        }
+        for (FlavorRecord.Kind kind : FlavorRecord.Kind.values()) {
+            for (DataFlavor kindFlavor : FlavorRecord.flavorsOf(kind)) {
+                if (kindFlavor.equals(flavor)) {
+                    return FlavorRecord.decode(kind, record.getBytes(kind));
+                }
+            }
+        }
+        throw new UnsupportedFlavorException(flavor);
+    }
+}
@@ -0,0 +1,153 @@
+package com.permanentpaste.core;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * The one thread that changes a {@link ClipboardManager}'s history. Other threads post
+ * commands, which run one at a time in the order they were posted, so the history needs no
+ * locking between its writers; readers use the snapshots the history publishes.
+ *
+ * Posting never blocks: commands go into an unbounded linked queue where a producer swaps
+ * itself in as the tail with a single atomic exchange and then links the previous tail to
+ * it. The writer is the only consumer and parks while the queue is empty. A command that
+ * throws is logged, the writer carries on with the next one.
+ */
+final class HistoryWriter implements Executor {
+
+    private static final class Node {
+        Runnable command;
+        volatile Node next;
+
+        Node(Runnable command) {
+            this.command = command;
+        }
+    }
+
+    private final AtomicReference<Node> tail;
+    //only touched by the writer thread; its command has run
+    private Node head;
+    private final Thread thread;
+    private volatile boolean writerWaiting = false;
+    private volatile boolean closed = false;
+
+    HistoryWriter(String threadName) {
+        head = new Node(null);
+        tail = new AtomicReference<>(head);
+        thread = new Thread(this::drainLoop, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Posts a command. Commands posted after {@link #close()} are dropped.
+     */
+    @Override
+    public void execute(Runnable command) {
+        if (closed) {
+            Log.debug("History writer closed, command dropped");
+            return;
+        }
+        Node node = new Node(command);
+        //between the exchange and the link the writer sees the queue end at the previous tail
+        tail.getAndSet(node).next = node;
+        if (writerWaiting) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Runs a command on the writer and waits for its result. On the writer thread itself, or
+     * once the writer is closed, the command runs right away on the calling thread.
+     */
+    <T> T call(Supplier<T> command) {
+        if (isWriterThread() || closed) {
+            return command.get();
+        }
+        FutureTask<T> task = new FutureTask<>(command::get);
+        execute(task);
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for the history writer", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    void runAndWait(Runnable command) {
+        call(() -> {
+            command.run();
+            return null;
+        });
+    }
+
+    boolean isWriterThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Runs the commands posted so far, then stops the writer thread.
+     */
+    void close() {
+        if (closed) {
+            return;
+        }
+        execute(() -> closed = true);
+        if (isWriterThread()) {
+            return;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Node poll() {
+        Node next = head.next;
+        if (next == null) {
+            return null;
+        }
+        head = next;
+        return next;
+    }
+
+    private void drainLoop() {
+        while (true) {
+            Node node;
+            while ((node = poll()) != null) {
+                Runnable command = node.command;
+                //the node stays as the queue's head, it must not keep the command alive
+                node.command = null;
+                try {
+                    command.run();
+                } catch (RuntimeException | Error e) {
+                    //the history must not lose its only writer
+                    Log.error("History command failed", e);
+                }
+            }
+            //what was posted while closing has run too
+            if (closed) {
+                return;
+            }
+            writerWaiting = true;
+            //a command may have been linked between the last poll and the flag
+            if (head.next == null) {
+                LockSupport.park(this);
+            }
+            writerWaiting = false;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.permanentpaste.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed store for captured images, kept on disk as PNG.
+ *
+ * An image is stored under the SHA-256 of its PNG bytes, so copying the same image again
+ * stores nothing new, only another reference. History entries hold a {@link Ref} of a few
+ * dozen bytes instead of pixels; the PNG is read back when the image is pasted or a
+ * thumbnail is made. A file is deleted when its last reference is released.
+ */
+public class ImageStore {
+
+    //PNG signature, IHDR length and type come before the width
+    private static final int PNG_WIDTH_OFFSET = 16;
+
+    /**
+     * Reference to one stored image. Holds no pixel data.
+     */
+    public static final class Ref {
+        private final String key;
+        private final int width;
+        private final int height;
+        private final Path path;
+
+        private Ref(String key, int width, int height, Path path) {
+            this.key = key;
+            this.width = width;
+            this.height = height;
+            this.path = path;
+        }
+
+        /**
+         * @return Hex SHA-256 of the PNG bytes
+         */
+        public String getKey() {
+            return key;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public byte[] readBytes() throws IOException {
+            return Files.readAllBytes(path);
+        }
+    }
+
+    private final Path directory;
+    //key -> number of entries referencing it
+    private final Map<String, Integer> references = new HashMap<>();
+
+    public ImageStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Stores a PNG, or adds a reference if the same bytes are already stored.
+     */
+    public Ref put(byte[] png) throws IOException {
+        if (png.length < PNG_WIDTH_OFFSET + 8) {
+            throw new IOException("Not a PNG image");
+        }
+        String key = keyOf(png);
+        ByteBuffer header = ByteBuffer.wrap(png, PNG_WIDTH_OFFSET, 8);
+        Ref ref = new Ref(key, header.getInt(), header.getInt(), directory.resolve(key + ".png"));
+
+        synchronized (this) {
+            Integer count = references.get(key);
+            if (count == null || !Files.isRegularFile(ref.path)) {
+                Files.createDirectories(directory);
+                //write and rename, so a crash never leaves a truncated file under a valid key
+                Path temporary = directory.resolve(key + ".tmp");
+                Files.write(temporary, png);
+                Files.move(temporary, ref.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            references.put(key, count == null ? 1 : count + 1);
+        }
+        return ref;
+    }
+
+    /**
+     * Drops one reference, deleting the file once nothing references it.
+     */
+    public synchronized void release(Ref ref) {
+        Integer count = references.get(ref.key);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            references.put(ref.key, count - 1);
+            return;
+        }
+        references.remove(ref.key);
+        try {
+            Files.deleteIfExists(ref.path);
+        } catch (IOException e) {
+            Log.warn("Could not delete image " + ref.key + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return Number of distinct images stored
+     */
+    public synchronized int size() {
+        return references.size();
+    }
+
+    /**
+     * Deletes every stored image, e.g. leftovers of a previous run.
+     */
+    public synchronized void clear() {
+        references.clear();
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            Log.warn("Could not clean up images: " + e.getMessage());
+        }
+    }
+
+    private static String keyOf(byte[] png) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(png));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
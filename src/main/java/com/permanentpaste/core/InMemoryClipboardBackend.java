@@ -0,0 +1,185 @@
+package com.permanentpaste.core;
+
+import java.awt.EventQueue;
+import java.awt.datatransfer.Clipboard;
+import java.awt.datatransfer.ClipboardOwner;
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.FlavorEvent;
+import java.awt.datatransfer.FlavorListener;
+import java.awt.datatransfer.StringSelection;
+import java.awt.datatransfer.Transferable;
+import java.awt.datatransfer.UnsupportedFlavorException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A clipboard that only exists in this process, for driving capture, lock and restore without
+ * a display, e.g. from load tests.
+ *
+ * It behaves like the system clipboard as AWT presents it: the previous owner loses ownership
+ * and flavor listeners are notified on the event dispatch thread, only when the flavor set
+ * changed, and text can be read as a byte stream too. On top of that it simulates what makes
+ * real clipboards hard: other applications changing the contents, slow transfers and the
+ * clipboard failing to open.
+ */
+public class InMemoryClipboardBackend implements ClipboardBackend {
+
+    private final SimulatedClipboard clipboard = new SimulatedClipboard();
+    private volatile long transferDelayNanos = 0L;
+    private volatile double failureRate = 0.0;
+    private volatile boolean notifyEveryChange = false;
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicLong transfers = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    @Override
+    public Clipboard getClipboard() {
+        return clipboard;
+    }
+
+    /**
+     * Another application takes the clipboard with the given contents. Never fails.
+     */
+    public void copy(Transferable contents) {
+        changes.incrementAndGet();
+        clipboard.change(contents, null);
+    }
+
+    public void copy(String text) {
+        copy(new StringSelection(text));
+    }
+
+    /**
+     * @param delayNanos How long each data transfer takes, on the reading thread
+     */
+    public void setTransferDelay(long delayNanos) {
+        transferDelayNanos = delayNanos;
+    }
+
+    /**
+     * @param rate Share of the app's accesses, 0 to 1, that fail as if another application had the clipboard open
+     */
+    public void setFailureRate(double rate) {
+        failureRate = rate;
+    }
+
+    /**
+     * @param notify True to notify flavor listeners of every change, as if the platform reported
+     *               each new owner, instead of only of flavor set changes
+     */
+    public void setNotifyEveryChange(boolean notify) {
+        notifyEveryChange = notify;
+    }
+
+    /**
+     * @return Number of times the contents were set, by {@link #copy} or by the app
+     */
+    public long getChangeCount() {
+        return changes.get();
+    }
+
+    /**
+     * @return Number of data transfers, i.e. successful {@link Clipboard#getData} calls
+     */
+    public long getTransferCount() {
+        return transfers.get();
+    }
+
+    /**
+     * @return Number of simulated failures
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    private void maybeFail() {
+        double rate = failureRate;
+        if (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate) {
+            failures.incrementAndGet();
+            throw new IllegalStateException("cannot open system clipboard");
+        }
+    }
+
+    private final class SimulatedClipboard extends Clipboard {
+
+        SimulatedClipboard() {
+            super("in-memory");
+        }
+
+        @Override
+        public void setContents(Transferable contents, ClipboardOwner owner) {
+            maybeFail();
+            changes.incrementAndGet();
+            change(contents, owner);
+        }
+
+        synchronized void change(Transferable contents, ClipboardOwner owner) {
+            Set<DataFlavor> before = flavorsOf(super.getContents(null));
+            //notifies the previous owner and, if the flavors changed, the listeners
+            super.setContents(contents, owner);
+            if (notifyEveryChange && before.equals(flavorsOf(contents))) {
+                FlavorEvent event = new FlavorEvent(this);
+                for (FlavorListener listener : getFlavorListeners()) {
+                    EventQueue.invokeLater(() -> listener.flavorsChanged(event));
+                }
+            }
+        }
+
+        @Override
+        public Transferable getContents(Object requestor) {
+            //the clipboard reads its own contents while setting them, that must not fail
+            if (!Thread.holdsLock(this)) {
+                maybeFail();
+            }
+            return super.getContents(requestor);
+        }
+
+        @Override
+        public Object getData(DataFlavor flavor) throws UnsupportedFlavorException, IOException {
+            Transferable contents = getContents(null);
+            if (contents == null) {
+                throw new UnsupportedFlavorException(flavor);
+            }
+            long delay = transferDelayNanos;
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            Object data;
+            //the platform converts text to any charset; a plain Transferable does not
+            if (!contents.isDataFlavorSupported(flavor) && isTextStream(flavor)
+                    && contents.isDataFlavorSupported(DataFlavor.stringFlavor)) {
+                String text = (String) contents.getTransferData(DataFlavor.stringFlavor);
+                data = new ByteArrayInputStream(text.getBytes(charsetOf(flavor)));
+            } else {
+                data = contents.getTransferData(flavor);
+            }
+            transfers.incrementAndGet();
+            return data;
+        }
+
+        private static Set<DataFlavor> flavorsOf(Transferable contents) {
+            return contents == null ? Set.of() : new HashSet<>(Arrays.asList(contents.getTransferDataFlavors()));
+        }
+
+        private static boolean isTextStream(DataFlavor flavor) {
+            return flavor.isMimeTypeEqual("text/plain") && flavor.isRepresentationClassInputStream()
+                    && flavor.getParameter("charset") != null;
+        }
+
+        private static Charset charsetOf(DataFlavor flavor) {
+            try {
+                return Charset.forName(flavor.getParameter("charset"));
+            } catch (IllegalArgumentException e) {
+                return StandardCharsets.UTF_16;
+            }
+        }
+    }
+}
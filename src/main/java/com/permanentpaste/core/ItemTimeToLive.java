@@ -0,0 +1,28 @@
+package com.permanentpaste.core;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Time to live of single items, e.g. a password that should not stay in the history.
+ * The time counts from the last capture, so copying the item again restarts it.
+ * Only items that have a time to live take up memory here.
+ */
+public class ItemTimeToLive implements EvictionPolicy {
+
+    private final Map<Long, Long> timeToLiveByHash = new ConcurrentHashMap<>();
+
+    public void set(long hash, long timeToLiveMillis) {
+        timeToLiveByHash.put(hash, timeToLiveMillis);
+    }
+
+    public void clear(long hash) {
+        timeToLiveByHash.remove(hash);
+    }
+
+    @Override
+    public long expiresAt(long hash, long capturedAt) {
+        Long timeToLive = timeToLiveByHash.get(hash);
+        return timeToLive == null ? NEVER : capturedAt + timeToLive;
+    }
+}
@@ -0,0 +1,170 @@
+package com.permanentpaste.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder events for the clipboard, popup and paste paths.
+ *
+ * Events are created, begun and committed on the hot paths; when no recording is running,
+ * or the event is disabled or under its threshold, {@code shouldCommit()} is false and the
+ * fields are never filled in. None of them records a stack trace. Settings for a recording are
+ * shipped in {@code permanentpaste.jfc}, to be combined with the JDK's default settings.
+ */
+public final class JfrEvents {
+
+    private static final String CATEGORY = "PermanentPaste";
+
+    private JfrEvents() {
+    }
+
+    @Name("permanentpaste.ClipboardPoll")
+    @Label("Clipboard Poll")
+    @Description("One check of the system clipboard by the monitor")
+    @Category({CATEGORY, "Clipboard"})
+    @StackTrace(false)
+    @Threshold("1 ms")
+    public static class ClipboardPoll extends Event {
+        @Label("Monitoring Mode")
+        public String mode;
+        @Label("Flavor")
+        public String flavor;
+        @Label("Changed")
+        @Description("The cheap change token differed, so the payload was read")
+        public boolean changed;
+        @Label("Captured")
+        public boolean captured;
+        @Label("Payload Length")
+        @Description("In chars")
+        public long payloadChars;
+        @Label("Success")
+        public boolean success;
+    }
+
+    @Name("permanentpaste.ClipboardCapture")
+    @Label("Clipboard Capture")
+    @Description("Text recorded into the history")
+    @Category({CATEGORY, "Clipboard"})
+    @StackTrace(false)
+    public static class ClipboardCapture extends Event {
+        @Label("Payload Length")
+        @Description("In chars")
+        public long payloadChars;
+        @Label("Added")
+        @Description("False if the text was the same as the last captured item")
+        public boolean added;
+        @Label("Duplicate")
+        @Description("The text was already in history and was moved to the top")
+        public boolean duplicate;
+        @Label("Spilled")
+        public boolean spilled;
+        @Label("Content Tags")
+        public String tags;
+        @Label("Skipped")
+        @Description("A likely secret the sensitive item policy kept out of the history")
+        public boolean skipped;
+        @Label("History Size")
+        public int historySize;
+    }
+
+    @Name("permanentpaste.ClipboardLock")
+    @Label("Clipboard Lock")
+    @Description("Taking clipboard ownership for the popup")
+    @Category({CATEGORY, "Clipboard"})
+    @StackTrace(false)
+    public static class ClipboardLockAcquire extends Event {
+        @Label("Original Flavor")
+        @Description("Text flavor of the contents that were locked away, if any")
+        public String flavor;
+        @Label("Attempt")
+        @Description("Locks taken since startup, one per hotkey")
+        public long attempt;
+        @Label("Success")
+        public boolean success;
+    }
+
+    @Name("permanentpaste.ClipboardRestore")
+    @Label("Clipboard Restore")
+    @Description("An item placed back on the clipboard")
+    @Category({CATEGORY, "Clipboard"})
+    @StackTrace(false)
+    public static class ClipboardRestore extends Event {
+        @Label("Payload Length")
+        @Description("In chars")
+        public long payloadChars;
+        @Label("Flavor")
+        public String flavor;
+        @Label("Lazy")
+        @Description("The text is only read from disk when another application asks for it")
+        public boolean lazy;
+        @Label("Success")
+        public boolean success;
+    }
+
+    @Name("permanentpaste.Paste")
+    @Label("Paste")
+    @Description("Readiness waits and Ctrl+V sent by the paste executor")
+    @Category({CATEGORY, "Paste"})
+    @StackTrace(false)
+    public static class Paste extends Event {
+        @Label("Clipboard Wait")
+        @Timespan(Timespan.NANOSECONDS)
+        public long clipboardNanos;
+        @Label("Focus Wait")
+        @Timespan(Timespan.NANOSECONDS)
+        public long focusNanos;
+        @Label("Modifier Wait")
+        @Timespan(Timespan.NANOSECONDS)
+        public long modifiersNanos;
+        @Label("Readiness Checks")
+        @Description("How many times the readiness conditions were checked before Ctrl+V")
+        public int attempts;
+        @Label("Success")
+        public boolean success;
+    }
+
+    @Name("permanentpaste.PopupShow")
+    @Label("Popup Show")
+    @Description("Showing the history popup, on the EDT")
+    @Category({CATEGORY, "UI"})
+    @StackTrace(false)
+    public static class PopupShow extends Event {
+        @Label("Since Hotkey")
+        @Timespan(Timespan.NANOSECONDS)
+        public long sinceHotkeyNanos;
+        @Label("Rows")
+        public int rows;
+        @Label("Pinned")
+        @Description("The clipboard content was not in history and is shown on top")
+        public boolean pinned;
+    }
+
+    @Name("permanentpaste.PopupPrepare")
+    @Label("Popup Prepare")
+    @Description("Getting the popup ready to show, on the EDT")
+    @Category({CATEGORY, "UI"})
+    @StackTrace(false)
+    public static class PopupPrepare extends Event {
+        @Label("Repacked")
+        @Description("The row count changed, so the window was laid out again")
+        public boolean repacked;
+    }
+
+    @Name("permanentpaste.PopupFilter")
+    @Label("Popup Filter")
+    @Description("Filtering the popup list while typing, on the EDT")
+    @Category({CATEGORY, "UI"})
+    @StackTrace(false)
+    public static class PopupFilter extends Event {
+        @Label("Query Length")
+        public int queryLength;
+        @Label("Results")
+        public int results;
+    }
+}
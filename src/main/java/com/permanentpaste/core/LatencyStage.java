@@ -0,0 +1,74 @@
+package com.permanentpaste.core;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Stages of the hotkey, popup and paste path, each with its own {@link LatencyHistogram}.
+ * Recording is cheap enough to stay on in normal use; {@link #report()} summarizes all stages,
+ * e.g. at exit or from the settings window.
+ */
+public enum LatencyStage {
+
+    /** Last key press of the hotkey until the gesture worker handles it */
+    GESTURE("gesture"),
+    /** Taking the clipboard lock */
+    CLIPBOARD_LOCK("clipboard lock"),
+    /** Last key press of the hotkey until the popup is visible */
+    POPUP_VISIBLE("popup visible"),
+    /** Placing the chosen item on the clipboard */
+    PASTE_CLIPBOARD("paste clipboard set"),
+    /** Waiting for clipboard, focus and modifier keys before Ctrl+V */
+    PASTE_READY("paste ready"),
+    /** Item chosen in the popup until Ctrl+V has been sent */
+    PASTE_DISPATCH("paste dispatched");
+
+    private final String label;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    LatencyStage(String label) {
+        this.label = label;
+    }
+
+    public void record(long nanos) {
+        histogram.record(nanos);
+    }
+
+    /**
+     * Records the time since the given {@link System#nanoTime()} value.
+     */
+    public void recordSince(long startNanos) {
+        histogram.record(System.nanoTime() - startNanos);
+    }
+
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * Percentiles of every stage, in milliseconds, one line per stage.
+     */
+    public static String report() {
+        StringBuilder report = new StringBuilder(String.format(Locale.ROOT,
+                "%-22s %8s %9s %9s %9s %9s %9s%n", "Latency (ms)", "count", "p50", "p90", "p99", "p99.9", "max"));
+        for (LatencyStage stage : values()) {
+            LatencyHistogram h = stage.histogram;
+            report.append(String.format(Locale.ROOT, "%-22s %8d %9.3f %9.3f %9.3f %9.3f %9.3f%n",
+                    stage.label, h.getCount(),
+                    h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(90) / 1e6,
+                    h.getValueAtPercentile(99) / 1e6, h.getValueAtPercentile(99.9) / 1e6, h.getMax() / 1e6));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Writes {@link #report()} to the given file, replacing an older report.
+     */
+    public static void writeReport(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, report(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,352 @@
+package com.permanentpaste.core;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Application log that never blocks the thread that logs.
+ *
+ * A log call only puts a record into a bounded lock-free ring buffer; a background writer
+ * formats the records and writes them to the console and, once {@link #openFile(Path)} was
+ * called, to a rotating log file. When the buffer is full the record is dropped and counted,
+ * the writer reports how many were lost.
+ *
+ * Messages given as a {@link Supplier} are built on the writer thread, and only if their level
+ * is enabled, so they must only capture values that do not change afterwards. Clipboard
+ * contents go through {@link #payload(CharSequence)}, which by default logs only their length
+ * and hash.
+ */
+public final class Log {
+
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR;
+
+        private final String padded = String.format(Locale.ROOT, "%-5s", name());
+    }
+
+    private static final int CAPACITY = 4096;
+    private static final int MASK = CAPACITY - 1;
+    private static final long MAX_FILE_BYTES = 1024 * 1024;
+    private static final int MAX_FILES = 3;
+    private static final String FILE_NAME = "permanentpaste.log";
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss.SSS", Locale.ROOT)
+            .withZone(ZoneId.systemDefault());
+
+    private record Entry(Level level, long millis, String thread, Object message, Throwable error) {
+    }
+
+    //multi-producer, single-consumer ring: a slot may be written when its sequence equals the
+    //producer position, and read when it equals the consumer position + 1
+    private static final Entry[] slots = new Entry[CAPACITY];
+    private static final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+    private static final AtomicLong tail = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+    //only touched by the writer thread, or by close() once the writer has stopped
+    private static long head = 0;
+
+    private static volatile Level level = Level.INFO;
+    private static volatile boolean redactPayloads = true;
+    private static volatile boolean writerWaiting = false;
+    private static volatile boolean closed = false;
+
+    private static Path directory;
+    private static BufferedWriter file;
+    private static long fileBytes;
+
+    private static final Thread writer;
+    //console lines of one drain, printed together so a burst is not one write call per line
+    private static final StringBuilder out = new StringBuilder();
+    private static final StringBuilder err = new StringBuilder();
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            sequences.set(i, i);
+        }
+        writer = new Thread(Log::drainLoop, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private Log() {
+    }
+
+    public static void debug(String message) {
+        log(Level.DEBUG, message, null);
+    }
+
+    public static void debug(Supplier<String> message) {
+        log(Level.DEBUG, message, null);
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message, null);
+    }
+
+    public static void info(Supplier<String> message) {
+        log(Level.INFO, message, null);
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message, null);
+    }
+
+    public static void warn(String message, Throwable error) {
+        log(Level.WARN, message, error);
+    }
+
+    public static void error(String message) {
+        log(Level.ERROR, message, null);
+    }
+
+    public static void error(String message, Throwable error) {
+        log(Level.ERROR, message, error);
+    }
+
+    public static boolean isEnabled(Level messageLevel) {
+        return messageLevel.compareTo(level) >= 0;
+    }
+
+    public static void setLevel(Level minimumLevel) {
+        level = minimumLevel;
+    }
+
+    /**
+     * @param redact If false, {@link #payload(CharSequence)} logs clipboard contents in full
+     */
+    public static void setRedactPayloads(boolean redact) {
+        redactPayloads = redact;
+    }
+
+    /**
+     * How clipboard contents appear in the log: their length and content hash, or the full text
+     * if redaction was turned off. Call it inside a {@link Supplier} message, so the hash is
+     * computed on the writer thread.
+     */
+    public static String payload(CharSequence text) {
+        if (text == null) {
+            return "<null>";
+        }
+        if (!redactPayloads) {
+            return text.toString();
+        }
+        return "<" + text.length() + " chars #" + Long.toHexString(ContentHash.of(text)) + ">";
+    }
+
+    /**
+     * Also writes the log to {@value #FILE_NAME} in the given directory, keeping up to
+     * {@value #MAX_FILES} files of about 1 MB each.
+     */
+    public static void openFile(Path logDirectory) throws IOException {
+        Files.createDirectories(logDirectory);
+        Path path = logDirectory.resolve(FILE_NAME);
+        BufferedWriter opened = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        synchronized (Log.class) {
+            closeFile();
+            directory = logDirectory;
+            fileBytes = Files.size(path);
+            file = opened;
+        }
+    }
+
+    /**
+     * Writes out everything logged so far and closes the log file, e.g. from a shutdown hook.
+     * Later messages are no longer written.
+     */
+    public static void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (Log.class) {
+            closeFile();
+        }
+    }
+
+    private static void log(Level messageLevel, Object message, Throwable error) {
+        if (!isEnabled(messageLevel)) {
+            return;
+        }
+        Entry entry = new Entry(messageLevel, System.currentTimeMillis(), Thread.currentThread().getName(), message, error);
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & MASK;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots[index] = entry;
+                    sequences.lazySet(index, position + 1);
+                    break;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                //full, the writer is behind
+                dropped.incrementAndGet();
+                return;
+            } else {
+                position = tail.get();
+            }
+        }
+        if (writerWaiting) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private static Entry poll() {
+        int index = (int) head & MASK;
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        Entry entry = slots[index];
+        slots[index] = null;
+        sequences.lazySet(index, head + CAPACITY);
+        head++;
+        return entry;
+    }
+
+    private static void drainLoop() {
+        long reportedDrops = 0;
+        while (true) {
+            boolean stopping = closed;
+            Entry entry;
+            int written = 0;
+            while ((entry = poll()) != null) {
+                write(entry);
+                written++;
+            }
+            long drops = dropped.get();
+            if (drops != reportedDrops) {
+                write(new Entry(Level.WARN, System.currentTimeMillis(), "log-writer",
+                        (drops - reportedDrops) + " log messages dropped, the log buffer was full", null));
+                reportedDrops = drops;
+                written++;
+            }
+            if (written > 0) {
+                flushConsole();
+                flushFile();
+            }
+            if (stopping) {
+                return;
+            }
+            writerWaiting = true;
+            //a record may have been published between the last poll and the flag
+            if (sequences.get((int) head & MASK) != head + 1 && !closed) {
+                LockSupport.parkNanos(100_000_000L);
+            }
+            writerWaiting = false;
+        }
+    }
+
+    private static void write(Entry entry) {
+        String message;
+        try {
+            message = entry.message() instanceof Supplier<?> supplier
+                    ? String.valueOf(supplier.get()) : String.valueOf(entry.message());
+        } catch (RuntimeException e) {
+            message = "Could not build log message: " + e;
+        }
+        StringBuilder line = new StringBuilder(message.length() + 48)
+                .append(TIME.format(Instant.ofEpochMilli(entry.millis()))).append(' ')
+                .append(entry.level().padded).append(" [")
+                .append(entry.thread()).append("] ").append(message);
+        if (entry.error() != null) {
+            line.append(": ").append(entry.error());
+        }
+        String text = line.toString();
+
+        (entry.level().compareTo(Level.WARN) >= 0 ? err : out).append(text).append(System.lineSeparator());
+        synchronized (Log.class) {
+            writeFile(text);
+        }
+    }
+
+    private static void flushConsole() {
+        print(System.out, out);
+        print(System.err, err);
+    }
+
+    private static void print(PrintStream console, StringBuilder lines) {
+        if (!lines.isEmpty()) {
+            console.print(lines);
+            console.flush();
+            lines.setLength(0);
+        }
+    }
+
+    private static void writeFile(String text) {
+        if (file == null) {
+            return;
+        }
+        try {
+            file.write(text);
+            file.newLine();
+            fileBytes += text.length() + 1;
+            if (fileBytes >= MAX_FILE_BYTES) {
+                rotate();
+            }
+        } catch (IOException e) {
+            System.err.println("Could not write log file, logging to the console only: " + e.getMessage());
+            closeFile();
+        }
+    }
+
+    private static void flushFile() {
+        synchronized (Log.class) {
+            if (file == null) {
+                return;
+            }
+            try {
+                file.flush();
+            } catch (IOException e) {
+                System.err.println("Could not write log file, logging to the console only: " + e.getMessage());
+                closeFile();
+            }
+        }
+    }
+
+    /**
+     * permanentpaste.log becomes permanentpaste.log.1, .1 becomes .2 and so on; the oldest is deleted.
+     */
+    private static void rotate() throws IOException {
+        file.close();
+        file = null;
+        for (int i = MAX_FILES - 1; i >= 1; i--) {
+            Path from = directory.resolve(i == 1 ? FILE_NAME : FILE_NAME + "." + (i - 1));
+            if (Files.exists(from)) {
+                Files.move(from, directory.resolve(FILE_NAME + "." + i), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        file = Files.newBufferedWriter(directory.resolve(FILE_NAME), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        fileBytes = 0;
+    }
+
+    private static void closeFile() {
+        if (file == null) {
+            return;
+        }
+        try {
+            file.close();
+        } catch (IOException e) {
+            System.err.println("Could not close log file: " + e.getMessage());
+        }
+        file = null;
+    }
+}
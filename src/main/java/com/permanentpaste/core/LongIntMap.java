@@ -0,0 +1,133 @@
+package com.permanentpaste.core;
+
+import java.util.Arrays;
+
+/**
+ * Map from long keys to non-negative ints, without boxing: two flat arrays with linear probing.
+ * Removing a key moves the later keys of its probe run back instead of leaving a marker, so
+ * lookups stay short however many keys come and go.
+ */
+final class LongIntMap {
+
+    static final int MISSING = -1;
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    //MISSING marks a free slot
+    private int[] values;
+    private int mask;
+    private int size = 0;
+
+    LongIntMap() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * @return The value, or {@link #MISSING}
+     */
+    int get(long key) {
+        for (int slot = slotOf(key); ; slot = (slot + 1) & mask) {
+            int value = values[slot];
+            if (value == MISSING || keys[slot] == key) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * @param value Not negative
+     */
+    void put(long key, int value) {
+        int slot = slotOf(key);
+        while (values[slot] != MISSING) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        //at most three quarters full, so probe runs stay short
+        if (++size > (mask + 1) / 4 * 3) {
+            resize((mask + 1) * 2);
+        }
+    }
+
+    /**
+     * @return The value the key had, or {@link #MISSING}
+     */
+    int remove(long key) {
+        for (int slot = slotOf(key); values[slot] != MISSING; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                int value = values[slot];
+                closeGap(slot);
+                size--;
+                return value;
+            }
+        }
+        return MISSING;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Removes all keys, making room for the given number of keys.
+     */
+    void clear(int expected) {
+        int capacity = MIN_CAPACITY;
+        while (capacity / 4 * 3 < expected) {
+            capacity *= 2;
+        }
+        if (capacity == mask + 1) {
+            Arrays.fill(values, MISSING);
+        } else {
+            allocate(capacity);
+        }
+        size = 0;
+    }
+
+    /**
+     * Moves the keys following a freed slot back into it while their probe run passes the slot.
+     */
+    private void closeGap(int gap) {
+        for (int slot = (gap + 1) & mask; values[slot] != MISSING; slot = (slot + 1) & mask) {
+            //distance from the key's home slot to where it is, and to the gap
+            if (((slot - slotOf(keys[slot])) & mask) >= ((slot - gap) & mask)) {
+                keys[gap] = keys[slot];
+                values[gap] = values[slot];
+                gap = slot;
+            }
+        }
+        values[gap] = MISSING;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != MISSING) {
+                int slot = slotOf(oldKeys[i]);
+                while (values[slot] != MISSING) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, MISSING);
+        mask = capacity - 1;
+    }
+
+    private int slotOf(long key) {
+        return (int) ContentHash.mix(key) & mask;
+    }
+}
@@ -0,0 +1,254 @@
+package com.permanentpaste.core;
+
+import java.awt.AWTException;
+import java.awt.Robot;
+import java.awt.Toolkit;
+import java.awt.Window;
+import java.awt.datatransfer.Clipboard;
+import java.awt.datatransfer.Transferable;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Sends synthetic key strokes for pasting, from one long-lived thread with one long-lived Robot.
+ *
+ * A paste goes through three readiness waits before Ctrl+V is sent, each one ending as soon as
+ * its condition holds instead of after a fixed sleep:
+ * the clipboard reports the new contents, the popup has lost focus, and the user has let go of
+ * the modifier keys. Every wait is bounded, so a condition that never becomes true only costs
+ * its timeout. Stage timings of the last paste are kept in {@link #getLastTimings()}.
+ * In terminals Ctrl+Shift+V or a middle click is sent instead, see {@link PasteMethod}.
+ *
+ * Modifier state comes from the global key hook, see {@link #modifierPressed(int)}.
+ */
+public class PasteExecutor implements AutoCloseable {
+
+    /**
+     * How the focused application is told to paste.
+     */
+    public enum PasteMethod {
+        /** Ctrl+V, from the clipboard */
+        CTRL_V,
+        /** Ctrl+Shift+V, from the clipboard in terminals, where Ctrl+V is a control character */
+        CTRL_SHIFT_V,
+        /** Middle click, from the PRIMARY selection, at the mouse pointer */
+        MIDDLE_CLICK
+    }
+
+    private static final long STAGE_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(150);
+    private static final long POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+    private static final int MODIFIER_MASK = InputEvent.SHIFT_DOWN_MASK | InputEvent.CTRL_DOWN_MASK
+            | InputEvent.ALT_DOWN_MASK | InputEvent.META_DOWN_MASK;
+
+    /**
+     * Time spent in each stage of one paste, in nanoseconds.
+     * @param clipboardNanos Until the clipboard held the new contents
+     * @param focusNanos Until the popup was no longer the active window
+     * @param modifiersNanos Until no modifier key was held
+     * @param keystrokeNanos Sending the paste key strokes or click
+     */
+    public record Timings(long clipboardNanos, long focusNanos, long modifiersNanos, long keystrokeNanos) {
+        public long totalNanos() {
+            return clipboardNanos + focusNanos + modifiersNanos + keystrokeNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "clipboard %.2f ms, focus %.2f ms, modifiers %.2f ms, keystroke %.2f ms, total %.2f ms",
+                    clipboardNanos / 1e6, focusNanos / 1e6, modifiersNanos / 1e6, keystrokeNanos / 1e6, totalNanos() / 1e6);
+        }
+    }
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "paste-executor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    //created on the executor thread, null if it could not be created (e.g. headless)
+    private Robot robot;
+    private boolean robotFailed = false;
+    //InputEvent modifier masks of the keys currently held, as seen by the key hook
+    private volatile int heldModifiers = 0;
+    private volatile Timings lastTimings;
+
+    public PasteExecutor() {
+        //create the Robot now, so the first paste does not pay for it
+        executor.execute(this::robot);
+    }
+
+    /**
+     * Pastes the given clipboard contents with Ctrl+V into the application that gets focus after
+     * the popup hides. The contents must already have been placed on the clipboard.
+     * @param placed The transferable that was placed on the clipboard
+     * @param popup The window that is closing, focus has to move away from it first; may be null
+     * @return Completes with the stage timings, or exceptionally if no key strokes could be sent
+     */
+    public CompletableFuture<Timings> paste(Transferable placed, Window popup) {
+        return paste(placed, popup, PasteMethod.CTRL_V);
+    }
+
+    /**
+     * Same as {@link #paste(Transferable, Window)} with the given way of pasting. For
+     * {@link PasteMethod#MIDDLE_CLICK} the contents must have been placed on the PRIMARY
+     * selection instead of the clipboard.
+     */
+    public CompletableFuture<Timings> paste(Transferable placed, Window popup, PasteMethod method) {
+        return CompletableFuture.supplyAsync(() -> {
+            JfrEvents.Paste event = new JfrEvents.Paste();
+            event.begin();
+            Robot robot = robot();
+            if (robot == null) {
+                event.commit();
+                throw new IllegalStateException("Key strokes are not available");
+            }
+            Clipboard clipboard = method == PasteMethod.MIDDLE_CLICK
+                    ? Toolkit.getDefaultToolkit().getSystemSelection() : Toolkit.getDefaultToolkit().getSystemClipboard();
+            if (clipboard == null) {
+                event.commit();
+                throw new IllegalStateException("No PRIMARY selection on this platform");
+            }
+
+            long start = System.nanoTime();
+            int checks = awaitReady(() -> clipboardHolds(clipboard, placed));
+            long clipboardReady = System.nanoTime();
+            checks += awaitReady(() -> popup == null || !popup.isActive());
+            long focusReady = System.nanoTime();
+            checks += awaitReady(() -> (heldModifiers & MODIFIER_MASK) == 0);
+            //still release them, a release the hook missed must not turn Ctrl+V into something else
+            releaseModifiers(robot);
+            long modifiersReady = System.nanoTime();
+
+            sendPaste(robot, method);
+            long end = System.nanoTime();
+
+            Timings timings = new Timings(clipboardReady - start, focusReady - clipboardReady,
+                    modifiersReady - focusReady, end - modifiersReady);
+            lastTimings = timings;
+            LatencyStage.PASTE_READY.record(modifiersReady - start);
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.clipboardNanos = timings.clipboardNanos();
+                event.focusNanos = timings.focusNanos();
+                event.modifiersNanos = timings.modifiersNanos();
+                event.attempts = checks;
+                event.success = true;
+                event.commit();
+            }
+            return timings;
+        }, executor);
+    }
+
+    /**
+     * Releases Shift, Alt and Meta right away, e.g. so a hotkey does not reach the focused app.
+     * Runs on the executor thread, in order with pastes.
+     */
+    public void releaseModifiers() {
+        executor.execute(() -> {
+            Robot robot = robot();
+            if (robot != null) {
+                robot.keyRelease(KeyEvent.VK_SHIFT);
+                robot.keyRelease(KeyEvent.VK_ALT);
+                robot.keyRelease(KeyEvent.VK_META);
+            }
+        });
+    }
+
+    /**
+     * Called by the key hook when a modifier key goes down.
+     * @param modifierMask One of the {@link InputEvent} *_DOWN_MASK constants
+     */
+    public void modifierPressed(int modifierMask) {
+        heldModifiers |= modifierMask;
+    }
+
+    /**
+     * Called by the key hook when a modifier key goes up.
+     * @param modifierMask One of the {@link InputEvent} *_DOWN_MASK constants
+     */
+    public void modifierReleased(int modifierMask) {
+        heldModifiers &= ~modifierMask;
+    }
+
+    /**
+     * @return Stage timings of the last completed paste, or null before the first one
+     */
+    public Timings getLastTimings() {
+        return lastTimings;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private Robot robot() {
+        if (robot == null && !robotFailed) {
+            try {
+                robot = new Robot();
+            } catch (AWTException | SecurityException e) {
+                robotFailed = true;
+                Log.warn("Could not create Robot, pasting is manual: " + e.getMessage());
+            }
+        }
+        return robot;
+    }
+
+    private static void sendPaste(Robot robot, PasteMethod method) {
+        if (method == PasteMethod.MIDDLE_CLICK) {
+            robot.mousePress(InputEvent.BUTTON2_DOWN_MASK);
+            robot.mouseRelease(InputEvent.BUTTON2_DOWN_MASK);
+            return;
+        }
+        robot.keyPress(KeyEvent.VK_CONTROL);
+        if (method == PasteMethod.CTRL_SHIFT_V) {
+            robot.keyPress(KeyEvent.VK_SHIFT);
+        }
+        robot.keyPress(KeyEvent.VK_V);
+        robot.keyRelease(KeyEvent.VK_V);
+        if (method == PasteMethod.CTRL_SHIFT_V) {
+            robot.keyRelease(KeyEvent.VK_SHIFT);
+        }
+        robot.keyRelease(KeyEvent.VK_CONTROL);
+    }
+
+    private static void releaseModifiers(Robot robot) {
+        robot.keyRelease(KeyEvent.VK_CONTROL);
+        robot.keyRelease(KeyEvent.VK_SHIFT);
+        robot.keyRelease(KeyEvent.VK_ALT);
+        robot.keyRelease(KeyEvent.VK_META);
+    }
+
+    /**
+     * While this app owns the clipboard, the toolkit hands back the very transferable that was set.
+     */
+    private static boolean clipboardHolds(Clipboard clipboard, Transferable placed) {
+        try {
+            return clipboard.getContents(null) == placed;
+        } catch (IllegalStateException e) {
+            //clipboard busy, check again
+            return false;
+        }
+    }
+
+    /**
+     * Waits until the condition holds or the stage timeout passes.
+     * @return How many times the condition was checked
+     */
+    private static int awaitReady(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + STAGE_TIMEOUT_NANOS;
+        int checks = 1;
+        while (!condition.getAsBoolean() && System.nanoTime() - deadline < 0) {
+            LockSupport.parkNanos(POLL_NANOS);
+            checks++;
+        }
+        return checks;
+    }
+}
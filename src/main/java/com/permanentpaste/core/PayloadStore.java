@@ -0,0 +1,167 @@
+package com.permanentpaste.core;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * File-backed store for clipboard payloads too large to keep in the heap.
+ * Text and the bytes of other flavors are written deflate-compressed and only read back
+ * (streamed) when they are actually needed, e.g. when the item is pasted.
+ */
+public class PayloadStore {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Handle to one stored payload. Holds no payload data itself.
+     */
+    public static final class Blob {
+        private final String name;
+        private final Path path;
+
+        private Blob(String name, Path path) {
+            this.name = name;
+            this.path = path;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Opens a streaming reader over the decompressed text.
+         */
+        public Reader openReader() throws IOException {
+            return new BufferedReader(new InputStreamReader(
+                    new InflaterInputStream(Files.newInputStream(path), new Inflater(), BUFFER_SIZE),
+                    StandardCharsets.UTF_8), BUFFER_SIZE);
+        }
+
+        /**
+         * Reads the whole payload of a blob written with {@link #write(byte[], long)}.
+         */
+        public byte[] readBytes() throws IOException {
+            try (InputStream in = new InflaterInputStream(Files.newInputStream(path), new Inflater(), BUFFER_SIZE)) {
+                return in.readAllBytes();
+            }
+        }
+
+        /**
+         * Reads the whole text back into a String.
+         * @param length Length of the text in chars, used to size the buffer once
+         */
+        public String readText(int length) throws IOException {
+            StringBuilder text = new StringBuilder(length);
+            char[] buffer = new char[BUFFER_SIZE];
+            try (Reader reader = openReader()) {
+                int read;
+                while ((read = reader.read(buffer)) != -1) {
+                    text.append(buffer, 0, read);
+                }
+            }
+            return text.toString();
+        }
+    }
+
+    private final Path directory;
+    private final AtomicLong counter = new AtomicLong(System.currentTimeMillis());
+
+    public PayloadStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Compresses the text into a new blob file.
+     * @param hash Content hash, only used to make the file name recognizable
+     */
+    public Blob write(String text, long hash) throws IOException {
+        Files.createDirectories(directory);
+        String name = String.format("%016x-%x.z", hash, counter.incrementAndGet());
+        Path path = directory.resolve(name);
+
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new DeflaterOutputStream(Files.newOutputStream(path), new Deflater(Deflater.BEST_SPEED), BUFFER_SIZE),
+                StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            writer.write(text);
+        } catch (IOException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+        return new Blob(name, path);
+    }
+
+    /**
+     * Compresses raw bytes, e.g. an image, into a new blob file.
+     * @param hash Content hash, only used to make the file name recognizable
+     */
+    public Blob write(byte[] data, long hash) throws IOException {
+        Files.createDirectories(directory);
+        String name = String.format("%016x-%x.z", hash, counter.incrementAndGet());
+        Path path = directory.resolve(name);
+
+        try (OutputStream out = new DeflaterOutputStream(Files.newOutputStream(path), new Deflater(Deflater.BEST_SPEED), BUFFER_SIZE)) {
+            out.write(data);
+        } catch (IOException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+        return new Blob(name, path);
+    }
+
+    /**
+     * Returns the handle for a blob written earlier, e.g. by a previous run.
+     */
+    public Blob resolve(String name) {
+        return new Blob(name, directory.resolve(name));
+    }
+
+    public void delete(Blob blob) {
+        try {
+            Files.deleteIfExists(blob.path);
+        } catch (IOException e) {
+            Log.warn("Could not delete payload " + blob.name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes every blob that is not in the given set, e.g. leftovers of a crash.
+     */
+    public void retainOnly(Collection<String> names) {
+        Set<String> keep = new HashSet<>(names);
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                if (!keep.contains(file.getFileName().toString())) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            Log.warn("Could not clean up payloads: " + e.getMessage());
+        }
+    }
+
+    public void clear() {
+        retainOnly(Set.of());
+    }
+}
@@ -0,0 +1,31 @@
+package com.permanentpaste.core;
+
+import java.awt.Toolkit;
+import java.awt.datatransfer.Clipboard;
+
+/**
+ * The PRIMARY selection, through AWT: what was last selected with the mouse, pasted with
+ * a middle click. Only X11 has one.
+ */
+public class SelectionClipboardBackend implements ClipboardBackend {
+
+    /**
+     * @return True if the platform has a PRIMARY selection
+     */
+    public static boolean isAvailable() {
+        try {
+            return Toolkit.getDefaultToolkit().getSystemSelection() != null;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public Clipboard getClipboard() {
+        Clipboard selection = Toolkit.getDefaultToolkit().getSystemSelection();
+        if (selection == null) {
+            throw new IllegalStateException("No PRIMARY selection on this platform");
+        }
+        return selection;
+    }
+}
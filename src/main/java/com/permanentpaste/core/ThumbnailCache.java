@@ -0,0 +1,136 @@
+package com.permanentpaste.core;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Small previews of stored images, made on a background pool and kept in a bounded LRU cache.
+ *
+ * {@link #get} never decodes or scales anything on the calling thread: it returns the
+ * thumbnail if it is cached, and otherwise starts making it and returns null. Listeners are
+ * told the key once the thumbnail is ready, so a view can repaint.
+ */
+public class ThumbnailCache {
+
+    private final ImageStore store;
+    private final int maxWidth;
+    private final int maxHeight;
+    private final Map<String, BufferedImage> thumbnails;
+    private final Set<String> inFlight = new HashSet<>();
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+    private final ExecutorService pool;
+
+    /**
+     * @param capacity Most thumbnails kept, least recently used ones are dropped first
+     */
+    public ThumbnailCache(ImageStore store, int capacity, int maxWidth, int maxHeight) {
+        this.store = store;
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+        this.thumbnails = new LinkedHashMap<>(capacity * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, BufferedImage> eldest) {
+                return size() > capacity;
+            }
+        };
+        AtomicInteger threads = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(2, r -> {
+            Thread thread = new Thread(r, "thumbnail-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns the cached thumbnail, or null while it is being made.
+     */
+    public BufferedImage get(ImageStore.Ref image) {
+        synchronized (this) {
+            BufferedImage thumbnail = thumbnails.get(image.getKey());
+            if (thumbnail != null || !inFlight.add(image.getKey())) {
+                return thumbnail;
+            }
+        }
+        pool.execute(() -> make(image));
+        return null;
+    }
+
+    /**
+     * Makes the thumbnail ahead of time, e.g. right after the image was captured.
+     */
+    public void prefetch(ImageStore.Ref image) {
+        get(image);
+    }
+
+    /**
+     * Registers a listener called with the image key when a thumbnail is ready.
+     * It is called on a pool thread.
+     */
+    public void addListener(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    private void make(ImageStore.Ref image) {
+        BufferedImage thumbnail = null;
+        try {
+            BufferedImage source = ImageIO.read(new ByteArrayInputStream(image.readBytes()));
+            if (source != null) {
+                thumbnail = scale(source);
+            }
+        } catch (Exception e) {
+            Log.warn("Could not make thumbnail: " + e.getMessage());
+        }
+        synchronized (this) {
+            inFlight.remove(image.getKey());
+            if (thumbnail != null) {
+                thumbnails.put(image.getKey(), thumbnail);
+            }
+        }
+        if (thumbnail != null) {
+            for (Consumer<String> listener : listeners) {
+                listener.accept(image.getKey());
+            }
+        }
+    }
+
+    /**
+     * Fits the image into the thumbnail box, halving the size in steps so a large image
+     * does not turn to noise in one bilinear pass.
+     */
+    private BufferedImage scale(BufferedImage source) {
+        double factor = Math.min(1.0, Math.min((double) maxWidth / source.getWidth(), (double) maxHeight / source.getHeight()));
+        int targetWidth = Math.max(1, (int) Math.round(source.getWidth() * factor));
+        int targetHeight = Math.max(1, (int) Math.round(source.getHeight() * factor));
+
+        BufferedImage current = source;
+        do {
+            int width = Math.max(targetWidth, current.getWidth() / 2);
+            int height = Math.max(targetHeight, current.getHeight() / 2);
+            BufferedImage next = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = next.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(current, 0, 0, width, height, null);
+            g.dispose();
+            current = next;
+        } while (current.getWidth() != targetWidth || current.getHeight() != targetHeight);
+        return current;
+    }
+}
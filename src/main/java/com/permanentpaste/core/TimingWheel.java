@@ -0,0 +1,127 @@
+package com.permanentpaste.core;
+
+import java.util.Arrays;
+
+/**
+ * Hierarchical timing wheel for expiring history entries without a timer per entry and
+ * without scanning the history.
+ *
+ * Four levels of 64 slots each; a slot of level n covers 64^n ticks. A timer goes into
+ * the lowest level whose range reaches its deadline, and whenever a level comes round
+ * to a slot, the timers in it are cascaded down to the level below. Scheduling is O(1),
+ * and each timer is moved at most once per level before it fires. Deadlines beyond the
+ * top level's range wait in its last slot and are placed again when it cascades.
+ *
+ * Timers cannot be cancelled; a timer is just a key and a deadline, and whoever handles
+ * it checks whether the key is still due. Not thread-safe, all calls must come from the
+ * same thread.
+ */
+public class TimingWheel {
+
+    /**
+     * Receives expired timers.
+     */
+    public interface Expiry {
+        void expired(long key, long deadlineMillis);
+    }
+
+    private static final int LEVELS = 4;
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    private final long tickMillis;
+    //per level and slot: key and deadline tick pairs
+    private final long[][][] slots = new long[LEVELS][SLOTS][];
+    private final int[][] counts = new int[LEVELS][SLOTS];
+    //all ticks up to and including this one have been processed
+    private long currentTick;
+    private int size = 0;
+
+    /**
+     * @param tickMillis Resolution; timers fire at most this much late
+     * @param nowMillis Start time
+     */
+    public TimingWheel(long tickMillis, long nowMillis) {
+        this.tickMillis = tickMillis;
+        this.currentTick = nowMillis / tickMillis;
+    }
+
+    /**
+     * Schedules a timer. A deadline in the past fires on the next {@link #advance}.
+     */
+    public void schedule(long key, long deadlineMillis) {
+        //rounded up, a timer never fires before its deadline
+        long deadlineTick = Math.floorDiv(deadlineMillis + tickMillis - 1, tickMillis);
+        place(key, Math.max(currentTick + 1, deadlineTick));
+        size++;
+    }
+
+    /**
+     * Fires every timer due by the given time, processing the elapsed ticks one by one.
+     */
+    public void advance(long nowMillis, Expiry expiry) {
+        long targetTick = nowMillis / tickMillis;
+        while (currentTick < targetTick) {
+            currentTick++;
+            //higher levels first, their timers may land in the lower slots processed next
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                    cascade(level, (int) (currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+                }
+            }
+            int slot = (int) currentTick & SLOT_MASK;
+            long[] due = slots[0][slot];
+            int count = counts[0][slot];
+            if (count == 0) {
+                continue;
+            }
+            slots[0][slot] = null;
+            counts[0][slot] = 0;
+            size -= count / 2;
+            for (int i = 0; i < count; i += 2) {
+                expiry.expired(due[i], due[i + 1] * tickMillis);
+            }
+        }
+    }
+
+    /**
+     * @return Number of pending timers
+     */
+    public int size() {
+        return size;
+    }
+
+    private void cascade(int level, int slot) {
+        long[] timers = slots[level][slot];
+        int count = counts[level][slot];
+        slots[level][slot] = null;
+        counts[level][slot] = 0;
+        for (int i = 0; i < count; i += 2) {
+            place(timers[i], timers[i + 1]);
+        }
+    }
+
+    private void place(long key, long deadlineTick) {
+        int level = 0;
+        while (level < LEVELS - 1
+                && (deadlineTick >>> (SLOT_BITS * level)) - (currentTick >>> (SLOT_BITS * level)) >= SLOTS) {
+            level++;
+        }
+        int shift = SLOT_BITS * level;
+        //too far for the top level: park it in the furthest slot, it is placed again from there
+        long slotTick = Math.min(deadlineTick >>> shift, (currentTick >>> shift) + SLOTS - 1);
+        int slot = (int) slotTick & SLOT_MASK;
+        long[] timers = slots[level][slot];
+        int count = counts[level][slot];
+        if (timers == null) {
+            timers = new long[4];
+        } else if (count == timers.length) {
+            timers = Arrays.copyOf(timers, count * 2);
+        }
+        timers[count] = key;
+        timers[count + 1] = deadlineTick;
+        slots[level][slot] = timers;
+        counts[level][slot] = count + 2;
+    }
+}
@@ -0,0 +1,276 @@
+package com.permanentpaste.core;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Inverted trigram index over the history, used by the popup's type-to-filter.
+ *
+ * Each entry is indexed by the case-folded trigrams of its first {@link #MAX_INDEXED_CHARS}
+ * chars, plus trigrams starting with a start-of-text marker so prefix queries work too.
+ * A query of three or more chars intersects the posting lists of its trigrams, shortest
+ * list first, so its cost depends on the rarest trigram rather than on the history size.
+ * Results are candidates: an entry matching all trigrams may still not contain the query
+ * as one piece, so callers verify when they can.
+ *
+ * Documents are keyed by content hash. Removal only marks the document dead; posting lists
+ * are rebuilt once dead documents outnumber live ones.
+ */
+public class TrigramIndex {
+
+    public static final int MAX_INDEXED_CHARS = 64 * 1024;
+    private static final char START_OF_TEXT = '\u0002';
+
+    /**
+     * Growable, sorted list of document ids (ids only ever increase).
+     */
+    private static final class PostingList {
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+    }
+
+    private final Map<Long, PostingList> postings = new HashMap<>();
+    private final Map<Long, Integer> docsByHash = new HashMap<>();
+    private long[] hashesByDoc = new long[64];
+    private final BitSet deadDocs = new BitSet();
+    private int nextDoc = 0;
+    private int liveDocs = 0;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Indexes the text of an entry. The trigrams are collected before the write lock is
+     * taken, so concurrent searches are only held up for the posting list appends.
+     */
+    public void add(long hash, CharSequence text) {
+        long[] grams = trigrams(text, Math.min(text.length(), MAX_INDEXED_CHARS));
+
+        lock.writeLock().lock();
+        try {
+            if (docsByHash.containsKey(hash)) {
+                return;
+            }
+            int doc = nextDoc++;
+            if (doc == hashesByDoc.length) {
+                hashesByDoc = Arrays.copyOf(hashesByDoc, doc * 2);
+            }
+            hashesByDoc[doc] = hash;
+            docsByHash.put(hash, doc);
+            liveDocs++;
+            for (long gram : grams) {
+                postings.computeIfAbsent(key(gram), g -> new PostingList()).add(doc);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long hash) {
+        lock.writeLock().lock();
+        try {
+            Integer doc = docsByHash.remove(hash);
+            if (doc == null) {
+                return;
+            }
+            deadDocs.set(doc);
+            liveDocs--;
+            if (deadDocs.cardinality() > Math.max(liveDocs, 64)) {
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the hashes of the entries that may contain the query.
+     * @param prefix If true, only entries starting with the query match
+     * @return Candidate hashes, or null if the query is too short to use the index
+     *         (callers then fall back to scanning previews)
+     */
+    public long[] search(String query, boolean prefix) {
+        String text = prefix ? START_OF_TEXT + query : query;
+        if (text.length() < 3) {
+            return null;
+        }
+        long[] grams = trigrams(text, text.length());
+        if (!prefix) {
+            //the start marker is only added at the beginning of indexed text
+            grams = Arrays.stream(grams).filter(gram -> (gram >>> 32) != START_OF_TEXT).toArray();
+        }
+
+        lock.readLock().lock();
+        try {
+            PostingList[] lists = new PostingList[grams.length];
+            for (int i = 0; i < grams.length; i++) {
+                lists[i] = postings.get(key(grams[i]));
+                if (lists[i] == null) {
+                    return new long[0];
+                }
+            }
+            Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+
+            int[] result = Arrays.copyOf(lists[0].ids, lists[0].size);
+            int count = result.length;
+            for (int i = 1; i < lists.length && count > 0; i++) {
+                count = intersect(result, count, lists[i]);
+            }
+
+            long[] hashes = new long[count];
+            int found = 0;
+            for (int i = 0; i < count; i++) {
+                if (!deadDocs.get(result[i])) {
+                    hashes[found++] = hashesByDoc[result[i]];
+                }
+            }
+            return found == count ? hashes : Arrays.copyOf(hashes, found);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveDocs;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Case-insensitive substring check used to verify index candidates, without allocating.
+     */
+    public static boolean containsIgnoreCase(String text, String query, boolean prefix) {
+        if (prefix) {
+            return text.regionMatches(true, 0, query, 0, query.length());
+        }
+        for (int i = 0, last = text.length() - query.length(); i <= last; i++) {
+            if (text.regionMatches(true, i, query, 0, query.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Intersects the sorted ids in result[0, count) with the posting list, in place.
+     */
+    private static int intersect(int[] result, int count, PostingList list) {
+        int kept = 0;
+        int j = 0;
+        for (int i = 0; i < count && j < list.size; i++) {
+            int id = result[i];
+            while (j < list.size && list.ids[j] < id) {
+                j++;
+            }
+            if (j < list.size && list.ids[j] == id) {
+                result[kept++] = id;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Distinct, case-folded trigrams of text[0, length), including the start-of-text ones.
+     * Each trigram is packed into a long, 16 bits per char.
+     */
+    private static long[] trigrams(CharSequence text, int length) {
+        long[] grams = new long[length + 1];
+        int count = 0;
+        char first = START_OF_TEXT;
+        char second = length > 0 ? fold(text.charAt(0)) : 0;
+        if (length > 0 && text.charAt(0) == START_OF_TEXT) {
+            //query already carries the marker
+            if (length < 3) {
+                return new long[0];
+            }
+            first = fold(text.charAt(1));
+            second = fold(text.charAt(2));
+            grams[count++] = pack(START_OF_TEXT, first, second);
+            for (int i = 3; i < length; i++) {
+                char third = fold(text.charAt(i));
+                grams[count++] = pack(first, second, third);
+                first = second;
+                second = third;
+            }
+        } else {
+            for (int i = 1; i < length; i++) {
+                char third = fold(text.charAt(i));
+                grams[count++] = pack(first, second, third);
+                first = second;
+                second = third;
+            }
+        }
+
+        long[] distinct = Arrays.copyOf(grams, count);
+        Arrays.sort(distinct);
+        int unique = 0;
+        for (int i = 0; i < distinct.length; i++) {
+            if (i == 0 || distinct[i] != distinct[i - 1]) {
+                distinct[unique++] = distinct[i];
+            }
+        }
+        return Arrays.copyOf(distinct, unique);
+    }
+
+    private static long pack(char first, char second, char third) {
+        return ((long) first << 32) | ((long) second << 16) | third;
+    }
+
+    /**
+     * Map key for a packed trigram. Long.hashCode folds the first char onto the other two, which
+     * for text leaves only a few hundred distinct buckets, so the key is mixed first (bijectively).
+     */
+    private static long key(long gram) {
+        return ContentHash.mix(gram);
+    }
+
+    private static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    /**
+     * Drops dead documents from every posting list and renumbers the live ones.
+     * Caller holds the write lock.
+     */
+    private void compact() {
+        int[] remap = new int[nextDoc];
+        long[] hashes = new long[Math.max(64, liveDocs * 2)];
+        int live = 0;
+        for (int doc = 0; doc < nextDoc; doc++) {
+            if (deadDocs.get(doc)) {
+                remap[doc] = -1;
+            } else {
+                remap[doc] = live;
+                hashes[live] = hashesByDoc[doc];
+                docsByHash.put(hashesByDoc[doc], live);
+                live++;
+            }
+        }
+
+        postings.values().removeIf(list -> {
+            int kept = 0;
+            for (int i = 0; i < list.size; i++) {
+                int doc = remap[list.ids[i]];
+                if (doc >= 0) {
+                    list.ids[kept++] = doc;
+                }
+            }
+            list.size = kept;
+            return kept == 0;
+        });
+        hashesByDoc = hashes;
+        deadDocs.clear();
+        nextDoc = live;
+    }
+}
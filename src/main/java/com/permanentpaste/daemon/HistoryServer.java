@@ -0,0 +1,530 @@
+package com.permanentpaste.daemon;
+
+import com.permanentpaste.core.ClipboardManager;
+import com.permanentpaste.core.ContentHash;
+import com.permanentpaste.core.HistoryEntry;
+import com.permanentpaste.core.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the clipboard history on a Unix domain socket, see {@link Protocol}.
+ *
+ * One thread runs a selector over all connections with non-blocking channels. A connection
+ * answers one request at a time: the results of a batch are collected and written in one go,
+ * and the next request is only read once the previous response is out, so a client that
+ * stops reading cannot make the server buffer without bound. Streamed payloads are read and
+ * written one chunk at a time, whenever the socket can take more.
+ *
+ * Operations that read the cold tier or wait for the history writer (list, search, push and
+ * fetch) run on a worker thread instead, so a long search cannot stall the other connections;
+ * their connection is not served meanwhile, and the result is handed back to the selector
+ * thread, which appends it to the response and carries on with the batch.
+ */
+public class HistoryServer implements Closeable {
+
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    private static final int CHUNK_CHARS = 16 * 1024;
+    //a response is handed to the socket once it grows past this, even mid-batch
+    private static final int RESPONSE_FLUSH_BYTES = 64 * 1024;
+
+    private static final class Connection {
+        final SocketChannel channel;
+        ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        final ByteArrayOutputStream responseBytes = new ByteArrayOutputStream();
+        final DataOutputStream response = new DataOutputStream(responseBytes);
+        //request being answered, and how many of its operations are left
+        ByteBuffer batch;
+        int remainingOps = 0;
+        boolean malformed = false;
+        //payload being streamed, null if none
+        Reader stream;
+        final char[] chunk = new char[CHUNK_CHARS + 1];
+        int carried = 0;
+        //an operation is running on the worker, nothing else is done until it is answered
+        boolean waiting = false;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private final ClipboardManager clipboardManager;
+    private final Path socketPath;
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private volatile boolean running = true;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "history-server-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+    //results of the worker, applied on the selector thread
+    private final ConcurrentLinkedQueue<Runnable> completions = new ConcurrentLinkedQueue<>();
+
+    private interface Operation {
+        void answer(DataOutputStream response) throws IOException;
+    }
+
+    private HistoryServer(ClipboardManager clipboardManager, Path socketPath, ServerSocketChannel server, Selector selector) {
+        this.clipboardManager = clipboardManager;
+        this.socketPath = socketPath;
+        this.server = server;
+        this.selector = selector;
+    }
+
+    /**
+     * Binds the socket, readable and writable by the current user only. A socket file left
+     * behind by a daemon that did not exit cleanly is replaced; one that still accepts
+     * connections means another daemon is running.
+     */
+    public static HistoryServer open(ClipboardManager clipboardManager, Path socketPath) throws IOException {
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socketPath);
+        if (Files.exists(socketPath)) {
+            if (isListening(address)) {
+                throw new IOException("Another daemon is listening on " + socketPath);
+            }
+            Files.delete(socketPath);
+        }
+        Files.createDirectories(socketPath.getParent());
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(address);
+        try {
+            Files.setPosixFilePermissions(socketPath, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            Log.warn("Could not restrict access to " + socketPath);
+        }
+        server.configureBlocking(false);
+        Selector selector = Selector.open();
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        return new HistoryServer(clipboardManager, socketPath, server, selector);
+    }
+
+    private static boolean isListening(UnixDomainSocketAddress address) {
+        try {
+            SocketChannel probe = SocketChannel.open(address);
+            probe.close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Serves connections until {@link #close} is called.
+     */
+    public void run() {
+        Log.info("History daemon listening on " + socketPath);
+        try {
+            while (running) {
+                selector.select();
+                Runnable completion;
+                while ((completion = completions.poll()) != null) {
+                    completion.run();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable() && connection.channel.read(connection.in) < 0) {
+                                disconnect(key);
+                                continue;
+                            }
+                        } catch (IOException e) {
+                            Log.debug(() -> "Daemon connection closed: " + e.getMessage());
+                            disconnect(key);
+                            continue;
+                        }
+                        resume(key, connection);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.error("History daemon stopped", e);
+        } finally {
+            shutdown();
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void resume(SelectionKey key, Connection connection) {
+        try {
+            serve(key, connection);
+        } catch (IOException e) {
+            Log.debug(() -> "Daemon connection closed: " + e.getMessage());
+            disconnect(key);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+        }
+    }
+
+    /**
+     * Makes as much progress on the connection as the socket allows: writes what is
+     * pending, streams, answers operations and takes the next request.
+     */
+    private void serve(SelectionKey key, Connection connection) throws IOException {
+        while (true) {
+            if (!flush(connection)) {
+                key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+            if (connection.waiting) {
+                key.interestOps(0);
+                return;
+            }
+            if (connection.stream != null) {
+                pumpStream(connection);
+            } else if (connection.remainingOps > 0) {
+                answer(key, connection);
+                if (!connection.waiting) {
+                    answered(connection);
+                }
+            } else if (!nextRequest(connection)) {
+                key.interestOps(SelectionKey.OP_READ);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return True if nothing is left to write
+     */
+    private static boolean flush(Connection connection) throws IOException {
+        while (!connection.out.isEmpty()) {
+            ByteBuffer buffer = connection.out.peek();
+            connection.channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                return false;
+            }
+            connection.out.poll();
+        }
+        return true;
+    }
+
+    /**
+     * Hands the response to the socket once the batch is answered, a stream starts or it grew large.
+     */
+    private static void answered(Connection connection) {
+        if (connection.remainingOps == 0 || connection.stream != null
+                || connection.responseBytes.size() > RESPONSE_FLUSH_BYTES) {
+            enqueueResponse(connection);
+        }
+    }
+
+    private static void enqueueResponse(Connection connection) {
+        if (connection.responseBytes.size() > 0) {
+            connection.out.add(ByteBuffer.wrap(connection.responseBytes.toByteArray()));
+            connection.responseBytes.reset();
+        }
+    }
+
+    /**
+     * Takes the next complete request from the read buffer.
+     * @return False if no complete request has arrived yet
+     */
+    private static boolean nextRequest(Connection connection) throws IOException {
+        ByteBuffer in = connection.in;
+        if (in.position() < 4) {
+            return false;
+        }
+        int length = in.getInt(0);
+        if (length < 2 || length > Protocol.MAX_REQUEST_BYTES) {
+            throw new IOException("Invalid request length " + length);
+        }
+        if (in.position() < 4 + length) {
+            if (in.capacity() < 4 + length) {
+                connection.in = ByteBuffer.allocate(4 + length).put(in.flip());
+            }
+            return false;
+        }
+        byte[] request = new byte[length];
+        in.flip().position(4);
+        in.get(request).compact();
+        connection.batch = ByteBuffer.wrap(request);
+        connection.remainingOps = connection.batch.getShort() & 0xffff;
+        connection.malformed = false;
+        connection.response.writeShort(connection.remainingOps);
+        return true;
+    }
+
+    private void answer(SelectionKey key, Connection connection) throws IOException {
+        connection.remainingOps--;
+        DataOutputStream response = connection.response;
+        if (connection.malformed) {
+            response.writeByte(Protocol.BAD_REQUEST);
+            return;
+        }
+        ByteBuffer batch = connection.batch;
+        try {
+            byte opcode = batch.get();
+            switch (opcode) {
+                case Protocol.LIST -> {
+                    int offset = readCount(batch);
+                    int limit = readCount(batch);
+                    offload(key, connection, out -> writeEntries(out, list(offset, limit)));
+                }
+                case Protocol.SEARCH -> {
+                    boolean prefix = batch.get() != 0;
+                    String query = readString(batch);
+                    int limit = readCount(batch);
+                    offload(key, connection, out -> writeEntries(out, search(query, prefix, limit)));
+                }
+                case Protocol.PUSH -> {
+                    byte flags = batch.get();
+                    String text = readString(batch);
+                    offload(key, connection, out -> push(out, flags, text));
+                }
+                case Protocol.FETCH -> {
+                    long id = batch.getLong();
+                    offload(key, connection, out -> fetch(out, id));
+                }
+                case Protocol.STREAM -> stream(connection, batch.getLong());
+                default -> throw new IllegalArgumentException("Unknown opcode " + opcode);
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            connection.malformed = true;
+            response.writeByte(Protocol.BAD_REQUEST);
+        } catch (UncheckedIOException e) {
+            Log.warn("Daemon request failed: " + e.getMessage());
+            response.writeByte(Protocol.ERROR);
+        }
+    }
+
+    /**
+     * Runs an operation on the worker and answers it on the selector thread once it is done.
+     * The connection waits meanwhile, so the results stay in order.
+     */
+    private void offload(SelectionKey key, Connection connection, Operation operation) {
+        connection.waiting = true;
+        worker.execute(() -> {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            try {
+                operation.answer(new DataOutputStream(result));
+            } catch (IOException | RuntimeException e) {
+                Log.warn("Daemon request failed: " + e.getMessage());
+                result.reset();
+                result.write(Protocol.ERROR);
+            }
+            completions.add(() -> {
+                connection.waiting = false;
+                if (key.isValid()) {
+                    connection.responseBytes.writeBytes(result.toByteArray());
+                    answered(connection);
+                    resume(key, connection);
+                }
+            });
+            selector.wakeup();
+        });
+    }
+
+    /**
+     * Entries newest first, the hot tier followed by the cold tier.
+     */
+    private List<HistoryEntry> list(int offset, int limit) {
+        List<HistoryEntry> hot = clipboardManager.getHistorySnapshot();
+        int count = Math.min(limit, Protocol.MAX_LIST_ENTRIES);
+        List<HistoryEntry> page = new ArrayList<>(count);
+        for (int index = offset; index < hot.size() && page.size() < count; index++) {
+            page.add(hot.get(hot.size() - 1 - index));
+        }
+        if (page.size() < count) {
+            //the cold tier is read a page at a time, not once per entry
+            page.addAll(clipboardManager.getColdEntries(Math.max(0, offset - hot.size()), count - page.size()));
+        }
+        return page;
+    }
+
+    private List<HistoryEntry> search(String query, boolean prefix, int limit) {
+        return clipboardManager.search(query, prefix, Math.min(limit, Protocol.MAX_LIST_ENTRIES));
+    }
+
+    private void push(DataOutputStream response, byte flags, String text) throws IOException {
+        clipboardManager.capture(text);
+        long id = ContentHash.of(text);
+        if ((flags & Protocol.PUSH_TO_CLIPBOARD) != 0) {
+            HistoryEntry entry = clipboardManager.getEntry(id);
+            if (entry == null || clipboardManager.restoreClipboard(entry) == null) {
+                response.writeByte(Protocol.ERROR);
+                return;
+            }
+        }
+        response.writeByte(Protocol.OK);
+        response.writeLong(id);
+    }
+
+    private void fetch(DataOutputStream response, long id) throws IOException {
+        HistoryEntry entry = clipboardManager.getEntry(id);
+        if (entry == null) {
+            response.writeByte(Protocol.NOT_FOUND);
+        } else if (entry.getLength() > Protocol.MAX_FETCH_CHARS) {
+            response.writeByte(Protocol.TOO_LARGE);
+        } else {
+            String text = entry.getText();
+            response.writeByte(Protocol.OK);
+            writeString(response, text);
+        }
+    }
+
+    private void stream(Connection connection, long id) throws IOException {
+        HistoryEntry entry = clipboardManager.getEntry(id);
+        if (entry == null) {
+            connection.response.writeByte(Protocol.NOT_FOUND);
+            return;
+        }
+        Reader reader;
+        try {
+            //spilled text is decompressed as it is sent, never held in memory as a whole
+            reader = entry.isSpilled() ? entry.getBlob().openReader() : new StringReader(entry.getText());
+        } catch (IOException e) {
+            Log.warn("Could not stream clipboard item: " + e.getMessage());
+            connection.response.writeByte(Protocol.ERROR);
+            return;
+        }
+        connection.response.writeByte(Protocol.OK);
+        connection.response.writeInt(entry.getLength());
+        connection.stream = reader;
+        connection.carried = 0;
+    }
+
+    /**
+     * Sends the next chunk of the payload being streamed, or the end marker.
+     */
+    private static void pumpStream(Connection connection) throws IOException {
+        char[] chunk = connection.chunk;
+        int read = connection.stream.read(chunk, connection.carried, CHUNK_CHARS);
+        int length = connection.carried + Math.max(read, 0);
+        connection.carried = 0;
+        //a surrogate pair must not be split between chunks, or neither half encodes
+        if (read > 0 && Character.isHighSurrogate(chunk[length - 1])) {
+            length--;
+            connection.carried = 1;
+        }
+        DataOutputStream response = connection.response;
+        if (length > 0) {
+            ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(chunk, 0, length));
+            response.writeInt(bytes.remaining());
+            response.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+        }
+        if (connection.carried == 1) {
+            chunk[0] = chunk[length];
+        }
+        if (read < 0) {
+            response.writeInt(0);
+            connection.stream.close();
+            connection.stream = null;
+        }
+        enqueueResponse(connection);
+    }
+
+    private static int readCount(ByteBuffer batch) {
+        int count = batch.getInt();
+        if (count < 0) {
+            throw new IllegalArgumentException("Negative count");
+        }
+        return count;
+    }
+
+    private static String readString(ByteBuffer batch) {
+        int length = batch.getInt();
+        if (length < 0 || length > batch.remaining()) {
+            throw new IllegalArgumentException("Invalid string length " + length);
+        }
+        String text = new String(batch.array(), batch.arrayOffset() + batch.position(), length, StandardCharsets.UTF_8);
+        batch.position(batch.position() + length);
+        return text;
+    }
+
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeEntries(DataOutputStream out, List<HistoryEntry> entries) throws IOException {
+        out.writeByte(Protocol.OK);
+        out.writeInt(entries.size());
+        for (HistoryEntry entry : entries) {
+            out.writeLong(entry.getHash());
+            out.writeLong(entry.getCapturedAt());
+            out.writeInt(entry.getLength());
+            writeString(out, entry.getPreview());
+        }
+    }
+
+    private void disconnect(SelectionKey key) {
+        key.cancel();
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (connection.stream != null) {
+                connection.stream.close();
+            }
+            connection.channel.close();
+        } catch (IOException e) {
+            Log.debug(() -> "Error closing daemon connection: " + e.getMessage());
+        }
+    }
+
+    private void shutdown() {
+        //not interrupted: an interrupt would close the history files under a running operation
+        worker.shutdown();
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) {
+                disconnect(key);
+            }
+        }
+        try {
+            selector.close();
+            server.close();
+            Files.deleteIfExists(socketPath);
+        } catch (IOException e) {
+            Log.warn("Error closing history daemon: " + e.getMessage());
+        }
+        Log.info("History daemon stopped.");
+    }
+}
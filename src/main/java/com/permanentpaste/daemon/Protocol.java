@@ -0,0 +1,52 @@
+package com.permanentpaste.daemon;
+
+/**
+ * Wire format of the daemon's socket API. Numbers are big-endian; a string is a u32 byte
+ * count followed by that many bytes of UTF-8.
+ *
+ * A request is a u32 byte count followed by a batch: a u16 operation count, then each
+ * operation as an opcode byte and its arguments. Requests may be pipelined. The response to a
+ * request is a u16 count and one result per operation, in order: a status byte and, if the
+ * status is {@link #OK}, the result body. Responses carry no byte count, so a streamed payload
+ * can be sent while it is read; every result delimits itself.
+ *
+ * <pre>
+ * LIST   offset u32, limit u32           -> u32 n, n entries, newest first
+ * SEARCH prefix u8, query string, limit u32 -> u32 n, n entries, newest first
+ * PUSH   flags u8, text string           -> id u64
+ * FETCH  id u64                          -> text string
+ * STREAM id u64                          -> length u32 (chars), chunks of u32 n and n bytes of UTF-8, ended by n = 0
+ *
+ * entry: id u64, capturedAt u64 (epoch millis), length u32 (chars), preview string
+ * </pre>
+ *
+ * An id is the content hash of the entry's text, it stays the same while the entry moves
+ * between the hot and the cold tier. PUSH adds the text to the history as if it had been
+ * copied; with {@link #PUSH_TO_CLIPBOARD} it is also put on the clipboard. FETCH refuses
+ * text over {@link #MAX_FETCH_CHARS} chars with {@link #TOO_LARGE}, such text is streamed.
+ * After a {@link #BAD_REQUEST} the rest of the batch cannot be parsed and is answered with
+ * {@link #BAD_REQUEST} as well.
+ */
+public final class Protocol {
+
+    public static final byte LIST = 1;
+    public static final byte SEARCH = 2;
+    public static final byte PUSH = 3;
+    public static final byte FETCH = 4;
+    public static final byte STREAM = 5;
+
+    public static final byte OK = 0;
+    public static final byte NOT_FOUND = 1;
+    public static final byte BAD_REQUEST = 2;
+    public static final byte TOO_LARGE = 3;
+    public static final byte ERROR = 4;
+
+    public static final int PUSH_TO_CLIPBOARD = 1;
+
+    public static final int MAX_REQUEST_BYTES = 16 * 1024 * 1024;
+    public static final int MAX_FETCH_CHARS = 1024 * 1024;
+    public static final int MAX_LIST_ENTRIES = 10_000;
+
+    private Protocol() {
+    }
+}
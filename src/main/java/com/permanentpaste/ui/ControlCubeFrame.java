@@ -4,17 +4,24 @@ import com.permanentpaste.core.AppSettings;
 
 import javax.swing.*;
 import java.awt.*;
-import java.awt.image.BufferedImage;
-import java.io.InputStream;
-import java.net.URL;
 import com.permanentpaste.core.ClipboardManager;
+import com.permanentpaste.core.LatencyStage;
+import com.permanentpaste.core.Log;
+import com.permanentpaste.core.SelectionClipboardBackend;
+
+import java.io.IOException;
+import java.nio.file.Path;
 
 public class ControlCubeFrame extends JFrame {
 
     private final AppSettings settings;
     private final ClipboardManager clipboardManager;
 
-    public ControlCubeFrame(AppSettings settings, ClipboardManager clipboardManager) {
+    /**
+     * @param mainFont The app font, loaded ahead of time with {@link UiResources#loadAppFont}
+     * @param logo     The processed logo from {@link UiResources#loadLogo}, or null if it could not be loaded
+     */
+    public ControlCubeFrame(AppSettings settings, ClipboardManager clipboardManager, Font mainFont, Image logo) {
         this.settings = settings;
         this.clipboardManager = clipboardManager;
 
@@ -24,8 +31,6 @@ public class ControlCubeFrame extends JFrame {
         setLocationRelativeTo(null);
         setResizable(false);
 
-        Font mainFont = loadAppFont("/AlienSpace.ttf", 14f);
-
         Color alienCyan = new Color(0xD709CCC1, true);
         Color retroBlack = new Color(0x0C1212);
         Color alienGray = new Color(0x192129);
@@ -41,33 +46,11 @@ public class ControlCubeFrame extends JFrame {
         gbc.fill = GridBagConstraints.HORIZONTAL;
 
         JLabel imageLabel = new JLabel();
-        try {
-            URL imageUrl = getClass().getResource("/mainImage.png");
-            if (imageUrl != null) {
-                BufferedImage img = javax.imageio.ImageIO.read(imageUrl);
-
-                for (int y = 0; y < img.getHeight(); y++) {
-                    for (int x = 0; x < img.getWidth(); x++) {
-                        int rgba = img.getRGB(x, y);
-                        Color col = new Color(rgba, true);
-
-                        if ((col.getRed() > 200 && col.getGreen() > 200 && col.getBlue() > 200) ||
-                                (Math.abs(col.getRed() - col.getGreen()) < 15 &&
-                                        Math.abs(col.getGreen() - col.getBlue()) < 15 &&
-                                        col.getRed() > 180)) {
-                            img.setRGB(x, y, 0x00FFFFFF);
-                        }
-                    }
-                }
-
-                Image scaledImage = img.getScaledInstance(380, -1, Image.SCALE_SMOOTH);
-                imageLabel.setIcon(new ImageIcon(scaledImage));
-            } else {
-                imageLabel.setText("Image not found");
-                imageLabel.setForeground(Color.CYAN.darker());
-            }
-        } catch (Exception e) {
-            imageLabel.setText("Error loading image");
+        if (logo != null) {
+            imageLabel.setIcon(new ImageIcon(logo));
+        } else {
+            imageLabel.setText("Image not found");
+            imageLabel.setForeground(Color.CYAN.darker());
         }
         imageLabel.setHorizontalAlignment(SwingConstants.CENTER);
 
@@ -89,7 +72,7 @@ public class ControlCubeFrame extends JFrame {
         gbc.gridy = 2;
         mainPanel.add(historyLabel, gbc);
 
-        Integer[] historySizes = {5, 7, 10, 15};
+        Integer[] historySizes = {5, 7, 10, 15, 50, 100, 500, 1000, 5000, 10000, 50000, 100000};
         JComboBox<Integer> historySizeDropdown = new JComboBox<>(historySizes);
         historySizeDropdown.setFont(mainFont);
         historySizeDropdown.setSelectedItem(settings.getHistorySize());
@@ -120,21 +103,38 @@ public class ControlCubeFrame extends JFrame {
         gbc.gridy = 5;
         mainPanel.add(includeCutCheckbox, gbc);
 
+        //select to copy, middle-click to paste: only where there is a PRIMARY selection
+        JCheckBox terminalCheckbox = new JCheckBox("Linux terminal mode (mouse selection history)");
+        terminalCheckbox.setFont(mainFont);
+        terminalCheckbox.setForeground(alienCyan);
+        terminalCheckbox.setOpaque(false);
+        terminalCheckbox.setSelected(settings.isUseInLinuxTerminal());
+        terminalCheckbox.setEnabled(SelectionClipboardBackend.isAvailable());
+        gbc.gridy = 6;
+        mainPanel.add(terminalCheckbox, gbc);
+
         JToggleButton saveButton = new JToggleButton("SAVE");
         saveButton.setFont(mainFont);
         saveButton.setBackground(alienGray);
         saveButton.setForeground(alienCyan);
         saveButton.setSelected(true);
-        gbc.gridy = 6;
+        gbc.gridy = 7;
         mainPanel.add(saveButton, gbc);
 
+        JButton latencyButton = new JButton("Latency report");
+        latencyButton.setFont(mainFont);
+        latencyButton.setBackground(alienGray);
+        latencyButton.setForeground(alienCyan);
+        gbc.gridy = 8;
+        mainPanel.add(latencyButton, gbc);
+
 
 
         onOffToggle.addActionListener(e -> {
                     boolean isSelected = onOffToggle.isSelected();
                     onOffToggle.setText(isSelected ? "Monitoring: ON" : "Monitoring: OFF");
                     settings.setMonitoringEnabled(isSelected);
-                    System.out.println("Monitoring toggled: " + isSelected);
+                    Log.info("Monitoring toggled: " + isSelected);
 
                     if (isSelected) {
                         clipboardManager.startMonitoring();
@@ -146,28 +146,33 @@ public class ControlCubeFrame extends JFrame {
         historySizeDropdown.addActionListener(e -> {
             int selectedSize = (Integer) historySizeDropdown.getSelectedItem();
             settings.setHistorySize(selectedSize);
-            System.out.println("History size set to: " + settings.getHistorySize());
+            Log.info("History size set to: " + settings.getHistorySize());
         });
 
         persistenceCheckbox.addActionListener(e -> {
             settings.setPersistenceEnabled(persistenceCheckbox.isSelected());
-            System.out.println("Persistence enabled: " + settings.isPersistenceEnabled());
+            Log.info("Persistence enabled: " + settings.isPersistenceEnabled());
         });
 
         includeCutCheckbox.addActionListener(e -> {
             settings.setIncludeCutItems(includeCutCheckbox.isSelected());
-            System.out.println("Include cut items enabled: " + settings.isIncludeCutItemsEnabled());
+            Log.info("Include cut items enabled: " + settings.isIncludeCutItemsEnabled());
         });
-    }
 
-    private Font loadAppFont(String resourcePath, float size) {
-        try {
-            InputStream is = getClass().getResourceAsStream(resourcePath);
-            if (is == null) throw new Exception("Font file not found at: " + resourcePath);
-            Font baseFont = Font.createFont(Font.TRUETYPE_FONT, is);
-            return baseFont.deriveFont(size);
-        } catch (Exception e) {
-            return new Font("Monospaced", Font.PLAIN, (int) size);
-        }
+        terminalCheckbox.addActionListener(e -> {
+            settings.setUseInLinuxTerminal(terminalCheckbox.isSelected());
+            Log.info("Linux terminal mode enabled: " + settings.isUseInLinuxTerminal());
+        });
+
+        latencyButton.addActionListener(e -> {
+            Path reportFile = settings.getDataDirectory().resolve("latency.txt");
+            Log.info(System.lineSeparator() + LatencyStage.report().stripTrailing());
+            try {
+                LatencyStage.writeReport(reportFile);
+                Log.info("Latency report written to " + reportFile);
+            } catch (IOException ex) {
+                Log.warn("Could not write latency report: " + ex.getMessage());
+            }
+        });
     }
 }
\ No newline at end of file
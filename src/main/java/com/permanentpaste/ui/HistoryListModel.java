@@ -0,0 +1,324 @@
+package com.permanentpaste.ui;
+
+import com.permanentpaste.core.HistoryEntry;
+
+import javax.swing.*;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntSupplier;
+
+/**
+ * List model for the history popup, newest entry first, kept in sync incrementally.
+ * Adding the newest entry and dropping the oldest one are O(1); removing an entry from the
+ * middle (an item re-copied and moved to the top) shifts the entries in between.
+ *
+ * Entries of the cold tier follow the in-memory ones. Only their count is tracked; reading
+ * them means disk reads, so they are paged in off the EDT in pages of {@value #PAGE_SIZE} rows
+ * when the list first asks for a row of a page, i.e. when it is scrolled into view. A row
+ * shows a loading placeholder until its page arrives. Pages are dropped whenever the cold
+ * rows shift.
+ *
+ * An optional pinned entry (the clipboard content at the time the popup opened) is shown
+ * above the history, and a placeholder is shown while there is nothing else.
+ * Must only be used on the EDT.
+ */
+public class HistoryListModel extends AbstractListModel<HistoryEntry> {
+
+    /**
+     * Reads a page of cold entries; called off the EDT.
+     */
+    public interface ColdPages {
+        /**
+         * @param from Age of the first entry, 0 being the newest
+         * @return Up to count entries, fewer if the cold tier ends before
+         */
+        List<HistoryEntry> load(int from, int count);
+    }
+
+    private static final int PAGE_SIZE = 64;
+    private static final HistoryEntry LOADING = new HistoryEntry("Loading...", 0L);
+    //shared by all models, a page read is short and they are never busy at the same time
+    private static final ExecutorService PAGER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "cold-history-pager");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final HistoryEntry placeholder;
+    //circular buffer, oldest at head
+    private HistoryEntry[] entries = new HistoryEntry[16];
+    private int head = 0;
+    private int count = 0;
+    private final Set<Long> hashes = new HashSet<>();
+    private HistoryEntry pinned;
+    private final IntSupplier coldSizeSource;
+    private final ColdPages coldEntries;
+    private int coldSize = 0;
+    //page index -> cold entries, and the pages being read; a stale read is recognized by the generation
+    private final Map<Integer, List<HistoryEntry>> coldPages = new HashMap<>();
+    private final Set<Integer> loadingPages = new HashSet<>();
+    private int pagesGeneration = 0;
+
+    public HistoryListModel(HistoryEntry placeholder) {
+        this(placeholder, () -> 0, (from, count) -> List.of());
+    }
+
+    /**
+     * @param coldSize Current number of cold entries
+     * @param coldEntries Reads cold entries by age off the EDT; may return fewer than asked once the cold tier moved on
+     */
+    public HistoryListModel(HistoryEntry placeholder, IntSupplier coldSize, ColdPages coldEntries) {
+        this.placeholder = placeholder;
+        this.coldSizeSource = coldSize;
+        this.coldEntries = coldEntries;
+    }
+
+    /**
+     * Replaces the whole content, oldest first, e.g. from a history snapshot, followed by the cold entries.
+     */
+    public void reset(List<HistoryEntry> oldestFirst) {
+        coldSize = coldSizeSource.getAsInt();
+        dropColdPages();
+        entries = new HistoryEntry[Math.max(16, Integer.highestOneBit(Math.max(1, oldestFirst.size())) * 2)];
+        head = 0;
+        count = 0;
+        hashes.clear();
+        for (HistoryEntry entry : oldestFirst) {
+            if (hashes.add(entry.getHash())) {
+                entries[count++] = entry;
+            }
+        }
+        fireContentsChanged(this, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Adds a new entry at the top. Ignored if an entry with the same content is already listed.
+     */
+    public void addNewest(HistoryEntry entry) {
+        if (!hashes.add(entry.getHash())) {
+            return;
+        }
+        boolean wasEmpty = isEmpty();
+        if (count == entries.length) {
+            HistoryEntry[] grown = new HistoryEntry[entries.length * 2];
+            for (int i = 0; i < count; i++) {
+                grown[i] = entries[(head + i) % entries.length];
+            }
+            entries = grown;
+            head = 0;
+        }
+        entries[(head + count) % entries.length] = entry;
+        count++;
+
+        int row = pinnedRows();
+        if (wasEmpty) {
+            fireContentsChanged(this, row, row);
+        } else {
+            fireIntervalAdded(this, row, row);
+        }
+    }
+
+    /**
+     * Removes an entry, O(1) when it is the oldest one. An entry that is not held here is
+     * one of the cold entries.
+     */
+    public void remove(HistoryEntry entry) {
+        if (!hashes.remove(entry.getHash())) {
+            syncCold(coldSize);
+            return;
+        }
+        int age = removeHot(entry);
+        if (age < 0) {
+            return;
+        }
+        int row = pinnedRows() + (count - age);
+        if (isEmpty()) {
+            fireContentsChanged(this, row, row);
+        } else {
+            fireIntervalRemoved(this, row, row);
+        }
+    }
+
+    /**
+     * Takes the cold entry count again after cold entries were added or removed without
+     * saying which ones.
+     */
+    public void refreshCold() {
+        syncCold(coldSize);
+    }
+
+    /**
+     * Moves an entry to the cold rows. The oldest entry becomes the newest cold entry, which
+     * is the same row, so nothing changes unless the cold tier dropped entries to make room.
+     */
+    public void demote(HistoryEntry entry) {
+        int row = pinnedRows() + count - 1;
+        int age = hashes.remove(entry.getHash()) ? removeHot(entry) : -1;
+        if (age > 0) {
+            //not the oldest, the rows in between moved up
+            fireContentsChanged(this, pinnedRows(), row);
+        }
+        //an entry that was not listed, e.g. loaded straight into the cold tier, is a new row
+        syncCold(age >= 0 ? coldSize + 1 : coldSize);
+    }
+
+    /**
+     * Takes the cold entry count from the cold tier and tells the list about the rows that
+     * appeared or disappeared since the expected count.
+     */
+    private void syncCold(int expected) {
+        boolean wasEmpty = isEmpty();
+        int first = pinnedRows() + count;
+        coldSize = coldSizeSource.getAsInt();
+        dropColdPages();
+        if (wasEmpty || isEmpty()) {
+            fireContentsChanged(this, 0, Integer.MAX_VALUE);
+        } else if (coldSize > expected) {
+            fireIntervalAdded(this, first + expected, first + coldSize - 1);
+        } else if (coldSize < expected) {
+            //which entry left is unknown, the remaining cold rows are refetched
+            fireIntervalRemoved(this, first + coldSize, first + expected - 1);
+            if (coldSize > 0) {
+                fireContentsChanged(this, first, first + coldSize - 1);
+            }
+        } else if (coldSize > 0) {
+            //same count, but the rows may have shifted
+            fireContentsChanged(this, first, first + coldSize - 1);
+        }
+    }
+
+    private void dropColdPages() {
+        coldPages.clear();
+        loadingPages.clear();
+        pagesGeneration++;
+    }
+
+    /**
+     * Reads a page of cold entries off the EDT, then shows its rows, unless the cold rows
+     * shifted in the meantime.
+     */
+    private void loadColdPage(int page) {
+        if (!loadingPages.add(page)) {
+            return;
+        }
+        int generation = pagesGeneration;
+        int from = page * PAGE_SIZE;
+        int size = Math.min(PAGE_SIZE, coldSize - from);
+        PAGER.execute(() -> {
+            List<HistoryEntry> entries = coldEntries.load(from, size);
+            SwingUtilities.invokeLater(() -> {
+                if (generation != pagesGeneration) {
+                    return;
+                }
+                loadingPages.remove(page);
+                coldPages.put(page, entries);
+                int first = pinnedRows() + count + from;
+                fireContentsChanged(this, first, first + size - 1);
+            });
+        });
+    }
+
+    /**
+     * @return Age of the removed entry, 0 being the oldest, or -1 if it was not found
+     */
+    private int removeHot(HistoryEntry entry) {
+        int age = -1;
+        for (int i = 0; i < count; i++) {
+            if (entries[(head + i) % entries.length].getHash() == entry.getHash()) {
+                age = i;
+                break;
+            }
+        }
+        if (age < 0) {
+            return age;
+        }
+        if (age == 0) {
+            entries[head] = null;
+            head = (head + 1) % entries.length;
+        } else {
+            for (int i = age; i < count - 1; i++) {
+                entries[(head + i) % entries.length] = entries[(head + i + 1) % entries.length];
+            }
+            entries[(head + count - 1) % entries.length] = null;
+        }
+        count--;
+        return age;
+    }
+
+    /**
+     * Shows an entry above the history, or nothing if null.
+     */
+    public void setPinned(HistoryEntry entry) {
+        if (pinned == entry) {
+            return;
+        }
+        HistoryEntry previous = pinned;
+        boolean wasEmpty = isEmpty();
+        pinned = entry;
+        if (previous != null && entry != null || wasEmpty || isEmpty()) {
+            fireContentsChanged(this, 0, 0);
+        } else if (entry != null) {
+            fireIntervalAdded(this, 0, 0);
+        } else {
+            fireIntervalRemoved(this, 0, 0);
+        }
+    }
+
+    public HistoryEntry getPinned() {
+        return pinned;
+    }
+
+    public boolean isPlaceholder(HistoryEntry entry) {
+        return entry == placeholder || entry == LOADING;
+    }
+
+    /**
+     * @return Number of history entries, cold ones included, not counting the pinned entry or placeholder
+     */
+    public int getHistorySize() {
+        return count + coldSize;
+    }
+
+    @Override
+    public int getSize() {
+        return isEmpty() ? 1 : pinnedRows() + count + coldSize;
+    }
+
+    @Override
+    public HistoryEntry getElementAt(int index) {
+        if (isEmpty()) {
+            return placeholder;
+        }
+        if (pinned != null) {
+            if (index == 0) {
+                return pinned;
+            }
+            index--;
+        }
+        if (index >= count) {
+            int coldIndex = index - count;
+            List<HistoryEntry> page = coldPages.get(coldIndex / PAGE_SIZE);
+            if (page == null) {
+                loadColdPage(coldIndex / PAGE_SIZE);
+                return LOADING;
+            }
+            //the cold tier moved on, the event saying so is still queued
+            return coldIndex % PAGE_SIZE < page.size() ? page.get(coldIndex % PAGE_SIZE) : placeholder;
+        }
+        //newest first
+        return entries[(head + count - 1 - index) % entries.length];
+    }
+
+    private boolean isEmpty() {
+        return count == 0 && coldSize == 0 && pinned == null;
+    }
+
+    private int pinnedRows() {
+        return pinned != null ? 1 : 0;
+    }
+}
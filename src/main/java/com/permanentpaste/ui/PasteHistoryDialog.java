@@ -1,29 +1,96 @@
 package com.permanentpaste.ui;
 
+import com.permanentpaste.core.ClipboardLock;
 import com.permanentpaste.core.ClipboardManager;
+import com.permanentpaste.core.ContentClassifier;
+import com.permanentpaste.core.HistoryEntry;
+import com.permanentpaste.core.HistoryListener;
+import com.permanentpaste.core.ImageStore;
+import com.permanentpaste.core.JfrEvents;
+import com.permanentpaste.core.LatencyStage;
+import com.permanentpaste.core.Log;
+import com.permanentpaste.core.PasteExecutor;
+import com.permanentpaste.core.ThumbnailCache;
+import com.permanentpaste.core.TrigramIndex;
 
 import javax.swing.*;
+import javax.swing.border.Border;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
-import java.awt.datatransfer.StringSelection;
+import java.awt.datatransfer.Transferable;
+import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.awt.Robot;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class PasteHistoryDialog extends JDialog {
 
     private final ClipboardManager clipboardManager;
-    private final JList<String> historyList;
-    private final DefaultListModel<String> listModel;
+    private final PasteExecutor pasteExecutor;
+    private static final HistoryEntry EMPTY_PLACEHOLDER = new HistoryEntry("History is empty.", 0L);
+    //sizes the cells, so layout never measures the real (possibly huge) entries
+    private static final HistoryEntry PROTOTYPE_CELL = new HistoryEntry("W".repeat(60), 0L);
+    private static final int MAX_VISIBLE_ROWS = 12;
+
+    //shared styling, the renderer runs for every visible cell on every repaint
+    private static final Color ALIEN_CYAN = new Color(0xD709CCC1, true);
+    private static final Color ALIEN_GRAY = new Color(0x192129);
+    private static final Color RETRO_BLACK = new Color(0x0C1212);
+    private static final Font LIST_FONT = new Font("Monospaced", Font.PLAIN, 14);
+    private static final Border CELL_BORDER = BorderFactory.createEmptyBorder(5, 10, 5, 10);
+
+    private final JList<HistoryEntry> historyList;
+    //full history, kept in sync with the clipboard manager while the popup is hidden
+    private final HistoryListModel historyModel;
+    //search results while the filter field is not empty
+    private final DefaultListModel<HistoryEntry> filterModel = new DefaultListModel<>();
+    //the cold tier is searched on disk here; a newer filter makes a running search give up
+    private final ExecutorService coldSearcher = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "cold-history-search");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicInteger filterGeneration = new AtomicInteger();
+    private final JTextField filterField;
     private Runnable onDialogClosed;
+    //the clipboard content at the time the dialog opened, if it is not in history
+    private HistoryEntry currentEntry;
+    private String currentEntryLabel;
+    private long lastShowLatencyNanos = -1L;
+    private final ThumbnailCache thumbnails;
+    private final JScrollPane scrollPane;
+    //terminal mode: history of the PRIMARY selection, null otherwise
+    private ClipboardManager selectionManager;
+    private HistoryListModel selectionModel;
+    private HistoryListener selectionListener;
+    private boolean showingSelection = false;
+    private String borderTitle;
+    private PasteExecutor.PasteMethod clipboardPasteMethod = PasteExecutor.PasteMethod.CTRL_V;
 
-    public PasteHistoryDialog(ClipboardManager clipboardManager) {
+    public PasteHistoryDialog(ClipboardManager clipboardManager, PasteExecutor pasteExecutor) {
         this.clipboardManager = clipboardManager;
-        this.listModel = new DefaultListModel<>();
+        this.pasteExecutor = pasteExecutor;
+        //cold entries are only read from disk when their rows are shown
+        this.historyModel = new HistoryListModel(EMPTY_PLACEHOLDER, clipboardManager::getColdSize, clipboardManager::getColdEntries);
         //list for display
-        this.historyList = new JList<>(listModel);
+        this.historyList = new JList<>(historyModel);
+
+        //listen first, then load, the model ignores entries it already has
+        clipboardManager.addHistoryListener(modelUpdater(historyModel));
+        historyModel.reset(clipboardManager.getHistorySnapshot());
+        //thumbnails are made off the EDT, the list only draws them once they are ready
+        thumbnails = clipboardManager.getThumbnails();
+        thumbnails.addListener(key -> SwingUtilities.invokeLater(historyList::repaint));
 
         //removes standard formatting
         setUndecorated(true);
@@ -33,15 +100,80 @@ public class PasteHistoryDialog extends JDialog {
         setLayout(new BorderLayout());
 
         historyList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
-        historyList.setFont(new Font("Monospaced", Font.PLAIN, 14));
-        historyList.setBackground(new Color(0x192129));
-        historyList.setForeground(new Color(0xD709CCC1, true));
+        historyList.setFont(LIST_FONT);
+        historyList.setBackground(ALIEN_GRAY);
+        historyList.setForeground(ALIEN_CYAN);
         historyList.setCellRenderer(new CustomCellRenderer());
+        //fixed cell size from a prototype, so sizing is O(1) whatever is in the history
+        historyList.setPrototypeCellValue(PROTOTYPE_CELL);
+        historyList.setVisibleRowCount(MAX_VISIBLE_ROWS);
 
-        JScrollPane scrollPane = new JScrollPane(historyList);
-        scrollPane.setBorder(BorderFactory.createLineBorder(new Color(0xD709CCC1, true), 2));
+        scrollPane = new JScrollPane(historyList);
+        scrollPane.setBorder(BorderFactory.createLineBorder(ALIEN_CYAN, 2));
         add(scrollPane, BorderLayout.CENTER);
 
+        //type to filter, a leading ^ matches only at the start of an item, a leading #url, #secret etc. only tagged items
+        filterField = new JTextField();
+        filterField.setFont(LIST_FONT);
+        filterField.setBackground(RETRO_BLACK);
+        filterField.setForeground(ALIEN_CYAN);
+        filterField.setCaretColor(ALIEN_CYAN);
+        filterField.setBorder(BorderFactory.createCompoundBorder(
+                BorderFactory.createLineBorder(ALIEN_CYAN, 2),
+                BorderFactory.createEmptyBorder(4, 8, 4, 8)));
+        add(filterField, BorderLayout.NORTH);
+        //Tab switches between the clipboard and selection histories instead of moving focus
+        filterField.setFocusTraversalKeysEnabled(false);
+
+        filterField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                applyFilter();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                applyFilter();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                applyFilter();
+            }
+        });
+
+        //arrows move through the list, enter pastes, escape closes
+        filterField.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                int selected = historyList.getSelectedIndex();
+                switch (e.getKeyCode()) {
+                    case KeyEvent.VK_DOWN -> historyList.setSelectedIndex(Math.min(selected + 1, historyList.getModel().getSize() - 1));
+                    case KeyEvent.VK_UP -> historyList.setSelectedIndex(Math.max(selected - 1, 0));
+                    case KeyEvent.VK_ENTER -> {
+                        if (historyList.getModel().getSize() > 0) {
+                            pasteAndClose(historyList.getModel().getElementAt(Math.max(selected, 0)));
+                        }
+                    }
+                    case KeyEvent.VK_TAB -> {
+                        if (selectionManager != null) {
+                            showHistory(!showingSelection);
+                        }
+                    }
+                    case KeyEvent.VK_ESCAPE -> {
+                        setVisible(false);
+                        if (onDialogClosed != null) {
+                            onDialogClosed.run();
+                        }
+                    }
+                    default -> {
+                        return;
+                    }
+                }
+                historyList.ensureIndexIsVisible(historyList.getSelectedIndex());
+            }
+        });
+
         //listens to when we clicked somewhere else AFTER PASTING to hide, simulating real life paste
         //window
         addWindowFocusListener(new WindowAdapter() {
@@ -73,121 +205,382 @@ public class PasteHistoryDialog extends JDialog {
                     if (index >= 0) {
                         //ako index je 0 ili jednako
                         //get it and paste it
-                        String selectedText = listModel.getElementAt(index);
-                        pasteText(selectedText);
-                        setVisible(false);
-                        if (onDialogClosed != null) {
-                            onDialogClosed.run();
-                        }
+                        pasteAndClose(historyList.getModel().getElementAt(index));
                     }
                 }
             }
         });
+
+        //realize and lay out the window now, so showing it later is cheap
+        pack();
     }
 
-    public void showDialogWithClipboardInterception(int x, int y, String originalClipboardContent, Runnable onCloseCallback) {
-        this.onDialogClosed = onCloseCallback;
-        listModel.clear();
+    private static HistoryListener modelUpdater(HistoryListModel model) {
+        return new HistoryListener() {
+            @Override
+            public void entryAdded(HistoryEntry entry) {
+                SwingUtilities.invokeLater(() -> model.addNewest(entry));
+            }
 
-        // Add the original clipboard content at the top if it's not empty
-        if (originalClipboardContent != null && !originalClipboardContent.trim().isEmpty()) {
-            // Check if it's already in history to avoid duplicates
-            boolean found = false;
-            for (String item : clipboardManager.getClipboardHistory()) {
-                if (item.equals(originalClipboardContent)) {
-                    found = true;
-                    break;
-                }
+            @Override
+            public void entryRemoved(HistoryEntry entry) {
+                SwingUtilities.invokeLater(() -> model.remove(entry));
+            }
+
+            @Override
+            public void entryDemoted(HistoryEntry entry) {
+                SwingUtilities.invokeLater(() -> model.demote(entry));
             }
-            if (!found) {
-                listModel.addElement(originalClipboardContent + " (current)");
+
+            @Override
+            public void coldEntryDropped(long hash) {
+                SwingUtilities.invokeLater(model::refreshCold);
             }
+
+            @Override
+            public void coldEntriesRestored() {
+                SwingUtilities.invokeLater(model::refreshCold);
+            }
+        };
+    }
+
+    /**
+     * Terminal mode: the popup also offers the history of the PRIMARY selection, Tab switches
+     * between the two, and clipboard items are pasted with Ctrl+Shift+V, selection items with
+     * a middle click. Must be called on the EDT.
+     * @param selectionManager Manager of the PRIMARY selection, or null to leave terminal mode
+     */
+    public void setSelectionHistory(ClipboardManager selectionManager) {
+        if (this.selectionManager != null) {
+            this.selectionManager.removeHistoryListener(selectionListener);
+        }
+        this.selectionManager = selectionManager;
+        selectionModel = null;
+        selectionListener = null;
+        clipboardPasteMethod = PasteExecutor.PasteMethod.CTRL_V;
+        if (selectionManager != null) {
+            HistoryListModel model = new HistoryListModel(EMPTY_PLACEHOLDER, selectionManager::getColdSize, selectionManager::getColdEntries);
+            selectionListener = modelUpdater(model);
+            selectionManager.addHistoryListener(selectionListener);
+            model.reset(selectionManager.getHistorySnapshot());
+            selectionModel = model;
+            clipboardPasteMethod = PasteExecutor.PasteMethod.CTRL_SHIFT_V;
         }
+        if (!isVisible()) {
+            prepare();
+        } else {
+            showHistory(false);
+        }
+    }
 
-        //starts fresh with latest
-        String[] history = clipboardManager.getClipboardHistory();
-        //oldest is at 0
-        for (int i = history.length - 1; i >= 0; i--) {
-            listModel.addElement(history[i]);
+    /**
+     * Switches the list to the clipboard or, in terminal mode, the selection history,
+     * keeping the filter.
+     */
+    private void showHistory(boolean selection) {
+        showingSelection = selection && selectionManager != null;
+        if (updateBorder()) {
+            pack();
         }
+        applyFilter();
+    }
 
-        if (listModel.isEmpty()) {
-            listModel.addElement("History is empty.");
+    /**
+     * Titles the list with the history it shows, in terminal mode only.
+     * @return True if the border changed, the window then needs to be packed again
+     */
+    private boolean updateBorder() {
+        String title = selectionManager == null ? null
+                : showingSelection ? "Selection - Tab: clipboard" : "Clipboard - Tab: selection";
+        if (Objects.equals(title, borderTitle)) {
+            return false;
         }
+        borderTitle = title;
+        Border line = BorderFactory.createLineBorder(ALIEN_CYAN, 2);
+        scrollPane.setBorder(title == null ? line
+                : BorderFactory.createTitledBorder(line, title, 0, 0, LIST_FONT, ALIEN_CYAN));
+        return true;
+    }
 
-        //resizes
-        pack();
-        //sets above mouse
-        setLocation(x, y);
-        setVisible(true);
-        requestFocusInWindow();
+    private HistoryListModel activeModel() {
+        return showingSelection ? selectionModel : historyModel;
     }
 
-    private void pasteText(String text) {
-        // Clean the text - remove " (current)" suffix if present
-        String cleanText = text;
-        if (text.endsWith(" (current)")) {
-            cleanText = text.substring(0, text.length() - 11);
-        }
+    private ClipboardManager activeManager() {
+        return showingSelection ? selectionManager : clipboardManager;
+    }
 
-        // Make cleanText final for lambda access
-        final String finalCleanText = cleanText;
+    /**
+     * Gets the popup ready to be shown: back to the unfiltered clipboard history, sized for it.
+     * Called speculatively when a hotkey sequence starts, so the trigger itself only has to
+     * position and show the window. Must be called on the EDT.
+     */
+    public void prepare() {
+        if (isVisible()) {
+            return;
+        }
+        JfrEvents.PopupPrepare event = new JfrEvents.PopupPrepare();
+        event.begin();
+        if (!filterField.getText().isEmpty()) {
+            filterField.setText("");
+        }
+        showingSelection = false;
+        boolean retitled = updateBorder();
+        historyList.setModel(historyModel);
+        historyList.setSelectedIndex(0);
+        int rows = Math.min(historyModel.getSize(), MAX_VISIBLE_ROWS);
+        if (rows != historyList.getVisibleRowCount() || retitled || !isDisplayable()) {
+            historyList.setVisibleRowCount(rows);
+            pack();
+            event.repacked = true;
+        }
+        event.commit();
+    }
 
-        // Place the selected text in clipboard
-        clipboardManager.restoreClipboard(cleanText);
-        clipboardManager.updateLastSeenClipboardContent(cleanText);
+    /**
+     * @return Time from the hotkey to the popup being visible for the last show, in nanoseconds
+     */
+    public long getLastShowLatencyNanos() {
+        return lastShowLatencyNanos;
+    }
 
+    private void pasteAndClose(HistoryEntry selectedEntry) {
+        if (historyModel.isPlaceholder(selectedEntry)) {
+            return;
+        }
+        pasteText(selectedEntry);
         setVisible(false);
+        if (onDialogClosed != null) {
+            onDialogClosed.run();
+        }
+    }
 
-        // Use Robot to simulate the actual paste action
-        new Thread(() -> {
-            try {
-                Robot robot = new Robot();
+    /**
+     * Narrows the list to the entries matching the filter field, using the history search index.
+     * The matches in memory are shown right away; the cold tier is searched in the background,
+     * its matches are appended when the search ends, unless the filter changed meanwhile.
+     */
+    private void applyFilter() {
+        int generation = filterGeneration.incrementAndGet();
+        JfrEvents.PopupFilter event = new JfrEvents.PopupFilter();
+        event.begin();
+        String query = filterField.getText();
+        //a leading tag, e.g. "#url github", keeps only the entries the classifier gave that tag
+        ContentClassifier.Tag tag = null;
+        if (query.startsWith("#")) {
+            int space = query.indexOf(' ');
+            tag = ContentClassifier.Tag.forLabel(query.substring(1, space < 0 ? query.length() : space));
+            if (tag != null) {
+                query = space < 0 ? "" : query.substring(space + 1);
+            }
+        }
+        boolean prefix = query.startsWith("^");
+        if (prefix) {
+            query = query.substring(1);
+        }
 
-                // Small delay to ensure clipboard is ready
-                Thread.sleep(50);
+        if (query.isEmpty() && tag == null) {
+            historyList.setModel(activeModel());
+        } else {
+            filterModel.clear();
+            if (!showingSelection && currentEntry != null && (tag == null || currentEntry.hasTag(tag))
+                    && TrigramIndex.containsIgnoreCase(currentEntry.getText(), query, prefix)) {
+                filterModel.addElement(currentEntry);
+            }
+            ClipboardManager manager = activeManager();
+            for (HistoryEntry entry : manager.searchHot(query, prefix)) {
+                if (tag == null || entry.hasTag(tag)) {
+                    filterModel.addElement(entry);
+                }
+            }
+            if (filterModel.isEmpty()) {
+                filterModel.addElement(EMPTY_PLACEHOLDER);
+            }
+            historyList.setModel(filterModel);
+            searchCold(manager, query, prefix, tag, generation);
+        }
+        historyList.setSelectedIndex(0);
 
-                // Release any currently held modifier keys
-                robot.keyRelease(KeyEvent.VK_CONTROL);
-                robot.keyRelease(KeyEvent.VK_SHIFT);
-                robot.keyRelease(KeyEvent.VK_ALT);
-                robot.keyRelease(KeyEvent.VK_META);
+        event.end();
+        if (event.shouldCommit()) {
+            event.queryLength = query.length();
+            event.results = historyList.getModel().getSize();
+            event.commit();
+        }
+    }
 
-                // Small delay before paste
-                Thread.sleep(50);
+    /**
+     * Searches the cold tier off the EDT and appends the matches to the filtered list.
+     * The search is not interrupted, that would close the files it reads; it polls the
+     * generation instead and stops once a newer filter was applied.
+     */
+    private void searchCold(ClipboardManager manager, String query, boolean prefix, ContentClassifier.Tag tag,
+                            int generation) {
+        if (query.isEmpty()) {
+            return;
+        }
+        coldSearcher.execute(() -> {
+            List<HistoryEntry> matches = manager.searchCold(query, prefix, () -> filterGeneration.get() != generation);
+            SwingUtilities.invokeLater(() -> {
+                if (filterGeneration.get() != generation) {
+                    return;
+                }
+                boolean placeholderOnly = filterModel.size() == 1 && filterModel.get(0) == EMPTY_PLACEHOLDER;
+                for (HistoryEntry entry : matches) {
+                    if (tag == null || entry.hasTag(tag)) {
+                        if (placeholderOnly) {
+                            filterModel.clear();
+                            placeholderOnly = false;
+                        }
+                        filterModel.addElement(entry);
+                    }
+                }
+                if (historyList.getSelectedIndex() < 0) {
+                    historyList.setSelectedIndex(0);
+                }
+            });
+        });
+    }
 
-                // Simulate Ctrl+V to paste the selected content
-                robot.keyPress(KeyEvent.VK_CONTROL);
-                robot.keyPress(KeyEvent.VK_V);
-                robot.keyRelease(KeyEvent.VK_V);
-                robot.keyRelease(KeyEvent.VK_CONTROL);
+    public void showDialogWithClipboardInterception(int x, int y, ClipboardLock clipboardLock, Runnable onCloseCallback) {
+        showDialogWithClipboardInterception(x, y, clipboardLock, onCloseCallback, System.nanoTime());
+    }
 
-                System.out.println("Pasted via clipboard interception: " +
-                    (finalCleanText.length() > 50 ? finalCleanText.substring(0, 50) + "..." : finalCleanText));
+    /**
+     * Shows the popup at the given location. The history model is already up to date and the
+     * window already laid out (see {@link #prepare()}), so this only pins the current clipboard
+     * content, positions and shows the window.
+     * @param clipboardLock Lock holding the clipboard content from before the hotkey
+     * @param triggeredAtNanos {@link System#nanoTime()} of the hotkey, for latency reporting
+     */
+    public void showDialogWithClipboardInterception(int x, int y, ClipboardLock clipboardLock, Runnable onCloseCallback,
+                                                    long triggeredAtNanos) {
+        JfrEvents.PopupShow event = new JfrEvents.PopupShow();
+        event.begin();
+        this.onDialogClosed = onCloseCallback;
+        currentEntry = null;
+        String originalClipboardContent = clipboardLock.getOriginalText();
 
-            } catch (Exception e) {
-                System.err.println("Error during paste simulation: " + e.getMessage());
-                // Fallback: just put text in clipboard and let user paste manually
-                Toolkit.getDefaultToolkit().getSystemClipboard().setContents(
-                    new StringSelection(finalCleanText), null);
+        // Add the original clipboard content at the top if it's not empty
+        if (originalClipboardContent != null && !originalClipboardContent.trim().isEmpty()) {
+            // Check if it's already in history to avoid duplicates
+            if (!clipboardManager.isInHistory(originalClipboardContent)) {
+                currentEntry = new HistoryEntry(originalClipboardContent, System.currentTimeMillis());
+                currentEntryLabel = currentEntry.getPreview() + " (current)";
             }
-        }).start();
+        }
 
-        if (onDialogClosed != null) {
-            onDialogClosed.run();
+        //starts fresh with latest, unfiltered
+        historyModel.setPinned(currentEntry);
+        //resizes only if the row count changed
+        prepare();
+        //sets above mouse
+        setLocation(x, y);
+        setVisible(true);
+        filterField.requestFocusInWindow();
+
+        lastShowLatencyNanos = System.nanoTime() - triggeredAtNanos;
+        LatencyStage.POPUP_VISIBLE.record(lastShowLatencyNanos);
+        event.end();
+        if (event.shouldCommit()) {
+            event.sinceHotkeyNanos = lastShowLatencyNanos;
+            event.rows = historyModel.getSize();
+            event.pinned = currentEntry != null;
+            event.commit();
         }
+        long showNanos = lastShowLatencyNanos;
+        Log.debug(() -> String.format(Locale.ROOT, "Popup visible %.2f ms after hotkey", showNanos / 1_000_000.0));
     }
 
-    private static class CustomCellRenderer extends DefaultListCellRenderer {
+    private void pasteText(HistoryEntry entry) {
+        long chosenAtNanos = System.nanoTime();
+        ClipboardManager manager = activeManager();
+        PasteExecutor.PasteMethod method = showingSelection ? PasteExecutor.PasteMethod.MIDDLE_CLICK : clipboardPasteMethod;
+        // Place the selected entry in clipboard, large items are only read when the target app pastes
+        Transferable placed = manager.restoreClipboard(entry);
+        LatencyStage.PASTE_CLIPBOARD.recordSince(chosenAtNanos);
+        manager.updateLastSeenClipboardContent(entry);
+
+        setVisible(false);
+        if (placed == null) {
+            return;
+        }
+
+        // Send the paste keys once the clipboard, focus and modifier keys are ready
+        pasteExecutor.paste(placed, this, method).whenComplete((timings, error) -> {
+            if (error != null) {
+                // Fallback: the text stays in clipboard and the user pastes manually
+                Log.warn("Error during paste simulation: " + error.getMessage());
+            } else {
+                LatencyStage.PASTE_DISPATCH.recordSince(chosenAtNanos);
+                Log.info("Pasted via clipboard interception: " + entry.getLength() + " chars (" + timings + ")");
+            }
+        });
+    }
+
+    /**
+     * The entry's content tags as a badge in front of its text. A likely secret is not shown,
+     * only its length.
+     */
+    private String badged(HistoryEntry entry, String text) {
+        if (entry.hasTag(ContentClassifier.Tag.SECRET)) {
+            text = "******** " + entry.getLength() + " chars" + (entry == currentEntry ? " (current)" : "");
+        }
+        return "[" + ContentClassifier.describe(entry.getTags()) + "] " + text;
+    }
+
+    private class CustomCellRenderer extends DefaultListCellRenderer {
+        //one icon for every cell, each cell is painted right after it is rendered
+        private final ThumbnailIcon thumbnailIcon = new ThumbnailIcon();
+
         @Override
         public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
             JLabel label = (JLabel) super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
-            label.setBorder(BorderFactory.createEmptyBorder(5, 10, 5, 10));
+            if (value == currentEntry) {
+                label.setText(currentEntryLabel);
+            }
+            if (value instanceof HistoryEntry entry && entry.getTags() != 0) {
+                label.setText(badged(entry, label.getText()));
+            }
+            ImageStore.Ref image = null;
+            if (value instanceof HistoryEntry entry && entry.getFlavors() != null) {
+                image = entry.getFlavors().getImage();
+            }
+            //the prototype reserves the thumbnail height, so rows with and without images line up
+            if (image != null || value == PROTOTYPE_CELL) {
+                thumbnailIcon.image = image == null ? null : thumbnails.get(image);
+                label.setIcon(thumbnailIcon);
+            }
+            label.setBorder(CELL_BORDER);
             if (isSelected) {
-                label.setBackground(new Color(0xD709CCC1, true));
-                label.setForeground(new Color(0x192129));
+                label.setBackground(ALIEN_CYAN);
+                label.setForeground(ALIEN_GRAY);
             }
             return label;
         }
     }
+
+    /**
+     * Draws a precomputed thumbnail in a fixed box, or nothing while it is being made.
+     */
+    private static class ThumbnailIcon implements Icon {
+        private BufferedImage image;
+
+        @Override
+        public void paintIcon(Component c, Graphics g, int x, int y) {
+            if (image != null) {
+                g.drawImage(image, x, y + (getIconHeight() - image.getHeight()) / 2, null);
+            }
+        }
+
+        @Override
+        public int getIconWidth() {
+            return ClipboardManager.THUMBNAIL_WIDTH;
+        }
+
+        @Override
+        public int getIconHeight() {
+            return ClipboardManager.THUMBNAIL_HEIGHT;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,127 @@
+package com.permanentpaste.ui;
+
+import com.permanentpaste.core.Log;
+
+import javax.imageio.ImageIO;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Loads the fonts and images used by the UI. Everything here is safe to call off the EDT,
+ * so startup can prepare these while other work runs.
+ */
+public final class UiResources {
+
+    private static final int LOGO_WIDTH = 380;
+    //bump when the logo processing changes, so old cache files are not reused
+    private static final String LOGO_PROCESSING_VERSION = "1";
+
+    private UiResources() {
+    }
+
+    public static Font loadAppFont(String resourcePath, float size) {
+        try (InputStream is = UiResources.class.getResourceAsStream(resourcePath)) {
+            if (is == null) throw new IOException("Font file not found at: " + resourcePath);
+            Font baseFont = Font.createFont(Font.TRUETYPE_FONT, is);
+            return baseFont.deriveFont(size);
+        } catch (Exception e) {
+            return new Font("Monospaced", Font.PLAIN, (int) size);
+        }
+    }
+
+    /**
+     * Returns the logo with its light background removed and scaled to the window width.
+     * The processed image is cached in cacheDirectory under a hash of the source image,
+     * so only the first launch (or a changed image) pays for the pixel loop and scaling.
+     * @return The logo, or null if the resource is missing or unreadable
+     */
+    public static BufferedImage loadLogo(String resourcePath, Path cacheDirectory) {
+        try (InputStream is = UiResources.class.getResourceAsStream(resourcePath)) {
+            if (is == null) {
+                return null;
+            }
+            byte[] source = is.readAllBytes();
+            Path cacheFile = cacheDirectory.resolve("logo-" + cacheKey(source) + ".png");
+
+            BufferedImage cached = readCached(cacheFile);
+            if (cached != null) {
+                return cached;
+            }
+
+            BufferedImage logo = processLogo(ImageIO.read(new ByteArrayInputStream(source)));
+            try {
+                Files.createDirectories(cacheDirectory);
+                //write and rename, so a crash never leaves a truncated file under a valid key
+                Path temporary = cacheDirectory.resolve(cacheFile.getFileName() + ".tmp");
+                ImageIO.write(logo, "png", temporary.toFile());
+                Files.move(temporary, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Log.warn("Could not cache logo: " + e.getMessage());
+            }
+            return logo;
+        } catch (Exception e) {
+            Log.warn("Error loading logo: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return The cached logo, or null if there is none or it cannot be read, so it is made again
+     */
+    private static BufferedImage readCached(Path cacheFile) {
+        if (!Files.isRegularFile(cacheFile)) {
+            return null;
+        }
+        try {
+            return ImageIO.read(cacheFile.toFile());
+        } catch (IOException | RuntimeException e) {
+            Log.warn("Ignoring unreadable logo cache: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static BufferedImage processLogo(BufferedImage img) {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        int[] pixels = img.getRGB(0, 0, width, height, null, 0, width);
+
+        //make white and light gray background pixels transparent
+        for (int i = 0; i < pixels.length; i++) {
+            int red = (pixels[i] >> 16) & 0xFF;
+            int green = (pixels[i] >> 8) & 0xFF;
+            int blue = pixels[i] & 0xFF;
+            if ((red > 200 && green > 200 && blue > 200) ||
+                    (Math.abs(red - green) < 15 && Math.abs(green - blue) < 15 && red > 180)) {
+                pixels[i] = 0x00FFFFFF;
+            }
+        }
+        BufferedImage transparent = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        transparent.setRGB(0, 0, width, height, pixels, 0, width);
+
+        Image scaled = transparent.getScaledInstance(LOGO_WIDTH, -1, Image.SCALE_SMOOTH);
+        int scaledHeight = Math.max(1, height * LOGO_WIDTH / width);
+        BufferedImage result = new BufferedImage(LOGO_WIDTH, scaledHeight, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = result.createGraphics();
+        //ImageIcon waits for the scaling filter to finish before we draw
+        g.drawImage(new ImageIcon(scaled).getImage(), 0, 0, null);
+        g.dispose();
+        return result;
+    }
+
+    private static String cacheKey(byte[] source) throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(source);
+        digest.update((LOGO_PROCESSING_VERSION + ":" + LOGO_WIDTH).getBytes());
+        return HexFormat.of().formatHex(digest.digest(), 0, 16);
+    }
+}